@@ -0,0 +1,44 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.api;
+
+import org.openide.filesystems.FileObject;
+
+/**
+ * Tool independent access to the single code defects of a result, used to
+ * write them to a report.
+ *
+ * @author Sven Reimers
+ */
+public interface QualityResultReport {
+
+    /**
+     * Hands every code defect with a known source file to the reporter.
+     */
+    public void report(Reporter reporter);
+
+    public interface Reporter {
+
+        /**
+         * @param line the line in the file starting with 1, or a value below
+         * 1 if the defect has no line
+         * @param type the tool specific kind of the defect, e.g. the rule
+         */
+        public void codeDefect(FileObject file, int line, CodeDefectSeverity severity, String type, String message);
+    }
+}
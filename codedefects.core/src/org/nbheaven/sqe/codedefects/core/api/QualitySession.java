@@ -69,6 +69,15 @@ public interface QualitySession {
 
     public void computeResult();
 
+    /**
+     * Like {@link #computeResult()} for scans nobody is actively waiting
+     * for, e.g. the ones started by the task list. They give way to the
+     * scans the user asked for.
+     */
+    public default void computeResultInBackground() {
+        computeResult();
+    }
+
     public QualityResult computeResultAndWait();
 
 }
@@ -17,6 +17,7 @@
  */
 package org.nbheaven.sqe.codedefects.core.api;
 
+import java.util.Collection;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.Project;
 
@@ -29,4 +30,18 @@ public interface SQEAnnotationProcessor {
         Project project, QualityResult qualityResult);
     
     public void clearAllAnnotations(Project project);
+
+    /**
+     * Brings the annotations of the given open sources from the old to the
+     * new result. Implementations should only touch annotations of defects
+     * that were added or removed, the default clears all annotations and
+     * annotates the sources again.
+     */
+    public default void updateAnnotations(Collection<JavaSource> javaSources,
+        Project project, QualityResult oldResult, QualityResult newResult) {
+        clearAllAnnotations(project);
+        for (JavaSource javaSource : javaSources) {
+            annotateSourceFile(javaSource, project, newResult);
+        }
+    }
 }
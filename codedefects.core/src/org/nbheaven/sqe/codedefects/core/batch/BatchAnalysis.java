@@ -0,0 +1,185 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nbheaven.sqe.codedefects.core.api.QualityProvider;
+import org.nbheaven.sqe.codedefects.core.api.QualityResult;
+import org.nbheaven.sqe.codedefects.core.api.QualitySession;
+import org.nbheaven.sqe.codedefects.core.spi.SQEUtilities;
+import org.nbheaven.sqe.codedefects.core.spi.SourceSnapshot;
+import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
+import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectManager;
+import org.netbeans.api.project.SourceGroup;
+import org.netbeans.api.project.ui.OpenProjects;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs all quality providers enabled for a project concurrently and without
+ * any UI, using the same sessions and scanner jobs as the IDE actions. The
+ * time spent in each phase is recorded next to the results.
+ *
+ * @author Sven Reimers
+ */
+final class BatchAnalysis {
+
+    private static final Logger LOG = Logger.getLogger(BatchAnalysis.class.getName());
+
+    static final String PHASE_OPEN = "open";     //NOI18N
+    static final String PHASE_SOURCES = "sources";     //NOI18N
+    static final String PHASE_ANALYSIS = "analysis";     //NOI18N
+
+    private final Project project;
+    private final List<QualityProvider> providers = new ArrayList<>();
+    private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<QualityProvider, QualityResult> results = Collections.synchronizedMap(new LinkedHashMap<>());
+    private int sourceFileCount;
+
+    private BatchAnalysis(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Opens the project in the given directory, which registers its class
+     * paths for the providers and their results.
+     */
+    static BatchAnalysis open(File projectDirectory) throws IOException {
+        long start = System.currentTimeMillis();
+        FileObject directory = FileUtil.toFileObject(FileUtil.normalizeFile(projectDirectory));
+        if (null == directory || !directory.isFolder()) {
+            throw new IOException("No such directory: " + projectDirectory);
+        }
+        Project project = ProjectManager.getDefault().findProject(directory);
+        if (null == project) {
+            throw new IOException("No project found in " + projectDirectory);
+        }
+        OpenProjects.getDefault().open(new Project[]{project}, false);
+        try {
+            OpenProjects.getDefault().openProjects().get();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IOException("Opening " + projectDirectory + " failed", ex);
+        }
+        BatchAnalysis analysis = new BatchAnalysis(project);
+        analysis.timings.put(PHASE_OPEN, System.currentTimeMillis() - start);
+        return analysis;
+    }
+
+    /**
+     * Computes the results of all enabled providers and waits for them.
+     */
+    void run() {
+        // held for the whole run, so all providers share one walk and read
+        SourceSnapshot snapshot = SourceSnapshot.acquire(project);
+        try {
+            run(snapshot);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    private void run(SourceSnapshot snapshot) {
+        long start = System.currentTimeMillis();
+        Collection<FileObject> sourceFiles = new HashSet<>();
+        for (SourceGroup group : ProjectUtilities.getJavaSourceGroups(project)) {
+            sourceFiles.addAll(snapshot.getJavaSourceFiles(group.getRootFolder()));
+        }
+        sourceFileCount = sourceFiles.size();
+        timings.put(PHASE_SOURCES, System.currentTimeMillis() - start);
+
+        for (QualityProvider provider : SQEUtilities.getProviders()) {
+            if (SQECodedefectSupport.isQualityProviderEnabled(project, provider) && provider.isValidFor(project)) {
+                providers.add(provider);
+            }
+        }
+        if (providers.isEmpty()) {
+            timings.put(PHASE_ANALYSIS, System.currentTimeMillis() - start);
+            return;
+        }
+        RequestProcessor processor = new RequestProcessor("SQE batch analysis", providers.size());
+        List<RequestProcessor.Task> tasks = new ArrayList<>(providers.size());
+        for (final QualityProvider provider : providers) {
+            final QualitySession session = SQECodedefectSupport.retrieveSession(project, provider);
+            tasks.add(processor.post(() -> {
+                long providerStart = System.currentTimeMillis();
+                QualityResult result = session.computeResultAndWait();
+                timings.put(provider.getId(), System.currentTimeMillis() - providerStart);
+                if (null != result) {
+                    results.put(provider, result);
+                } else {
+                    LOG.log(Level.WARNING, "{0} did not produce a result", provider.getDisplayName());     //NOI18N
+                }
+            }));
+        }
+        for (RequestProcessor.Task task : tasks) {
+            task.waitFinished();
+        }
+        processor.shutdown();
+        timings.put(PHASE_ANALYSIS, System.currentTimeMillis() - start);
+    }
+
+    Project getProject() {
+        return project;
+    }
+
+    int getSourceFileCount() {
+        return sourceFileCount;
+    }
+
+    /**
+     * @return the providers run in the order they were found
+     */
+    List<QualityProvider> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    /**
+     * @return the result of the provider or <code>null</code> if it has none
+     */
+    QualityResult getResult(QualityProvider provider) {
+        return results.get(provider);
+    }
+
+    /**
+     * @return the milliseconds spent per phase, providers are keyed by
+     * their id
+     */
+    Map<String, Long> getTimings() {
+        synchronized (timings) {
+            return new LinkedHashMap<>(timings);
+        }
+    }
+
+    void addTiming(String phase, long millis) {
+        timings.put(phase, millis);
+    }
+}
@@ -0,0 +1,111 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLStreamException;
+import org.nbheaven.sqe.codedefects.core.api.QualityProvider;
+import org.netbeans.api.sendopts.CommandException;
+import org.netbeans.spi.sendopts.Env;
+import org.netbeans.spi.sendopts.Option;
+import org.netbeans.spi.sendopts.OptionProcessor;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Command line entry point for running all quality providers on a project,
+ * e.g. on a CI server:
+ * <pre>
+ * netbeans --nogui --sqe-analyze &lt;project directory&gt; [--sqe-report &lt;file&gt;]
+ * </pre>
+ * The XML report is written to the given file or to standard output, the
+ * timings of all phases are printed to standard error. The exit code is 1 if
+ * the project cannot be analyzed or the report not be written, 2 for wrong
+ * options and 3 if at least one provider did not produce a result.
+ *
+ * @author Sven Reimers
+ */
+@ServiceProvider(service = OptionProcessor.class)
+public final class BatchAnalysisOptionProcessor extends OptionProcessor {
+
+    private static final Option ANALYZE = Option.requiredArgument(Option.NO_SHORT_NAME, "sqe-analyze");     //NOI18N
+    private static final Option REPORT = Option.requiredArgument(Option.NO_SHORT_NAME, "sqe-report");     //NOI18N
+
+    @Override
+    protected Set<Option> getOptions() {
+        return new HashSet<>(Arrays.asList(ANALYZE, REPORT));
+    }
+
+    @Override
+    protected void process(Env env, Map<Option, String[]> optionValues) throws CommandException {
+        String[] projectDirectory = optionValues.get(ANALYZE);
+        if (null == projectDirectory) {
+            throw new CommandException(2, "--sqe-report requires --sqe-analyze");     //NOI18N
+        }
+        try {
+            BatchAnalysis analysis = BatchAnalysis.open(resolve(env, projectDirectory[0]));
+            analysis.run();
+
+            long start = System.currentTimeMillis();
+            BatchReportWriter reportWriter = new BatchReportWriter(analysis);
+            analysis.addTiming("report", System.currentTimeMillis() - start);     //NOI18N
+            String[] reportFile = optionValues.get(REPORT);
+            if (null != reportFile) {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(resolve(env, reportFile[0])))) {
+                    reportWriter.write(out);
+                }
+            } else {
+                reportWriter.write(env.getOutputStream());
+            }
+
+            PrintStream err = env.getErrorStream();
+            for (Map.Entry<String, Long> timing : analysis.getTimings().entrySet()) {
+                err.println(timing.getKey() + ": " + timing.getValue() + " ms");     //NOI18N
+            }
+
+            List<String> failed = new ArrayList<>();
+            for (QualityProvider provider : analysis.getProviders()) {
+                if (null == analysis.getResult(provider)) {
+                    failed.add(provider.getDisplayName());
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new CommandException(3, "No result from " + String.join(", ", failed));     //NOI18N
+            }
+        } catch (IOException | XMLStreamException ex) {
+            CommandException commandException = new CommandException(1, ex.getMessage());
+            commandException.initCause(ex);
+            throw commandException;
+        }
+    }
+
+    private static File resolve(Env env, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(env.getCurrentDirectory(), path);
+    }
+}
@@ -0,0 +1,145 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.batch;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.nbheaven.sqe.codedefects.core.api.CodeDefectSeverity;
+import org.nbheaven.sqe.codedefects.core.api.QualityProvider;
+import org.nbheaven.sqe.codedefects.core.api.QualityResult;
+import org.nbheaven.sqe.codedefects.core.api.QualityResultReport;
+import org.nbheaven.sqe.codedefects.core.api.QualityResultStatistic;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Writes the results and timings of a {@link BatchAnalysis} as XML. Code
+ * defects are sorted by file and line so reports of unchanged sources are
+ * equal apart from the timings. The defects are collected when the writer is
+ * created, so the time spent on that can be part of the timings written.
+ *
+ * @author Sven Reimers
+ */
+final class BatchReportWriter {
+
+    private final BatchAnalysis analysis;
+    private final Map<QualityProvider, List<Defect>> defects = new HashMap<>();
+
+    BatchReportWriter(BatchAnalysis analysis) {
+        this.analysis = analysis;
+        FileObject projectDirectory = analysis.getProject().getProjectDirectory();
+        for (QualityProvider provider : analysis.getProviders()) {
+            QualityResult result = analysis.getResult(provider);
+            QualityResultReport report = null != result ? result.getLookup().lookup(QualityResultReport.class) : null;
+            if (null != report) {
+                defects.put(provider, collectDefects(report, projectDirectory));
+            }
+        }
+    }
+
+    void write(OutputStream out) throws XMLStreamException {
+        FileObject projectDirectory = analysis.getProject().getProjectDirectory();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");     //NOI18N
+        writer.writeStartDocument("UTF-8", "1.0");     //NOI18N
+        writer.writeStartElement("sqe-report");     //NOI18N
+        writer.writeAttribute("project", FileUtil.getFileDisplayName(projectDirectory));     //NOI18N
+        writer.writeAttribute("sourceFiles", Integer.toString(analysis.getSourceFileCount()));     //NOI18N
+
+        writer.writeStartElement("timings");     //NOI18N
+        for (Map.Entry<String, Long> timing : analysis.getTimings().entrySet()) {
+            writer.writeEmptyElement("phase");     //NOI18N
+            writer.writeAttribute("name", timing.getKey());     //NOI18N
+            writer.writeAttribute("millis", Long.toString(timing.getValue()));     //NOI18N
+        }
+        writer.writeEndElement();
+
+        for (QualityProvider provider : analysis.getProviders()) {
+            QualityResult result = analysis.getResult(provider);
+            writer.writeStartElement("provider");     //NOI18N
+            writer.writeAttribute("id", provider.getId());     //NOI18N
+            writer.writeAttribute("name", provider.getDisplayName());     //NOI18N
+            if (null == result) {
+                writer.writeAttribute("failed", "true");     //NOI18N
+                writer.writeEndElement();
+                continue;
+            }
+            QualityResultStatistic statistic = result.getLookup().lookup(QualityResultStatistic.class);
+            if (null != statistic) {
+                for (CodeDefectSeverity severity : CodeDefectSeverity.values()) {
+                    writer.writeAttribute(severity.name().toLowerCase(), Long.toString(statistic.getCodeDefectCount(severity)));
+                }
+            }
+            List<Defect> providerDefects = defects.get(provider);
+            if (null != providerDefects) {
+                for (Defect defect : providerDefects) {
+                    writer.writeStartElement("defect");     //NOI18N
+                    writer.writeAttribute("file", defect.path);     //NOI18N
+                    if (defect.line > 0) {
+                        writer.writeAttribute("line", Integer.toString(defect.line));     //NOI18N
+                    }
+                    writer.writeAttribute("severity", defect.severity.name().toLowerCase());     //NOI18N
+                    writer.writeAttribute("type", defect.type);     //NOI18N
+                    writer.writeCharacters(defect.message);
+                    writer.writeEndElement();
+                }
+            }
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    private static List<Defect> collectDefects(QualityResultReport report, FileObject projectDirectory) {
+        List<Defect> defects = new ArrayList<>();
+        report.report((file, line, severity, type, message) -> {
+            String path = FileUtil.getRelativePath(projectDirectory, file);
+            defects.add(new Defect(null != path ? path : FileUtil.getFileDisplayName(file), line, severity, type, message));
+        });
+        defects.sort(Comparator.<Defect, String>comparing(defect -> defect.path)
+                .thenComparingInt(defect -> defect.line)
+                .thenComparing(defect -> defect.type)
+                .thenComparing(defect -> defect.message));
+        return defects;
+    }
+
+    private static final class Defect {
+
+        private final String path;
+        private final int line;
+        private final CodeDefectSeverity severity;
+        private final String type;
+        private final String message;
+
+        private Defect(String path, int line, CodeDefectSeverity severity, String type, String message) {
+            this.path = path;
+            this.line = line;
+            this.severity = severity;
+            this.type = null != type ? type : "";
+            this.message = null != message ? message : "";
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.nbheaven.sqe.codedefects.core.api.QualityProvider.SessionEventProxy;
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
 import org.netbeans.spi.project.ui.ProjectOpenedHook;
 import org.openide.util.Exceptions;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -42,6 +43,8 @@ import org.openide.util.Exceptions;
  */
 public abstract class AbstractQualitySession<P extends QualityProvider, R extends QualityResult> extends ProjectOpenedHook implements QualitySession {
 
+    private static final RequestProcessor RESULT_STORE_PROCESSOR = new RequestProcessor("SQE result store", 1);
+
     private final Project project;
     private final AbstractQualityProvider provider;
 
@@ -55,10 +58,14 @@ public abstract class AbstractQualitySession<P extends QualityProvider, R extend
     private final BooleanBinding backgroundScanningEffectiveEnabledProperty = enabledProperty.and(backgroundScanningEnabledProperty);
 
     private final ObjectProperty<R> resultProperty = new SimpleObjectProperty<>();
+    private final Object resultLock = new Object();
+    private final QualityResultStore resultStore;
+    private QualityResultStore.ProjectState scanState;
 
     public <PI extends AbstractQualityProvider & QualityProvider> AbstractQualitySession(final PI provider, final Project project) {
         this.provider = provider;
         this.project = project;
+        this.resultStore = new QualityResultStore(project, provider.getClass());
 
         enabledProperty.addListener((source, oldValue, newValue)
                 -> this.provider.fireSessionPropertyChange(this, enabledProperty.getName(), oldValue, newValue));
@@ -85,7 +92,12 @@ public abstract class AbstractQualitySession<P extends QualityProvider, R extend
         annotateProjectResultEnabledProperty.set(preferences.getBoolean(annotateProjectResultEnabledProperty.getName(), true));
         backgroundScanningEnabledProperty.set(preferences.getBoolean(backgroundScanningEnabledProperty.getName(), true));
         annotationControler.bind();
-        
+
+        final QualityResultStore.Codec<R> codec = getResultCodec();
+        if (null != codec) {
+            RESULT_STORE_PROCESSOR.post(() -> restoreResult(codec));
+        }
+
         System.out.println(provider.getDisplayName() + " - Read Property enabled: " + isEnabled());
         System.out.println(provider.getDisplayName() + " - Read Property showAnno: " + isAnnotateProjectResultEnabled());
         System.out.println(provider.getDisplayName() + " - Read Property scanning: " + isBackgroundScanningEnabled());
@@ -200,8 +212,57 @@ public abstract class AbstractQualitySession<P extends QualityProvider, R extend
         return getResultProperty().get();
     }
 
+    /**
+     * Project scans call this before they read any file of the project. The
+     * state of the project at this point is stored along with the result of
+     * the scan, so files changed while the scan runs make the result stale.
+     */
+    protected final void scanStarted() {
+        QualityResultStore.Codec<R> codec = getResultCodec();
+        QualityResultStore.ProjectState state = null != codec ? resultStore.captureState(codec) : null;
+        synchronized (resultLock) {
+            scanState = state;
+        }
+    }
+
     protected final void setResult(R result) {
-        resultProperty.setValue(result);
+        final QualityResultStore.ProjectState state;
+        synchronized (resultLock) {
+            resultProperty.setValue(result);
+            state = scanState;
+            scanState = null;
+        }
+        final QualityResultStore.Codec<R> codec = getResultCodec();
+        if (null != codec && null != result && null != state) {
+            RESULT_STORE_PROCESSOR.post(() -> resultStore.store(result, codec, state));
+        }
+    }
+
+    /**
+     * Sessions returning a codec get their project result stored when a scan
+     * finishes and restored when the project is opened again, as long as
+     * neither the project nor the settings changed in between.
+     *
+     * @return the codec for results of this session or <code>null</code> if
+     * results are not stored
+     */
+    protected QualityResultStore.Codec<R> getResultCodec() {
+        return null;
+    }
+
+    private void restoreResult(QualityResultStore.Codec<R> codec) {
+        if (null != getResult()) {
+            return;
+        }
+        R restored = resultStore.load(codec);
+        if (null != restored) {
+            synchronized (resultLock) {
+                // a scan finished in the meantime wins
+                if (null == getResult()) {
+                    resultProperty.setValue(restored);
+                }
+            }
+        }
     }
 
 }
@@ -34,7 +34,12 @@ import org.openide.windows.TopComponent;
  */
 final class AnnotationControler {
 
-    private static final RequestProcessor PROCESSOR = new RequestProcessor("SQECodedefectFileAnnotator", 3);
+    /**
+     * Runs all annotation changes of the session one after the other in the
+     * order they were requested, concurrent changes of the same file would
+     * attach its annotations twice.
+     */
+    private final RequestProcessor processor = new RequestProcessor("SQECodedefectFileAnnotator", 1);
     private final QualitySession session;
 
     public AnnotationControler(QualitySession session) {
@@ -66,9 +71,20 @@ final class AnnotationControler {
     }
 
     private void resultChanged(ObservableValue<? extends QualityResult> observable, QualityResult oldValue, QualityResult newValue) {
-        // Reset annotations
-        clearAllAnnotations();
-        annotateAllSourceFiles();
+        if (!session.isAnnotateProjectResultEffectiveEnabled()) {
+            return;
+        }
+        if (null == oldValue || null == newValue) {
+            // Reset annotations
+            clearAllAnnotations();
+            annotateAllSourceFiles();
+            return;
+        }
+        // only defects that appeared or disappeared change their annotations
+        Set<JavaSource> javaSources = getOpenJavaSources();
+        processor.execute(() -> {
+            getAnnotationProcessor().updateAnnotations(javaSources, session.getProject(), oldValue, newValue);
+        });
     }
 
     private SQEAnnotationProcessor getAnnotationProcessor() {
@@ -76,23 +92,29 @@ final class AnnotationControler {
     }
 
     private void clearAllAnnotations() {
-        getAnnotationProcessor().clearAllAnnotations(session.getProject());
+        processor.execute(() -> {
+            getAnnotationProcessor().clearAllAnnotations(session.getProject());
+        });
     }
 
     private void annotateAllSourceFiles() {
-        Set<JavaSource> javaSources = TopComponent.getRegistry().getOpened().stream()
-                .map(topComponent -> topComponent.getLookup().lookup(DataObject.class))
-                .filter(dao -> null != dao)
-                .map(dao -> JavaSource.forFileObject(dao.getPrimaryFile()))
-                .filter(javaSource -> null != javaSource)
-                .collect(Collectors.toSet());
+        Set<JavaSource> javaSources = getOpenJavaSources();
 
         javaSources.forEach((javaSource) -> {
-            PROCESSOR.execute(() -> {
+            processor.execute(() -> {
                 SQEAnnotationProcessor annotationProcessor = getAnnotationProcessor();
                 System.out.println("annotateSourceFile - processor: " + annotationProcessor.getClass().getName() + " - " + javaSource + "#" + javaSource.getFileObjects().toArray());
                 annotationProcessor.annotateSourceFile(javaSource, session.getProject(), session.getResult());
             });
         });
     }
+
+    private static Set<JavaSource> getOpenJavaSources() {
+        return TopComponent.getRegistry().getOpened().stream()
+                .map(topComponent -> topComponent.getLookup().lookup(DataObject.class))
+                .filter(dao -> null != dao)
+                .map(dao -> JavaSource.forFileObject(dao.getPrimaryFile()))
+                .filter(javaSource -> null != javaSource)
+                .collect(Collectors.toSet());
+    }
 }
@@ -0,0 +1,260 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.spi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.nbheaven.sqe.codedefects.core.api.QualityResult;
+import org.nbheaven.sqe.codedefects.core.util.Hashes;
+import org.nbheaven.sqe.core.java.utils.JavaSourceEnumerator;
+import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Keeps the last project result of a quality provider on disk, so it can be
+ * restored when the project is opened again instead of scanning the project.
+ * A stored result is only handed out as long as the Java sources, the
+ * compiled classes and the provider settings did not change since the result
+ * was stored.
+ *
+ * @author Sven Reimers
+ */
+public final class QualityResultStore {
+
+    private static final Logger LOG = Logger.getLogger(QualityResultStore.class.getName());
+
+    private static final String RESULT_FILE = "result.bin";     //NOI18N
+    private static final int MAGIC = 0x53514552;
+    private static final int VERSION = 1;
+    /**
+     * File systems store modification times with up to two seconds
+     * precision.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
+    private final Project project;
+    private final Class<?> owner;
+
+    QualityResultStore(Project project, Class<?> owner) {
+        this.project = project;
+        this.owner = owner;
+    }
+
+    /**
+     * Writes the given result together with the fingerprint the project had
+     * when the scan computing it started, replacing the result stored before.
+     * Nothing is written if the binary roots changed while the scan ran.
+     *
+     * @param state see {@link #captureState(Codec)}
+     */
+    <R extends QualityResult> void store(R result, Codec<R> codec, ProjectState state) {
+        File resultFile = getResultFile();
+        if (null == resultFile) {
+            return;
+        }
+        String fingerprint = computeFingerprint(state, state.capturedAt - TIMESTAMP_GRANULARITY);
+        if (null == fingerprint) {
+            LOG.log(Level.FINE, "Not storing result, binaries changed during the scan of {0}", ProjectUtils.getInformation(project).getName());     //NOI18N
+            return;
+        }
+        File tempFile = new File(resultFile.getParentFile(), RESULT_FILE + ".tmp");     //NOI18N
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fingerprint);
+                out.flush();
+                DataOutputStream payload = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(out)));
+                codec.write(result, payload);
+                payload.close();
+            }
+            Files.move(tempFile.toPath(), resultFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.INFO, "Failed to store result for " + ProjectUtils.getInformation(project).getName(), ex);     //NOI18N
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @return the stored result or <code>null</code> if there is none or the
+     * project changed since it was stored
+     */
+    <R extends QualityResult> R load(Codec<R> codec) {
+        File resultFile = getResultFile();
+        if (null == resultFile || !resultFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(resultFile.toPath())))) {
+            if (MAGIC != in.readInt() || VERSION != in.readInt()) {
+                LOG.log(Level.FINE, "Discarding result of unknown format {0}", resultFile);     //NOI18N
+                return null;
+            }
+            String fingerprint = in.readUTF();
+            ProjectState state = captureState(codec);
+            if (null == state || !fingerprint.equals(computeFingerprint(state, Long.MAX_VALUE))) {
+                LOG.log(Level.FINE, "Discarding stale result {0}", resultFile);     //NOI18N
+                return null;
+            }
+            return codec.read(new DataInputStream(new BufferedInputStream(new InflaterInputStream(in))));
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.INFO, "Discarding unreadable result " + resultFile, ex);     //NOI18N
+            return null;
+        }
+    }
+
+    private File getResultFile() {
+        try {
+            File cacheDir = FileUtil.toFile(ProjectUtils.getCacheDirectory(project, owner));
+            return null == cacheDir ? null : new File(cacheDir, RESULT_FILE);
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "No cache directory for " + ProjectUtils.getInformation(project).getName(), ex);     //NOI18N
+            return null;
+        }
+    }
+
+    /**
+     * Takes the provider settings together with file count, latest
+     * modification and total size of the Java files of each source root. The
+     * files are taken from {@link JavaSourceEnumerator}, which keeps them per
+     * source root, so only the files themselves are looked at.
+     *
+     * @return the state or <code>null</code> if the settings cannot be
+     * tracked
+     */
+    ProjectState captureState(Codec<?> codec) {
+        String settingsFingerprint = codec.getSettingsFingerprint();
+        if (null == settingsFingerprint) {
+            return null;
+        }
+        long capturedAt = System.currentTimeMillis();
+        List<FileObject> sourceRoots = new ArrayList<>(Arrays.asList(ProjectUtilities.getJavaSourceRoots(project)));
+        Collections.sort(sourceRoots, (a, b) -> a.getPath().compareTo(b.getPath()));
+
+        StringBuilder state = new StringBuilder(settingsFingerprint);
+        for (FileObject sourceRoot : sourceRoots) {
+            long[] stats = new long[3];
+            for (FileObject fo : JavaSourceEnumerator.getJavaSourceFiles(sourceRoot)) {
+                stats[0]++;
+                stats[1] = Math.max(stats[1], fo.lastModified().getTime());
+                stats[2] += fo.getSize();
+            }
+            appendStats(state, sourceRoot.getPath(), stats);
+        }
+        return new ProjectState(state.toString(), capturedAt);
+    }
+
+    /**
+     * Adds the binary roots to the captured state. They are walked here, off
+     * the thread of the scan, so it does not wait for them.
+     *
+     * @param changedAfter the time after which no file or folder below the
+     * binary roots may have been modified
+     * @return the fingerprint or <code>null</code> if a binary root changed
+     * after the given time
+     */
+    String computeFingerprint(ProjectState projectState, long changedAfter) {
+        List<String> binaryRoots = ProjectUtilities.findBinaryRoots(project);
+        Collections.sort(binaryRoots);
+
+        StringBuilder state = new StringBuilder(projectState.sourceState);
+        for (String root : binaryRoots) {
+            long[] stats = new long[3];
+            collectStats(new File(root), stats);
+            if (stats[1] > changedAfter) {
+                return null;
+            }
+            appendStats(state, root, stats);
+        }
+        return Hashes.sha1(state.toString());
+    }
+
+    private static void appendStats(StringBuilder state, String root, long[] stats) {
+        state.append('\n').append(root).append(':').append(stats[0])
+                .append(':').append(stats[1]).append(':').append(stats[2]);
+    }
+
+    private static void collectStats(File file, long[] stats) {
+        File[] children = file.listFiles();
+        if (null == children) {
+            stats[0]++;
+            stats[1] = Math.max(stats[1], file.lastModified());
+            stats[2] += file.length();
+            return;
+        }
+        // folders count as well, deleting a file changes their timestamp
+        stats[1] = Math.max(stats[1], file.lastModified());
+        for (File child : children) {
+            collectStats(child, stats);
+        }
+    }
+
+    /**
+     * The state of the source roots and settings of a project at the start of
+     * a scan.
+     */
+    static final class ProjectState {
+
+        private final String sourceState;
+        private final long capturedAt;
+
+        private ProjectState(String sourceState, long capturedAt) {
+            this.sourceState = sourceState;
+            this.capturedAt = capturedAt;
+        }
+    }
+
+    /**
+     * Converts the results of a provider to and from their stored form.
+     *
+     * @param <R> the result type of the provider
+     */
+    public interface Codec<R extends QualityResult> {
+
+        /**
+         * @return a value that changes whenever the provider settings used for
+         * the project change, or <code>null</code> if the settings cannot be
+         * tracked and results must not be stored
+         */
+        String getSettingsFingerprint();
+
+        void write(R result, DataOutputStream out) throws IOException;
+
+        /**
+         * @return the restored result or <code>null</code> if it cannot be
+         * restored with the current settings
+         */
+        R read(DataInputStream in) throws IOException;
+    }
+}
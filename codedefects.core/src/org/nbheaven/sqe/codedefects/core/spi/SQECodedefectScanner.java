@@ -17,16 +17,77 @@
  */
 package org.nbheaven.sqe.codedefects.core.spi;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import org.netbeans.api.progress.ProgressHandle;
+import org.openide.util.Cancellable;
 import org.openide.util.RequestProcessor;
 
 /**
+ * Runs scanner jobs ordered by their {@link Priority}. Pending jobs with a
+ * higher priority are always started first, lower priorities are only
+ * started while enough threads are left for the higher ones, and the project
+ * scans of a single provider never occupy more than a fixed number of threads.
+ * A job posted for the same work as an older one of the same provider (see
+ * {@link Job#getCoalescingKey()}) replaces the older one.
  *
  * @author Sven Reimers
  */
 public final class SQECodedefectScanner {
 
-    private static final RequestProcessor SCANNER_QUEUE = new RequestProcessor("SQECodedefectScanner",3);
+    private static final int MAX_RUNNING_JOBS = 4;
+    private static final int MAX_RUNNING_JOBS_PER_PROVIDER = 2;
+
+    private static final RequestProcessor SCANNER_QUEUE = new RequestProcessor("SQECodedefectScanner", MAX_RUNNING_JOBS);
+
+    private static final Object LOCK = new Object();
+    private static final List<Job> PENDING_JOBS = new ArrayList<>();
+    private static final List<Job> RUNNING_JOBS = new ArrayList<>();
+    private static final Map<String, Integer> RUNNING_JOBS_PER_PROVIDER = new HashMap<>();
+    private static long jobSequence;
+
+    private static final Comparator<Job> JOB_ORDER = new Comparator<Job>() {
+
+        @Override
+        public int compare(Job job1, Job job2) {
+            int result = job1.priority.compareTo(job2.priority);
+            return 0 != result ? result : Long.compare(job1.sequence, job2.sequence);
+        }
+    };
+
+    /**
+     * Priority classes of scanner jobs, from highest to lowest.
+     */
+    public static enum Priority {
+
+        /**
+         * Single file scans someone is waiting for, e.g. editor hints.
+         */
+        INTERACTIVE(MAX_RUNNING_JOBS),
+        /**
+         * Project scans explicitly asked for by the user.
+         */
+        PROJECT(MAX_RUNNING_JOBS - 1),
+        /**
+         * Scans nobody is actively waiting for.
+         */
+        BACKGROUND(MAX_RUNNING_JOBS - 2);
+
+        /**
+         * Jobs of this priority are only started while less jobs are running.
+         */
+        private final int maxRunningJobs;
+
+        private Priority(int maxRunningJobs) {
+            this.maxRunningJobs = maxRunningJobs;
+        }
+    }
 
 //    private static SQECodedefectScanner INSTANCE = new SQECodedefectScanner();
     private SQECodedefectScanner() {
@@ -35,21 +96,81 @@ public final class SQECodedefectScanner {
     public static abstract class Job implements Runnable {
 
         private ProgressHandle progressHandle;
+        private boolean progressStarted;
+        private boolean progressFinished;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private Priority priority;
+        private long sequence;
+        private volatile boolean cancelled;
 
         protected Job() {
         }
 
         protected abstract String getDisplayName();
 
+        /**
+         * Identifies the provider running this job, the number of concurrent
+         * non interactive jobs is limited per provider.
+         *
+         * @return the id of the provider, defaults to the class name of the job
+         */
+        protected String getProviderId() {
+            return getClass().getName();
+        }
+
+        /**
+         * Jobs of the same provider with equal keys do the same work, e.g.
+         * scan the same file. Posting such a job drops a pending older one and
+         * cancels a running older one.
+         *
+         * @return the key or <code>null</code> if the job is never replaced
+         */
+        protected Object getCoalescingKey() {
+            return null;
+        }
+
+        /**
+         * @return true if the job was replaced by a newer one or cancelled
+         */
+        protected final boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Stops the job. A pending job is dropped without being run, a running
+         * job is expected to check {@link #isCancelled()} regularly and to stop
+         * as soon as possible without reporting a result.
+         */
+        public final void cancel() {
+            SQECodedefectScanner.cancel(this);
+        }
+
+        /**
+         * Called on the cancelling thread once a running job got cancelled,
+         * for jobs that have to do more than check {@link #isCancelled()} to
+         * stop, e.g. interrupt a blocking call.
+         */
+        protected void cancelRequested() {
+        }
+
         protected final ProgressHandle getProgressHandle() {
             if (null == progressHandle) {
-                progressHandle = ProgressHandle.createHandle(getDisplayName());
+                progressHandle = ProgressHandle.createHandle(getDisplayName(), new Cancellable() {
+
+                    @Override
+                    public boolean cancel() {
+                        Job.this.cancel();
+                        return true;
+                    }
+                });
             }
             return progressHandle;
         }
 
         @Override
         public final void run() {
+            // the job may start before preScan() was called
+            startProgress();
             try {
                 scan();
             } finally {
@@ -60,25 +181,210 @@ public final class SQECodedefectScanner {
         protected abstract void scan();
 
         protected void postScan() {
-            getProgressHandle().finish();
+            finishProgress();
         }
 
         protected void preScan() {
+            if (startProgress()) {
+                getProgressHandle().switchToIndeterminate();
+                getProgressHandle().progress("Scheduled for execution");
+            }
+        }
+
+        /**
+         * Starts the progress unless it was started or the job finished
+         * already.
+         *
+         * @return true if the progress was started by this call
+         */
+        private synchronized boolean startProgress() {
+            if (progressStarted || progressFinished) {
+                return false;
+            }
+            progressStarted = true;
             getProgressHandle().start();
-            getProgressHandle().switchToIndeterminate();
-            getProgressHandle().progress("Scheduled for execution");
+            return true;
+        }
+
+        private synchronized void finishProgress() {
+            if (!progressFinished) {
+                progressFinished = true;
+                if (progressStarted) {
+                    getProgressHandle().finish();
+                }
+            }
         }
     }
 
+    /**
+     * Runs the job with {@link Priority#INTERACTIVE} priority and waits for it
+     * to finish.
+     */
     public static void postAndWait(Job job) {
-        RequestProcessor.Task task = SCANNER_QUEUE.create(job);
-        job.preScan();
-        SCANNER_QUEUE.post(task);
-        task.waitFinished();
+        post(job, Priority.INTERACTIVE);
+        try {
+            job.finished.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Schedules the job with {@link Priority#PROJECT} priority.
+     */
     public static void post(Job job) {
+        post(job, Priority.PROJECT);
+    }
+
+    /**
+     * Schedules the job with the given priority. Posting a job still waiting
+     * for execution again raises its priority if the new one is higher.
+     */
+    public static void post(Job job, Priority priority) {
+        List<Job> dropped = new ArrayList<>();
+        List<Job> stopped = new ArrayList<>();
+        synchronized (LOCK) {
+            if (PENDING_JOBS.contains(job)) {
+                if (priority.compareTo(job.priority) < 0) {
+                    job.priority = priority;
+                    Collections.sort(PENDING_JOBS, JOB_ORDER);
+                    startJobs();
+                }
+                return;
+            }
+            if (null != job.priority) {
+                // already running or done
+                return;
+            }
+            job.priority = priority;
+            job.sequence = jobSequence++;
+            if (job.cancelled) {
+                // cancelled before it was ever posted
+                job.finished.countDown();
+                return;
+            }
+            Object key = job.getCoalescingKey();
+            if (null != key) {
+                cancel(job.getProviderId(), key, dropped, stopped);
+            }
+            // queued in the same step, so a job cancelled or replaced by now
+            // is never started and a later post with the same key sees it
+            PENDING_JOBS.add(job);
+            Collections.sort(PENDING_JOBS, JOB_ORDER);
+            startJobs();
+        }
+        // outside of the lock, the progress is started only once
         job.preScan();
-        SCANNER_QUEUE.post(job);
+        finish(dropped, stopped);
+    }
+
+    /**
+     * Cancels all jobs of the given provider with the given coalescing key.
+     * Pending jobs are dropped without being run, running jobs are asked to
+     * stop.
+     */
+    public static void cancel(String providerId, Object coalescingKey) {
+        List<Job> dropped = new ArrayList<>();
+        List<Job> stopped = new ArrayList<>();
+        synchronized (LOCK) {
+            cancel(providerId, coalescingKey, dropped, stopped);
+        }
+        finish(dropped, stopped);
+    }
+
+    private static void cancel(Job job) {
+        List<Job> dropped = new ArrayList<>();
+        List<Job> stopped = new ArrayList<>();
+        synchronized (LOCK) {
+            if (!job.cancelled) {
+                job.cancelled = true;
+                if (PENDING_JOBS.remove(job)) {
+                    dropped.add(job);
+                } else if (RUNNING_JOBS.contains(job)) {
+                    stopped.add(job);
+                }
+            }
+        }
+        finish(dropped, stopped);
+    }
+
+    private static void cancel(String providerId, Object coalescingKey, List<Job> dropped, List<Job> stopped) {
+        assert Thread.holdsLock(LOCK);
+        for (Iterator<Job> iterator = PENDING_JOBS.iterator(); iterator.hasNext();) {
+            Job job = iterator.next();
+            if (isSameWork(job, providerId, coalescingKey)) {
+                iterator.remove();
+                job.cancelled = true;
+                dropped.add(job);
+            }
+        }
+        for (Job job : RUNNING_JOBS) {
+            if (!job.cancelled && isSameWork(job, providerId, coalescingKey)) {
+                job.cancelled = true;
+                stopped.add(job);
+            }
+        }
+    }
+
+    private static boolean isSameWork(Job job, String providerId, Object coalescingKey) {
+        return coalescingKey.equals(job.getCoalescingKey()) && providerId.equals(job.getProviderId());
+    }
+
+    private static void finish(List<Job> droppedJobs, List<Job> stoppedJobs) {
+        for (Job job : droppedJobs) {
+            try {
+                job.postScan();
+            } finally {
+                job.finished.countDown();
+            }
+        }
+        for (Job job : stoppedJobs) {
+            job.cancelRequested();
+        }
+    }
+
+    private static void startJobs() {
+        assert Thread.holdsLock(LOCK);
+        for (Iterator<Job> iterator = PENDING_JOBS.iterator(); iterator.hasNext();) {
+            final Job job = iterator.next();
+            if (RUNNING_JOBS.size() >= job.priority.maxRunningJobs) {
+                // all following jobs have the same or a lower priority
+                return;
+            }
+            final String providerId = job.getProviderId();
+            Integer providerJobs = RUNNING_JOBS_PER_PROVIDER.get(providerId);
+            if (Priority.INTERACTIVE != job.priority
+                    && null != providerJobs && providerJobs >= MAX_RUNNING_JOBS_PER_PROVIDER) {
+                continue;
+            }
+            iterator.remove();
+            RUNNING_JOBS.add(job);
+            RUNNING_JOBS_PER_PROVIDER.put(providerId, null == providerJobs ? 1 : providerJobs + 1);
+            SCANNER_QUEUE.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        job.run();
+                    } finally {
+                        jobFinished(job, providerId);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void jobFinished(Job job, String providerId) {
+        synchronized (LOCK) {
+            RUNNING_JOBS.remove(job);
+            int providerJobs = RUNNING_JOBS_PER_PROVIDER.get(providerId) - 1;
+            if (0 == providerJobs) {
+                RUNNING_JOBS_PER_PROVIDER.remove(providerId);
+            } else {
+                RUNNING_JOBS_PER_PROVIDER.put(providerId, providerJobs);
+            }
+            startJobs();
+        }
+        job.finished.countDown();
     }
 }
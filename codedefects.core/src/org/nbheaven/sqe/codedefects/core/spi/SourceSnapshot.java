@@ -0,0 +1,181 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.spi;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.nbheaven.sqe.codedefects.core.util.Hashes;
+import org.nbheaven.sqe.core.java.utils.FileObjectUtilities;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.queries.FileEncodingQuery;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.Utilities;
+
+/**
+ * The Java sources of a project as seen by the scanner jobs running on it at
+ * the same time. Source roots are walked once and each file is read and
+ * decoded once, no matter how many providers analyze it. The content is
+ * hashed when read but decoded only once a provider asks for the text, so
+ * providers finding a cached result by the hash never decode it. A snapshot
+ * lives as long as one of the jobs that acquired it has not released it,
+ * sources are only softly held and read again if the memory was needed.
+ *
+ * @author Sven Reimers
+ */
+public final class SourceSnapshot {
+
+    /**
+     * Files at least this large are memory mapped instead of read, smaller
+     * ones are cheaper to read in one go.
+     */
+    private static final long MAPPING_THRESHOLD = 256 * 1024;
+
+    private static final Map<Project, SourceSnapshot> SNAPSHOTS = new HashMap<>();
+
+    private final Project project;
+    private final Map<FileObject, Collection<FileObject>> javaSourceFiles = new ConcurrentHashMap<>();
+    private final Map<FileObject, SoftReference<Source>> sources = new ConcurrentHashMap<>();
+    private int users;
+
+    private SourceSnapshot(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Joins the snapshot of the project other jobs are currently using or
+     * starts a new one. Every call has to be paired with {@link #release()}.
+     */
+    public static SourceSnapshot acquire(Project project) {
+        synchronized (SNAPSHOTS) {
+            SourceSnapshot snapshot = SNAPSHOTS.get(project);
+            if (null == snapshot) {
+                snapshot = new SourceSnapshot(project);
+                SNAPSHOTS.put(project, snapshot);
+            }
+            snapshot.users++;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Leaves the snapshot, it is dropped once the last job left.
+     */
+    public void release() {
+        synchronized (SNAPSHOTS) {
+            if (0 == --users) {
+                SNAPSHOTS.remove(project);
+            }
+        }
+    }
+
+    /**
+     * @return all Java files below the source root, collected only for the
+     * first job asking
+     */
+    public Collection<FileObject> getJavaSourceFiles(FileObject root) {
+        return javaSourceFiles.computeIfAbsent(root,
+                (folder) -> Collections.unmodifiableCollection(FileObjectUtilities.collectAllJavaSourceFiles(folder)));
+    }
+
+    /**
+     * @return the content of the file, read again only if the file changed
+     * since it was read for this snapshot
+     */
+    public Source getSource(FileObject fo) throws IOException {
+        long lastModified = fo.lastModified().getTime();
+        SoftReference<Source> reference = sources.get(fo);
+        Source source = null != reference ? reference.get() : null;
+        if (null == source || source.lastModified != lastModified) {
+            source = read(fo, lastModified);
+            sources.put(fo, new SoftReference<>(source));
+        }
+        return source;
+    }
+
+    private static Source read(FileObject fo, long lastModified) throws IOException {
+        Charset charset = FileEncodingQuery.getEncoding(fo);
+        ByteBuffer content = null;
+        File file = FileUtil.toFile(fo);
+        // a mapping keeps the file locked on Windows until it is collected
+        if (null != file && !Utilities.isWindows() && file.length() >= MAPPING_THRESHOLD) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        if (null == content) {
+            content = ByteBuffer.wrap(fo.asBytes());
+        }
+        MessageDigest digest = Hashes.newSha1();
+        digest.update(content.duplicate());
+        return new Source(content, charset, Hashes.toHex(digest.digest()), lastModified);
+    }
+
+    /**
+     * One Java file, decoded with the encoding of its project on first use.
+     */
+    public static final class Source {
+
+        private ByteBuffer content;
+        private String text;
+        private final Charset charset;
+        private final String contentHash;
+        private final long lastModified;
+
+        private Source(ByteBuffer content, Charset charset, String contentHash, long lastModified) {
+            this.content = content;
+            this.charset = charset;
+            this.contentHash = contentHash;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the decoded content, the undecoded one is dropped once
+         * decoded
+         */
+        public synchronized String getText() {
+            if (null == text) {
+                text = charset.decode(content).toString();
+                content = null;
+            }
+            return text;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * @return the hex encoded SHA-1 hash of the undecoded file content
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.core.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Keys code defects by a fingerprint that stays the same as long as the
+ * defect does, so two results can be compared defect by defect. Equal
+ * defects reported more than once get their occurrence appended to tell
+ * them apart.
+ *
+ * @author Sven Reimers
+ */
+public final class DefectFingerprints {
+
+    private DefectFingerprints() {
+    }
+
+    /**
+     * @param defects the defects, may be <code>null</code>
+     * @param fingerprint computes the fingerprint of a single defect
+     * @return the defects by their fingerprint in their original order
+     */
+    public static <D> Map<String, D> index(Collection<? extends D> defects, Function<? super D, String> fingerprint) {
+        if (null == defects || defects.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, D> index = new LinkedHashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (D defect : defects) {
+            String key = fingerprint.apply(defect);
+            Integer occurrence = occurrences.get(key);
+            occurrences.put(key, null == occurrence ? 1 : occurrence + 1);
+            index.put(null == occurrence ? key : key + '#' + occurrence, defect);
+        }
+        return index;
+    }
+
+    /**
+     * The annotations of one provider per project. Each annotation knows the
+     * file and the fingerprint of the defect it marks, so a new result only
+     * removes the annotations of fixed defects and adds those of new ones.
+     *
+     * @param <A> the annotation type
+     */
+    public static final class Registry<A> {
+
+        private final Map<Project, List<Entry<A>>> annotationMap = new ConcurrentHashMap<>();
+        private final Consumer<? super A> detach;
+
+        /**
+         * @param detach removes an annotation from the editor
+         */
+        public Registry(Consumer<? super A> detach) {
+            this.detach = detach;
+        }
+
+        /**
+         * Keeps the annotation until it is cleared or removed.
+         *
+         * @param file the file the annotation is shown in, may be
+         * <code>null</code>
+         * @param fingerprint identifies the annotated defect within the file,
+         * <code>null</code> for annotations not belonging to a result
+         * @return the given annotation
+         */
+        public A add(Project project, FileObject file, String fingerprint, A annotation) {
+            List<Entry<A>> entries = annotationMap.computeIfAbsent(project, (key) -> new ArrayList<>());
+            synchronized (entries) {
+                entries.add(new Entry<>(file, fingerprint, annotation));
+            }
+            return annotation;
+        }
+
+        /**
+         * Forgets an annotation already detached from the editor.
+         */
+        public void remove(Project project, A annotation) {
+            List<Entry<A>> entries = annotationMap.get(project);
+            if (null != entries) {
+                synchronized (entries) {
+                    entries.removeIf(entry -> entry.annotation == annotation);
+                }
+            }
+        }
+
+        /**
+         * Compares the defects reported for the file with the ones annotated
+         * in it.
+         *
+         * @param defects the defects of the file, may be <code>null</code>
+         * @param fingerprint computes the fingerprint of a single defect
+         * @param removeFixed whether to remove the annotations of defects no
+         * longer reported
+         * @return the defects not annotated yet by their fingerprint in their
+         * original order
+         */
+        public <D> Map<String, D> update(Project project, FileObject file, Collection<? extends D> defects,
+                Function<? super D, String> fingerprint, boolean removeFixed) {
+            Map<String, D> current = index(defects, fingerprint);
+            if (removeFixed) {
+                clear(project, entry -> file.equals(entry.file) && null != entry.fingerprint
+                        && !current.containsKey(entry.fingerprint));
+            }
+            Map<String, D> added = new LinkedHashMap<>(current);
+            added.keySet().removeAll(getFingerprints(project, file));
+            return added;
+        }
+
+        /**
+         * Removes all annotations not belonging to a defect in one of the
+         * given files.
+         */
+        public void clearAllExcept(Project project, Set<FileObject> files) {
+            clear(project, entry -> null == entry.fingerprint || !files.contains(entry.file));
+        }
+
+        public void clearAll(Project project) {
+            clear(project, entry -> true);
+        }
+
+        private Set<String> getFingerprints(Project project, FileObject file) {
+            Set<String> fingerprints = new HashSet<>();
+            List<Entry<A>> entries = annotationMap.get(project);
+            if (null != entries) {
+                synchronized (entries) {
+                    entries.stream()
+                            .filter(entry -> file.equals(entry.file) && null != entry.fingerprint)
+                            .forEach(entry -> fingerprints.add(entry.fingerprint));
+                }
+            }
+            return fingerprints;
+        }
+
+        private void clear(Project project, Predicate<Entry<A>> filter) {
+            List<Entry<A>> entries = annotationMap.get(project);
+            if (null != entries) {
+                synchronized (entries) {
+                    for (Iterator<Entry<A>> it = entries.iterator(); it.hasNext();) {
+                        Entry<A> entry = it.next();
+                        if (filter.test(entry)) {
+                            detach.accept(entry.annotation);
+                            it.remove();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Entry<A> {
+
+        private final FileObject file;
+        private final String fingerprint;
+        private final A annotation;
+
+        Entry(FileObject file, String fingerprint, A annotation) {
+            this.file = file;
+            this.fingerprint = fingerprint;
+            this.annotation = annotation;
+        }
+    }
+}
@@ -20,27 +20,31 @@ package org.nbheaven.sqe.codedefects.history;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 import org.nbheaven.sqe.codedefects.core.api.CodeDefectSeverity;
 import org.nbheaven.sqe.codedefects.core.api.QualityProvider;
 import org.nbheaven.sqe.codedefects.core.api.QualityResultStatistic;
+import org.nbheaven.sqe.codedefects.core.util.Hashes;
 import org.netbeans.api.project.Project;
-import org.openide.filesystems.FileAlreadyLockedException;
+import org.openide.modules.Places;
 import org.openide.util.Exceptions;
 import org.openide.util.NbCollections;
 import org.openide.util.NbPreferences;
@@ -53,13 +57,21 @@ public final class History implements Iterable<History.Entry> {
 
     public static String PROP_HISTORY_CHANGED = "prop_history_changed";
 
-    private final LinkedList<Entry> entries;
+    private static final Logger LOG = Logger.getLogger(History.class.getName());
+
+    private static final String HISTORY_FOLDER = "var/sqe/history";     //NOI18N
+
+    /**
+     * The file the entries are kept in or <code>null</code> if it is not
+     * accessible, the history stays empty then.
+     */
+    private final HistoryFile historyFile;
     private final Project project;
 
     private final PropertyChangeSupport propertyChangeSupport;
 
-    private History(Project project, LinkedList<Entry> entries) {
-        this.entries = entries;
+    private History(Project project, HistoryFile historyFile) {
+        this.historyFile = historyFile;
         this.project = project;
         this.propertyChangeSupport = new PropertyChangeSupport(this);
     }
@@ -69,14 +81,38 @@ public final class History implements Iterable<History.Entry> {
     }
 
     public void appendEntry(Entry entry) {
-        entries.add(entry);
-        flush();
+        if (null == historyFile) {
+            return;
+        }
+        try {
+            historyFile.append(entry);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
         fireHistoryChanged();
     }
 
     @Override
     public Iterator<Entry> iterator() {
-        return entries.iterator();
+        return getEntries(null, null).iterator();
+    }
+
+    /**
+     * @param from first date to include or <code>null</code> for no lower
+     * bound
+     * @param to last date to include or <code>null</code> for no upper bound
+     * @return all entries of the given time range
+     */
+    public List<Entry> getEntries(Date from, Date to) {
+        if (null == historyFile) {
+            return Collections.emptyList();
+        }
+        try {
+            return historyFile.read(from, to);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            return Collections.emptyList();
+        }
     }
 
     public void addPropertyChangeListener(String property, PropertyChangeListener pcl) {
@@ -88,58 +124,39 @@ public final class History implements Iterable<History.Entry> {
     }
 
     private void fireHistoryChanged() {
-        this.propertyChangeSupport.firePropertyChange(PROP_HISTORY_CHANGED, null, entries);
+        this.propertyChangeSupport.firePropertyChange(PROP_HISTORY_CHANGED, null, this);
     }
 
     @Override
     public String toString() {
-        return entries.toString();
+        return getEntries(null, null).toString();
     }
 
     public void clear() {
-        entries.clear();
-        flush();
-        fireHistoryChanged();
-    }
-
-    public boolean isEmpty() {
-        return entries.isEmpty();
-    }
-
-    private void flush() {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (null == historyFile) {
+            return;
+        }
         try {
-            ObjectOutputStream stream = new ObjectOutputStream(os);
-            stream.writeObject(entries);
-            stream.close();
-            Preferences historyPrefs = NbPreferences.forModule(History.class);
-            historyPrefs.putByteArray(project.getProjectDirectory().toURL().toString(), os.toByteArray());
-        } catch (FileAlreadyLockedException ex) {
-            Exceptions.printStackTrace(ex);
+            historyFile.clear();
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
         }
+        fireHistoryChanged();
+    }
+
+    public boolean isEmpty() {
+        return null == historyFile || historyFile.isEmpty();
     }
 
     private static LinkedList<Entry> read(byte[] historyData) {
-        InputStream is = null;
         LinkedList<Entry> entries = new LinkedList<Entry>();
         if (null != historyData && historyData.length > 0) {
-            try {
-                is = new ByteArrayInputStream(historyData);
-                ObjectInputStream stream = new ObjectInputStream(is);
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(historyData))) {
                 entries.addAll(NbCollections.checkedListByCopy((LinkedList<?>) stream.readObject(), Entry.class, true));
-                stream.close();
             } catch (ClassNotFoundException ex) {
                 Exceptions.printStackTrace(ex);
             } catch (IOException ex) {
                 Exceptions.printStackTrace(ex);
-            } finally {
-                try {
-                    is.close();
-                } catch (IOException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
             }
         }
         return entries;
@@ -155,13 +172,60 @@ public final class History implements Iterable<History.Entry> {
                 return history;
             }
         }
-        Preferences historyPrefs = NbPreferences.forModule(History.class);
-        byte[] historyData = historyPrefs.getByteArray(project.getProjectDirectory().toURL().toString(), new byte[] {});
-        History history = new History(project, read(historyData));
+        String projectKey = project.getProjectDirectory().toURL().toString();
+        HistoryFile historyFile;
+        try {
+            File folder = getHistoryFolder();
+            String fileName = Hashes.sha1(projectKey);
+            historyFile = new HistoryFile(new File(folder, fileName + ".dat"), new File(folder, fileName + ".providers"));     //NOI18N
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "History not accessible for " + projectKey + ", no entries are kept", ex);     //NOI18N
+            historyFile = null;
+        }
+        if (null != historyFile) {
+            try {
+                migrate(projectKey, historyFile);
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, "Former history of " + projectKey + " could not be migrated", ex);     //NOI18N
+            }
+        }
+        History history = new History(project, historyFile);
         historyCache.put(project, new WeakReference<History>(history));
         return history;
     }
 
+    /**
+     * Moves a history kept in the preferences by former versions into the
+     * history file.
+     */
+    private static void migrate(String projectKey, HistoryFile historyFile) throws IOException {
+        Preferences historyPrefs = NbPreferences.forModule(History.class);
+        byte[] historyData = historyPrefs.getByteArray(projectKey, null);
+        if (null == historyData) {
+            return;
+        }
+        if (historyFile.isEmpty()) {
+            for (Entry entry : read(historyData)) {
+                historyFile.append(entry);
+            }
+        }
+        historyPrefs.remove(projectKey);
+        try {
+            historyPrefs.flush();
+        } catch (BackingStoreException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    private static File getHistoryFolder() throws IOException {
+        File userDir = Places.getUserDirectory();
+        File folder = null != userDir ? new File(userDir, HISTORY_FOLDER) : Places.getCacheSubdirectory("sqe/history");     //NOI18N
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);     //NOI18N
+        }
+        return folder;
+    }
+
     public static final class Entry implements Serializable {
 
         static final long serialVersionUID = 42;
@@ -256,10 +320,14 @@ public final class History implements Iterable<History.Entry> {
         private final String providerId;
 
         public QualityProviderStatisticSnapshot(final QualityProvider provider, final long errors, final long warnings, final long infos) {
+            this(provider.getId(), errors, warnings, infos);
+        }
+
+        QualityProviderStatisticSnapshot(final String providerId, final long errors, final long warnings, final long infos) {
             this.errors = errors;
             this.warnings = warnings;
             this.infos = infos;
-            this.providerId = provider.getId();
+            this.providerId = providerId;
         }
 
         public String getProviderId() {
@@ -0,0 +1,261 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nbheaven.sqe.codedefects.history.History.Entry;
+import org.nbheaven.sqe.codedefects.history.History.QualityProviderStatisticSnapshot;
+
+/**
+ * Append only storage of history entries. Every provider snapshot of an
+ * entry is one fixed size record (entry number, time, provider, errors,
+ * warnings, infos), provider ids are kept in a separate table file and
+ * referenced by index. The entry number tells entries of the same time
+ * apart. Records are expected to be appended in time order, the time of
+ * every {@value #INDEX_INTERVAL}th record is kept in memory as a sparse index
+ * to find the start of a time range without reading the whole file.
+ *
+ * @author Sven Reimers
+ */
+final class HistoryFile {
+
+    private static final Logger LOG = Logger.getLogger(HistoryFile.class.getName());
+
+    private static final int MAGIC = 0x53514548;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 8 + 8 + 8;
+    private static final int INDEX_INTERVAL = 64;
+    /**
+     * Provider index of the single record written for an entry without
+     * snapshots.
+     */
+    private static final int NO_PROVIDER = -1;
+
+    private final File dataFile;
+    private final File providerFile;
+    private final List<String> providerIds = new ArrayList<>();
+    private final Map<String, Integer> providerIndexes = new HashMap<>();
+    private final List<Long> sparseIndex = new ArrayList<>();
+    private long recordCount;
+    private long nextEntryNumber;
+
+    HistoryFile(File dataFile, File providerFile) throws IOException {
+        this.dataFile = dataFile;
+        this.providerFile = providerFile;
+        open();
+    }
+
+    private void open() throws IOException {
+        if (providerFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(providerFile)))) {
+                while (true) {
+                    addProviderId(in.readUTF());
+                }
+            } catch (EOFException ex) {
+                // end of table
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {     //NOI18N
+            if (file.length() < HEADER_SIZE || MAGIC != file.readInt() || VERSION != file.readInt()) {
+                if (file.length() > 0) {
+                    LOG.log(Level.INFO, "Discarding history of unknown format {0}", dataFile);     //NOI18N
+                }
+                writeHeader(file);
+            }
+            recordCount = (file.length() - HEADER_SIZE) / RECORD_SIZE;
+            // drop a record only partially written before
+            file.setLength(getOffset(recordCount));
+            for (long record = 0; record < recordCount; record += INDEX_INTERVAL) {
+                file.seek(getOffset(record) + 8);
+                sparseIndex.add(file.readLong());
+            }
+            if (recordCount > 0) {
+                file.seek(getOffset(recordCount - 1));
+                nextEntryNumber = file.readLong() + 1;
+            }
+        }
+    }
+
+    private static void writeHeader(RandomAccessFile file) throws IOException {
+        file.setLength(0);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+    }
+
+    private static long getOffset(long record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    synchronized boolean isEmpty() {
+        return 0 == recordCount;
+    }
+
+    synchronized void append(Entry entry) throws IOException {
+        QualityProviderStatisticSnapshot[] snapshots = entry.getSnapshots();
+        for (QualityProviderStatisticSnapshot snapshot : snapshots) {
+            if (!providerIndexes.containsKey(snapshot.getProviderId())) {
+                appendProviderId(snapshot.getProviderId());
+            }
+        }
+        long entryNumber = nextEntryNumber;
+        long time = entry.getDate().getTime();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * Math.max(1, snapshots.length));
+        if (0 == snapshots.length) {
+            buffer.putLong(entryNumber).putLong(time).putInt(NO_PROVIDER).putLong(0).putLong(0).putLong(0);
+        }
+        for (QualityProviderStatisticSnapshot snapshot : snapshots) {
+            buffer.putLong(entryNumber).putLong(time).putInt(providerIndexes.get(snapshot.getProviderId()))
+                    .putLong(snapshot.getErrors()).putLong(snapshot.getWarnings()).putLong(snapshot.getInfos());
+        }
+        buffer.flip();
+        try (FileChannel channel = new FileOutputStream(dataFile, true).getChannel()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        nextEntryNumber++;
+        int records = Math.max(1, snapshots.length);
+        for (int i = 0; i < records; i++, recordCount++) {
+            if (0 == recordCount % INDEX_INTERVAL) {
+                sparseIndex.add(time);
+            }
+        }
+    }
+
+    private void appendProviderId(String providerId) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(providerFile, true)))) {
+            out.writeUTF(providerId);
+        }
+        addProviderId(providerId);
+    }
+
+    private void addProviderId(String providerId) {
+        providerIndexes.put(providerId, providerIds.size());
+        providerIds.add(providerId);
+    }
+
+    /**
+     * @param from first date to include or <code>null</code> for no lower
+     * bound
+     * @param to last date to include or <code>null</code> for no upper bound
+     * @return the entries of the given time range in the order they were
+     * appended
+     */
+    synchronized List<Entry> read(Date from, Date to) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (0 == recordCount) {
+            return entries;
+        }
+        long fromTime = null == from ? Long.MIN_VALUE : from.getTime();
+        long toTime = null == to ? Long.MAX_VALUE : to.getTime();
+        long firstRecord = (long) findIndexSlot(fromTime) * INDEX_INTERVAL;
+
+        try (FileChannel channel = new FileInputStream(dataFile).getChannel()) {
+            channel.position(getOffset(firstRecord));
+            InputStream is = new BufferedInputStream(Channels.newInputStream(channel));
+            DataInputStream in = new DataInputStream(is);
+            long entryNumber = 0;
+            long entryTime = 0;
+            List<QualityProviderStatisticSnapshot> snapshots = null;
+            for (long record = firstRecord; record < recordCount; record++) {
+                long number = in.readLong();
+                long time = in.readLong();
+                int providerIndex = in.readInt();
+                long errors = in.readLong();
+                long warnings = in.readLong();
+                long infos = in.readLong();
+                if (time > toTime) {
+                    break;
+                }
+                if (time < fromTime) {
+                    continue;
+                }
+                if (null == snapshots || number != entryNumber) {
+                    if (null != snapshots) {
+                        entries.add(createEntry(entryTime, snapshots));
+                    }
+                    entryNumber = number;
+                    entryTime = time;
+                    snapshots = new ArrayList<>();
+                }
+                if (NO_PROVIDER != providerIndex) {
+                    snapshots.add(new QualityProviderStatisticSnapshot(providerIds.get(providerIndex), errors, warnings, infos));
+                }
+            }
+            if (null != snapshots) {
+                entries.add(createEntry(entryTime, snapshots));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the last index slot starting before the given time, records
+     * of that time may also be found at the end of the slot before
+     */
+    private int findIndexSlot(long time) {
+        int low = 0;
+        int high = sparseIndex.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (sparseIndex.get(mid) < time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static Entry createEntry(long time, List<QualityProviderStatisticSnapshot> snapshots) {
+        return new Entry(new Date(time), snapshots.toArray(new QualityProviderStatisticSnapshot[snapshots.size()]));
+    }
+
+    synchronized void clear() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {     //NOI18N
+            writeHeader(file);
+        }
+        new FileOutputStream(providerFile).close();
+        providerIds.clear();
+        providerIndexes.clear();
+        sparseIndex.clear();
+        recordCount = 0;
+        nextEntryNumber = 0;
+    }
+}
@@ -0,0 +1,125 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.codedefects.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import org.nbheaven.sqe.codedefects.history.History.Entry;
+import org.nbheaven.sqe.codedefects.history.History.QualityProviderStatisticSnapshot;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ * Checks reading and writing the append only history file.
+ *
+ * @author Sven Reimers
+ */
+public class HistoryFileTest extends NbTestCase {
+
+    public HistoryFileTest(String name) {
+        super(name);
+    }
+
+    public void testEntriesOfTheSameTimeStayApart() throws Exception {
+        HistoryFile historyFile = open();
+        Date date = new Date(1000);
+        historyFile.append(new Entry(date, snapshot("pmd", 1), snapshot("checkstyle", 2)));
+        historyFile.append(new Entry(date, snapshot("pmd", 3)));
+
+        List<Entry> entries = historyFile.read(null, null);
+        assertEquals(2, entries.size());
+        assertEquals(2, entries.get(0).getSnapshots().length);
+        assertEquals(1, entries.get(1).getSnapshots().length);
+        assertEquals(3, entries.get(1).getSnapshots()[0].getErrors());
+    }
+
+    public void testEntryWithoutSnapshots() throws Exception {
+        HistoryFile historyFile = open();
+        historyFile.append(new Entry(new Date(1000)));
+        historyFile.append(new Entry(new Date(1000), snapshot("pmd", 1)));
+
+        List<Entry> entries = historyFile.read(null, null);
+        assertEquals(2, entries.size());
+        assertEquals(0, entries.get(0).getSnapshots().length);
+        assertEquals(1, entries.get(1).getSnapshots().length);
+    }
+
+    public void testReadTimeRange() throws Exception {
+        HistoryFile historyFile = open();
+        // spans several slots of the sparse index
+        for (int i = 0; i < 300; i++) {
+            historyFile.append(new Entry(new Date(i * 10L), snapshot("pmd", i)));
+        }
+
+        List<Entry> entries = historyFile.read(new Date(1000), new Date(1990));
+        assertEquals(100, entries.size());
+        assertEquals(100, entries.get(0).getSnapshots()[0].getErrors());
+        assertEquals(199, entries.get(99).getSnapshots()[0].getErrors());
+    }
+
+    public void testReopenContinuesHistory() throws Exception {
+        HistoryFile historyFile = open();
+        historyFile.append(new Entry(new Date(1000), snapshot("pmd", 1)));
+
+        HistoryFile reopened = open();
+        assertFalse(reopened.isEmpty());
+        reopened.append(new Entry(new Date(1000), snapshot("pmd", 2)));
+
+        List<Entry> entries = reopened.read(null, null);
+        assertEquals(2, entries.size());
+        assertEquals("pmd", entries.get(1).getSnapshots()[0].getProviderId());
+        assertEquals(2, entries.get(1).getSnapshots()[0].getErrors());
+    }
+
+    public void testPartialRecordIsDropped() throws Exception {
+        HistoryFile historyFile = open();
+        historyFile.append(new Entry(new Date(1000), snapshot("pmd", 1)));
+        try (RandomAccessFile file = new RandomAccessFile(getDataFile(), "rw")) {
+            file.seek(file.length());
+            file.writeLong(1);
+        }
+
+        List<Entry> entries = open().read(null, null);
+        assertEquals(1, entries.size());
+    }
+
+    public void testClear() throws Exception {
+        HistoryFile historyFile = open();
+        historyFile.append(new Entry(new Date(1000), snapshot("pmd", 1)));
+        historyFile.clear();
+
+        assertTrue(historyFile.isEmpty());
+        assertTrue(open().isEmpty());
+        historyFile.append(new Entry(new Date(2000), snapshot("checkstyle", 1)));
+        assertEquals(1, open().read(null, null).size());
+    }
+
+    private HistoryFile open() throws IOException {
+        return new HistoryFile(getDataFile(), new File(getWorkDir(), "history.providers"));
+    }
+
+    private File getDataFile() throws IOException {
+        return new File(getWorkDir(), "history.dat");
+    }
+
+    private static QualityProviderStatisticSnapshot snapshot(String providerId, long errors) {
+        return new QualityProviderStatisticSnapshot(providerId, errors, 0, 0);
+    }
+}
@@ -18,16 +18,22 @@
 package org.nbheaven.sqe.core.java.search;
 
 import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.NewClassTree;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePath;
 import com.sun.source.util.TreePathScanner;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.lang.model.element.Element;
+import org.nbheaven.sqe.core.java.search.impl.DeclarationIndex;
 import org.nbheaven.sqe.core.java.search.impl.JavaElementImpl;
 import org.nbheaven.sqe.core.java.search.impl.SearchClassVisitor;
 import org.nbheaven.sqe.core.java.search.impl.SearchMethodVisitor;
@@ -79,6 +85,56 @@ public final class SearchUtilities {
         }.findElement(descriptor);
     }
 
+    /**
+     * Resolves many descriptors of elements declared in the same file at
+     * once, the file is parsed and scanned only once for all of them.
+     *
+     * @return the elements found, descriptors that cannot be resolved have
+     * no entry
+     */
+    public static Map<ElementDescriptor, JavaElement> findElements(FileObject fileObject, final Collection<? extends ElementDescriptor> descriptors) {
+        if (null == fileObject || descriptors.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        JavaSource javaSource = JavaSource.forFileObject(fileObject);
+        if (null == javaSource) {
+            return Collections.emptyMap();
+        }
+        final Map<ElementDescriptor, JavaElement> elements = new HashMap<>();
+        try {
+            javaSource.runUserActionTask(new CancellableTask<CompilationController>() {
+
+                @Override
+                public void run(CompilationController controller) throws Exception {
+                    controller.toPhase(Phase.ELEMENTS_RESOLVED);
+                    CompilationUnitTree compilationUnit = controller.getCompilationUnit();
+                    SourcePositions positions = controller.getTrees().getSourcePositions();
+                    DeclarationIndex index = new DeclarationIndex(controller);
+                    for (ElementDescriptor descriptor : descriptors) {
+                        if (null == descriptor || null == descriptor.getSourceProvider()) {
+                            continue;
+                        }
+                        TreePath path = index.find(descriptor);
+                        Element element = null != path ? controller.getTrees().getElement(path) : null;
+                        if (null != element) {
+                            int[] offset = new int[]{
+                                (int) positions.getStartPosition(compilationUnit, path.getLeaf()),
+                                (int) positions.getEndPosition(compilationUnit, path.getLeaf())};
+                            elements.put(descriptor, new JavaElementImpl(descriptor, ElementHandle.create(element), offset));
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            }, false);
+        } catch (IOException e) {
+            Logger.getLogger(SearchUtilities.class.getName()).log(Level.INFO, "Bad search for elements", e);
+        }
+        return elements;
+    }
+
     private static abstract class Searcher implements CancellableTask<CompilationController> {
         private ElementHandle<?> elementHandle;
         protected abstract TreePathScanner<TreePathHandle,Void> makeVisitor(CompilationController controller);
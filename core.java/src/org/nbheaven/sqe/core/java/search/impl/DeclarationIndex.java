@@ -0,0 +1,166 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.core.java.search.impl;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import java.util.ArrayList;
+import java.util.List;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import org.nbheaven.sqe.core.java.search.ClassElementDescriptor;
+import org.nbheaven.sqe.core.java.search.ElementDescriptor;
+import org.nbheaven.sqe.core.java.search.MethodElementDescriptor;
+import org.nbheaven.sqe.core.java.search.VariableElementDescriptor;
+import org.nbheaven.sqe.core.java.utils.TypeUtilities;
+import org.netbeans.api.java.source.CompilationInfo;
+
+/**
+ * The class, method and field declarations of a compilation unit, collected
+ * in a single pass so any number of descriptors can be looked up afterwards.
+ * Classes are matched the way {@link SearchClassVisitor} does, a numeric
+ * name part selects the n-th class declared directly in the enclosing class.
+ *
+ * @author Sven Reimers
+ */
+public final class DeclarationIndex extends TreePathScanner<Void, DeclarationIndex.ClassNode> {
+
+    private final CompilationInfo info;
+    private final ClassNode root = new ClassNode("", null);
+
+    public DeclarationIndex(CompilationInfo info) {
+        this.info = info;
+        scan(info.getCompilationUnit(), root);
+    }
+
+    /**
+     * @return the declaration of the described element or <code>null</code>
+     * if the compilation unit does not declare it
+     */
+    public TreePath find(ElementDescriptor descriptor) {
+        if (descriptor instanceof MethodElementDescriptor) {
+            return findMethod((MethodElementDescriptor) descriptor);
+        }
+        if (descriptor instanceof VariableElementDescriptor) {
+            return findVariable((VariableElementDescriptor) descriptor);
+        }
+        if (descriptor instanceof ClassElementDescriptor) {
+            ClassNode node = findClass((ClassElementDescriptor) descriptor);
+            return null != node ? node.path : null;
+        }
+        return null;
+    }
+
+    private ClassNode findClass(ClassElementDescriptor descriptor) {
+        ClassNode node = root;
+        for (String part : descriptor.getFQNClassName().split("[.$]")) {
+            node = part.matches("\\d+") && node != root ? node.getChild(Integer.parseInt(part)) : node.getChild(part);
+            if (null == node) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private TreePath findMethod(MethodElementDescriptor descriptor) {
+        ClassNode node = findClass(descriptor.getClassElementDescriptor());
+        if (null == node) {
+            return null;
+        }
+        for (TreePath method : node.methods) {
+            if (((MethodTree) method.getLeaf()).getName().contentEquals(descriptor.getName())) {
+                Element element = info.getTrees().getElement(method);
+                if (null != element && (element.getKind() == ElementKind.METHOD || element.getKind() == ElementKind.CONSTRUCTOR)
+                        && descriptor.getSignature().equals(SearchMethodVisitor.getSignature((ExecutableElement) element))) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    private TreePath findVariable(VariableElementDescriptor descriptor) {
+        ClassNode node = findClass(descriptor.getClassElementDescriptor());
+        if (null == node) {
+            return null;
+        }
+        for (TreePath field : node.fields) {
+            if (((VariableTree) field.getLeaf()).getName().contentEquals(descriptor.getName())) {
+                Element element = info.getTrees().getElement(field);
+                if (null != element
+                        && TypeUtilities.convertTypeMirrorToBinaryRepresentation(element.asType()).equals(descriptor.getSignature())) {
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClass(ClassTree classTree, ClassNode parent) {
+        ClassNode node = new ClassNode(classTree.getSimpleName().toString(), getCurrentPath());
+        parent.children.add(node);
+        return super.visitClass(classTree, node);
+    }
+
+    @Override
+    public Void visitMethod(MethodTree methodTree, ClassNode parent) {
+        parent.methods.add(getCurrentPath());
+        return super.visitMethod(methodTree, parent);
+    }
+
+    @Override
+    public Void visitVariable(VariableTree variableTree, ClassNode parent) {
+        // only fields, not parameters or local variables
+        if (null != parent.path && getCurrentPath().getParentPath().getLeaf() == parent.path.getLeaf()) {
+            parent.fields.add(getCurrentPath());
+        }
+        return super.visitVariable(variableTree, parent);
+    }
+
+    static final class ClassNode {
+
+        private final String simpleName;
+        private final TreePath path;
+        private final List<ClassNode> children = new ArrayList<>();
+        private final List<TreePath> methods = new ArrayList<>();
+        private final List<TreePath> fields = new ArrayList<>();
+
+        ClassNode(String simpleName, TreePath path) {
+            this.simpleName = simpleName;
+            this.path = path;
+        }
+
+        private ClassNode getChild(String name) {
+            for (ClassNode child : children) {
+                if (child.simpleName.equals(name)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private ClassNode getChild(int number) {
+            return number > 0 && number <= children.size() ? children.get(number - 1) : null;
+        }
+    }
+}
@@ -53,13 +53,23 @@ public final class JavaElementImpl implements JavaElement {
 
     private final FileObject fileObject;
     private final ElementHandle<?> elementHandle;
+    private final int[] knownOffset;
 
     public JavaElementImpl(ElementDescriptor elementDescriptor, ElementHandle<?> elementHandle) {
+        this(elementDescriptor, elementHandle, null);
+    }
+
+    /**
+     * @param offset start and end offset of the declaration if already
+     * known, saves another parse of the file when the line is asked for
+     */
+    public JavaElementImpl(ElementDescriptor elementDescriptor, ElementHandle<?> elementHandle, int[] offset) {
         if (null == elementHandle) {
             throw new IllegalArgumentException("Null ElementHandle not supported for JavaElementImpl, ensure it is set for <"+ String.valueOf(elementDescriptor) +">!");
         }
         this.fileObject = elementDescriptor.getSourceProvider().getFileObject();
         this.elementHandle = elementHandle;
+        this.knownOffset = offset;
     }
 
     @Override
@@ -128,6 +138,9 @@ public final class JavaElementImpl implements JavaElement {
     }
 
     private int[] getOffset() throws IOException {
+        if (null != knownOffset) {
+            return knownOffset;
+        }
         final int[]  result = new int[] {-1, -1};
 
         JavaSource js = JavaSource.forFileObject(fileObject);
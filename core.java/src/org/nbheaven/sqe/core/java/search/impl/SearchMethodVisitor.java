@@ -46,13 +46,7 @@ public class SearchMethodVisitor extends SearchClassVisitor {
             Element el = TreePathHandle.create(getCurrentPath(), getInfo()).resolveElement(getInfo());
             if (el.getKind().equals(ElementKind.METHOD) || el.getKind().equals(ElementKind.CONSTRUCTOR)) {
                 ExecutableElement method = ((ExecutableElement)TreePathHandle.create(getCurrentPath(), getInfo()).resolveElement(getInfo()));
-                StringBuilder builder = new StringBuilder("(");
-                for (VariableElement variableElement: method.getParameters()) {
-                    builder.append(TypeUtilities.convertTypeMirrorToBinaryRepresentation(variableElement.asType()));
-                }
-                builder.append(")");
-                builder.append(TypeUtilities.convertTypeMirrorToBinaryRepresentation(method.getReturnType()));
-                if (descriptor.getSignature().equals(builder.toString())){
+                if (descriptor.getSignature().equals(getSignature(method))){
                     return true;
                 }              
             }
@@ -60,6 +54,19 @@ public class SearchMethodVisitor extends SearchClassVisitor {
         return false;
     }
     
+    /**
+     * @return the signature of the method as found in bytecode
+     */
+    static String getSignature(ExecutableElement method) {
+        StringBuilder builder = new StringBuilder("(");
+        for (VariableElement variableElement: method.getParameters()) {
+            builder.append(TypeUtilities.convertTypeMirrorToBinaryRepresentation(variableElement.asType()));
+        }
+        builder.append(")");
+        builder.append(TypeUtilities.convertTypeMirrorToBinaryRepresentation(method.getReturnType()));
+        return builder.toString();
+    }
+
     @Override
     boolean needsFurtherVisiting() {
         return true;
@@ -18,7 +18,6 @@
 package org.nbheaven.sqe.core.java.utils;
 
 import java.util.Collection;
-import java.util.HashSet;
 import org.openide.filesystems.FileObject;
 
 
@@ -30,22 +29,19 @@ final public class FileObjectUtilities {
     
     private FileObjectUtilities() {}
     
+    /**
+     * @see JavaSourceEnumerator#getJavaSourceFiles(FileObject)
+     */
     public static Collection<FileObject> collectAllJavaSourceFiles(FileObject rootFolder) {
-            return collectAllJavaSourceFiles(rootFolder, new HashSet<FileObject>());
+            return JavaSourceEnumerator.getJavaSourceFiles(rootFolder);
     }
 
+    /**
+     * @see JavaSourceEnumerator#collectJavaSourceFiles(FileObject, Collection)
+     */
     public static Collection<FileObject> collectAllJavaSourceFiles(FileObject rootFolder,
         Collection<FileObject> fileObjects) {
-        for (FileObject fo : rootFolder.getChildren()) {
-            if (fo.isFolder()) {
-                collectAllJavaSourceFiles(fo, fileObjects);
-            } else {
-                if (fo.getMIMEType().equals("text/x-java")) {
-                    fileObjects.add(fo);
-                }
-            }
-        }
-        return fileObjects;
+        return JavaSourceEnumerator.collectJavaSourceFiles(rootFolder, fileObjects);
     }
     
 }
@@ -0,0 +1,277 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.core.java.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.openide.filesystems.FileAttributeEvent;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Enumerates the Java files below a folder. Folders on disk are walked with
+ * <code>java.nio.file</code>, following symbolic links, and files are
+ * matched by the extensions registered for the Java MIME type, which avoids
+ * resolving the MIME type of every file. The list is kept per source root
+ * and updated from file events, so later enumerations of a source root do
+ * not touch the disk. Other folders are walked on every call.
+ *
+ * @author Sven Reimers
+ */
+public final class JavaSourceEnumerator {
+
+    private static final Logger LOG = Logger.getLogger(JavaSourceEnumerator.class.getName());
+
+    private static final String JAVA_MIME_TYPE = "text/x-java";     //NOI18N
+    private static final String JAVA_EXTENSION = "java";     //NOI18N
+
+    /**
+     * The entries only hold files and weakly the file objects, file objects
+     * would keep their root and so the entry alive.
+     */
+    private static final Map<FileObject, RootEntry> ROOTS = new WeakHashMap<>();
+
+    private JavaSourceEnumerator() {
+    }
+
+    /**
+     * @return a new collection with the Java files below the folder
+     */
+    public static Collection<FileObject> getJavaSourceFiles(FileObject folder) {
+        return collectJavaSourceFiles(folder, new HashSet<FileObject>());
+    }
+
+    /**
+     * Adds the Java files below the folder to the given collection.
+     *
+     * @return the given collection
+     */
+    public static Collection<FileObject> collectJavaSourceFiles(FileObject folder, Collection<FileObject> fileObjects) {
+        Set<String> extensions = getJavaExtensions();
+        File root = FileUtil.toFile(folder);
+        if (null == root) {
+            // e.g. inside an archive, nothing to listen on
+            collectFromFileObjects(folder, extensions, fileObjects);
+            return fileObjects;
+        }
+        if (!isSourceRoot(folder)) {
+            for (File file : walk(root, extensions)) {
+                FileObject fo = FileUtil.toFileObject(file);
+                if (null != fo) {
+                    fileObjects.add(fo);
+                }
+            }
+            return fileObjects;
+        }
+        RootEntry entry;
+        synchronized (ROOTS) {
+            entry = ROOTS.get(folder);
+            if (null == entry) {
+                entry = new RootEntry(root);
+                folder.addRecursiveListener(entry);
+                ROOTS.put(folder, entry);
+            }
+        }
+        entry.collect(extensions, fileObjects);
+        return fileObjects;
+    }
+
+    /**
+     * @return whether the Java files below the folder are kept
+     */
+    static boolean isCached(FileObject folder) {
+        synchronized (ROOTS) {
+            return ROOTS.containsKey(folder);
+        }
+    }
+
+    private static boolean isSourceRoot(FileObject folder) {
+        ClassPath sourcePath = ClassPath.getClassPath(folder, ClassPath.SOURCE);
+        return null != sourcePath && folder.equals(sourcePath.findOwnerRoot(folder));
+    }
+
+    /**
+     * @return the extensions of files with the Java MIME type, usually only
+     * <code>java</code>
+     */
+    private static Set<String> getJavaExtensions() {
+        Set<String> extensions = new HashSet<>(FileUtil.getMIMETypeExtensions(JAVA_MIME_TYPE));
+        if (extensions.isEmpty()) {
+            extensions.add(JAVA_EXTENSION);
+        }
+        return extensions;
+    }
+
+    private static void collectFromFileObjects(FileObject folder, Set<String> extensions, Collection<FileObject> fileObjects) {
+        for (FileObject fo : folder.getChildren()) {
+            if (fo.isFolder()) {
+                collectFromFileObjects(fo, extensions, fileObjects);
+            } else if (extensions.contains(fo.getExt())) {
+                fileObjects.add(fo);
+            }
+        }
+    }
+
+    private static boolean isJavaFile(String name, Set<String> extensions) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && extensions.contains(name.substring(dot + 1));
+    }
+
+    /**
+     * Collects the Java files below the root. Symbolic links are followed,
+     * links back to a folder being walked are skipped.
+     */
+    private static Set<File> walk(final File root, final Set<String> extensions) {
+        final Set<File> result = new HashSet<>();
+        try {
+            Files.walkFileTree(root.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isJavaFile(file.getFileName().toString(), extensions)) {
+                        result.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // also reached for cycles of symbolic links
+                    LOG.log(Level.FINE, "Skipping " + file, exc);     //NOI18N
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Failure walking " + root, ex);     //NOI18N
+        }
+        return result;
+    }
+
+    /**
+     * The Java files of one source root, walked again only after changes the
+     * events do not describe well enough, e.g. renamed or copied folders. The
+     * file objects are resolved when first asked for and kept as long as
+     * someone else uses them.
+     */
+    private static final class RootEntry implements FileChangeListener {
+
+        private final File root;
+        private Set<String> extensions;
+        private Map<File, Reference<FileObject>> files;
+
+        RootEntry(File root) {
+            this.root = root;
+        }
+
+        synchronized void collect(Set<String> currentExtensions, Collection<FileObject> fileObjects) {
+            if (null == files || !currentExtensions.equals(extensions)) {
+                extensions = currentExtensions;
+                files = new HashMap<>();
+                for (File file : walk(root, extensions)) {
+                    files.put(file, null);
+                }
+            }
+            for (Map.Entry<File, Reference<FileObject>> entry : files.entrySet()) {
+                Reference<FileObject> reference = entry.getValue();
+                FileObject fo = null != reference ? reference.get() : null;
+                if (null == fo || !fo.isValid()) {
+                    fo = FileUtil.toFileObject(entry.getKey());
+                    if (null == fo) {
+                        continue;
+                    }
+                    entry.setValue(new WeakReference<>(fo));
+                }
+                fileObjects.add(fo);
+            }
+        }
+
+        private synchronized void invalidate() {
+            files = null;
+        }
+
+        @Override
+        public synchronized void fileDataCreated(FileEvent fe) {
+            FileObject fo = fe.getFile();
+            File file = FileUtil.toFile(fo);
+            if (null != files && null != file && isJavaFile(file.getName(), extensions)) {
+                files.put(file, new WeakReference<>(fo));
+            }
+        }
+
+        @Override
+        public void fileFolderCreated(FileEvent fe) {
+            // may arrive with its content already in place
+            invalidate();
+        }
+
+        @Override
+        public synchronized void fileDeleted(FileEvent fe) {
+            File file = FileUtil.toFile(fe.getFile());
+            if (null == files) {
+                return;
+            }
+            if (null == file) {
+                files = null;
+            } else if (fe.getFile().isData()) {
+                files.remove(file);
+            } else {
+                String prefix = file.getPath() + File.separatorChar;
+                for (Iterator<File> iterator = files.keySet().iterator(); iterator.hasNext();) {
+                    if (iterator.next().getPath().startsWith(prefix)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            invalidate();
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+        }
+
+        @Override
+        public void fileAttributeChanged(FileAttributeEvent fe) {
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.core.java.utils;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.lang.model.element.TypeElement;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.netbeans.api.java.source.ClassIndex;
+import org.netbeans.api.java.source.ClasspathInfo;
+import org.netbeans.api.java.source.ElementHandle;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.netbeans.api.project.SourceGroup;
+import org.netbeans.api.project.Sources;
+import org.openide.filesystems.FileAttributeEvent;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.util.WeakListeners;
+
+/**
+ * Resolves class names to the source files declaring them, one instance per
+ * project. The classpath info of every source root is created once and
+ * resolved classes as well as classes not found are remembered. Everything is
+ * dropped when the source groups or a classpath of the project change, the
+ * remembered classes also when a file below a source root is created, deleted
+ * or renamed. A changed file only drops the classes resolved to it and the
+ * classes not found, since it may declare one of them now.
+ *
+ * @author Sven Reimers
+ */
+public final class JavaTypeResolver {
+
+    private static final Map<Project, JavaTypeResolver> RESOLVERS = new WeakHashMap<>();
+
+    private final Reference<Project> project;
+    private List<ClasspathInfo> roots;
+    private final Map<String, JavaSourceProvider> types = new HashMap<>();
+    private final Map<String, FileObject> files = new HashMap<>();
+    private final Set<String> missingTypes = new HashSet<>();
+    /**
+     * Incremented on every invalidation so lookups started before do not
+     * store stale answers.
+     */
+    private int generation;
+    private final Set<Object> observed = Collections.newSetFromMap(new WeakHashMap<Object, Boolean>());
+    private final PropertyChangeListener classPathListener = new PropertyChangeListener() {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (ClassPath.PROP_ENTRIES.equals(evt.getPropertyName()) || ClassPath.PROP_ROOTS.equals(evt.getPropertyName())) {
+                invalidate();
+            }
+        }
+    };
+    private final ChangeListener sourcesListener = new ChangeListener() {
+
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            invalidate();
+        }
+    };
+    private final FileChangeListener fileListener = new FileChangeListener() {
+
+        @Override
+        public void fileFolderCreated(FileEvent fe) {
+            forgetTypes();
+        }
+
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            forgetTypes();
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            if ("java".equals(fe.getFile().getExt())) {     //NOI18N
+                forgetFile(fe.getFile());
+            }
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            forgetTypes();
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            forgetTypes();
+        }
+
+        @Override
+        public void fileAttributeChanged(FileAttributeEvent fe) {
+        }
+    };
+
+    private JavaTypeResolver(Project project) {
+        this.project = new WeakReference<>(project);
+    }
+
+    public static JavaTypeResolver forProject(Project project) {
+        synchronized (RESOLVERS) {
+            JavaTypeResolver resolver = RESOLVERS.get(project);
+            if (null == resolver) {
+                resolver = new JavaTypeResolver(project);
+                RESOLVERS.put(project, resolver);
+            }
+            return resolver;
+        }
+    }
+
+    /**
+     * @param className the binary name of the class, inner classes resolve
+     * to their outermost class
+     * @return the type or <code>null</code> if no source root of the project
+     * declares it
+     */
+    public JavaSourceProvider findType(String className) {
+        String outerClass = getOuterClass(className);
+        List<ClasspathInfo> currentRoots;
+        int startGeneration;
+        synchronized (this) {
+            JavaSourceProvider type = types.get(outerClass);
+            if (null != type || missingTypes.contains(outerClass)) {
+                return type;
+            }
+            currentRoots = getRoots();
+            startGeneration = generation;
+        }
+
+        // remove Package
+        String javaClassName = outerClass.substring(outerClass.lastIndexOf('.') + 1);
+        for (ClasspathInfo classpathInfo : currentRoots) {
+            Set<ElementHandle<TypeElement>> declaredTypes = classpathInfo.getClassIndex().getDeclaredTypes(javaClassName,
+                    ClassIndex.NameKind.SIMPLE_NAME, EnumSet.of(ClassIndex.SearchScope.SOURCE, ClassIndex.SearchScope.DEPENDENCIES));
+            for (ElementHandle<TypeElement> typeElementHandle : declaredTypes) {
+                if (typeElementHandle.getQualifiedName().equals(outerClass)) {
+                    JavaSourceProvider type = new JavaSourceProvider(classpathInfo, typeElementHandle);
+                    synchronized (this) {
+                        if (startGeneration == generation) {
+                            types.put(outerClass, type);
+                        }
+                    }
+                    return type;
+                }
+            }
+        }
+        synchronized (this) {
+            if (startGeneration == generation) {
+                missingTypes.add(outerClass);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the source file declaring the class or <code>null</code> if
+     * there is none in the project
+     */
+    public FileObject findFileObject(String className) {
+        String outerClass = getOuterClass(className);
+        int startGeneration;
+        synchronized (this) {
+            FileObject file = files.get(outerClass);
+            if (null != file && file.isValid()) {
+                return file;
+            }
+            startGeneration = generation;
+        }
+        JavaSourceProvider type = findType(outerClass);
+        FileObject file = null != type ? type.getFileObject() : null;
+        if (null != file) {
+            synchronized (this) {
+                if (startGeneration == generation) {
+                    files.put(outerClass, file);
+                }
+            }
+        }
+        return file;
+    }
+
+    private static String getOuterClass(String className) {
+        // remove InnerclassDeclaration
+        return -1 != className.indexOf('$') ? className.substring(0, className.indexOf('$')) : className;
+    }
+
+    private List<ClasspathInfo> getRoots() {
+        assert Thread.holdsLock(this);
+        if (null == roots) {
+            List<ClasspathInfo> found = new ArrayList<>();
+            Project p = project.get();
+            if (null != p) {
+                Sources sources = ProjectUtils.getSources(p);
+                if (observed.add(sources)) {
+                    sources.addChangeListener(WeakListeners.change(sourcesListener, sources));
+                }
+                for (SourceGroup g : ProjectUtilities.getJavaSourceGroups(p)) {
+                    FileObject root = g.getRootFolder();
+                    ClassPath bootPath = ClassPath.getClassPath(root, ClassPath.BOOT);
+                    ClassPath compilePath = ClassPath.getClassPath(root, ClassPath.COMPILE);
+                    ClassPath sourcePath = ClassPath.getClassPath(root, ClassPath.SOURCE);
+                    observe(bootPath);
+                    observe(compilePath);
+                    observe(sourcePath);
+                    if (observed.add(root)) {
+                        root.addRecursiveListener(WeakListeners.create(FileChangeListener.class, fileListener, root));
+                    }
+                    found.add(ClasspathInfo.create(bootPath, compilePath, sourcePath));
+                }
+            }
+            roots = Collections.unmodifiableList(found);
+        }
+        return roots;
+    }
+
+    private void observe(ClassPath classPath) {
+        if (null != classPath && observed.add(classPath)) {
+            classPath.addPropertyChangeListener(WeakListeners.propertyChange(classPathListener, classPath));
+        }
+    }
+
+    private synchronized void invalidate() {
+        roots = null;
+        forgetTypes();
+    }
+
+    private synchronized void forgetTypes() {
+        types.clear();
+        files.clear();
+        missingTypes.clear();
+        generation++;
+    }
+
+    private synchronized void forgetFile(FileObject changed) {
+        for (Iterator<Map.Entry<String, FileObject>> iterator = files.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, FileObject> entry = iterator.next();
+            if (changed.equals(entry.getValue())) {
+                types.remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+        missingTypes.clear();
+        generation++;
+    }
+
+}
@@ -17,20 +17,11 @@
  */
 package org.nbheaven.sqe.core.java.utils;
 
-import java.util.EnumSet;
-import java.util.Set;
-import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.type.TypeVariable;
-import org.netbeans.api.java.classpath.ClassPath;
-import org.netbeans.api.java.source.ClassIndex;
-import org.netbeans.api.java.source.ClasspathInfo;
-import org.netbeans.api.java.source.ElementHandle;
 import org.netbeans.api.project.Project;
-import org.netbeans.api.project.SourceGroup;
-import org.openide.filesystems.FileObject;
 
 
 /**
@@ -92,30 +83,7 @@ public final class TypeUtilities {
     }
     
     public static JavaSourceProvider getJavaTypeElement(String findIt, Project project) {
-        String outerClass = findIt;
-        // remove InnerclassDeclaration
-        if (-1 != outerClass.indexOf('$')) {
-            outerClass = outerClass.substring(0, outerClass.indexOf('$'));
-        }
-        
-        // remove Package
-        String javaClassName = outerClass.substring(outerClass.lastIndexOf(".")+1);
-        
+        return JavaTypeResolver.forProject(project).findType(findIt);
+    }
 
-        for (SourceGroup g : ProjectUtilities.getJavaSourceGroups(project)) {
-            FileObject root = g.getRootFolder();
-            ClasspathInfo ci = ClasspathInfo.create(ClassPath.getClassPath(root, ClassPath.BOOT),
-                    ClassPath.getClassPath(root, ClassPath.COMPILE),
-                    ClassPath.getClassPath(root, ClassPath.SOURCE));
-            Set<ElementHandle<TypeElement>> declaredTypes = ci.getClassIndex().getDeclaredTypes(javaClassName,
-                    ClassIndex.NameKind.SIMPLE_NAME, EnumSet.of(ClassIndex.SearchScope.SOURCE, ClassIndex.SearchScope.DEPENDENCIES));
-            for(ElementHandle<TypeElement> typeElementHandle: declaredTypes) {
-                if (typeElementHandle.getQualifiedName().equals(outerClass)) {
-                    return new JavaSourceProvider(ci, typeElementHandle);
-                }
-            }
-        }                        
-        return null;
-    }    
-    
 }
@@ -0,0 +1,134 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.core.java.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.netbeans.junit.MockServices;
+import org.netbeans.junit.NbTestCase;
+import org.netbeans.spi.java.classpath.ClassPathProvider;
+import org.netbeans.spi.java.classpath.support.ClassPathSupport;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Checks enumerating and caching the Java files of source roots.
+ *
+ * @author Sven Reimers
+ */
+public class JavaSourceEnumeratorTest extends NbTestCase {
+
+    private FileObject root;
+
+    public JavaSourceEnumeratorTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        clearWorkDir();
+        File src = new File(getWorkDir(), "src");
+        assertTrue(src.mkdirs());
+        root = FileUtil.toFileObject(src);
+        SourceRoots.root = root;
+        MockServices.setServices(SourceRoots.class);
+        FileUtil.createData(root, "a/A.java");
+        FileUtil.createData(root, "a/b/B.java");
+        FileUtil.createData(root, "a/readme.txt");
+    }
+
+    public void testCollectsJavaFiles() throws Exception {
+        assertEquals(names("A", "B"), names(JavaSourceEnumerator.getJavaSourceFiles(root)));
+    }
+
+    public void testOnlySourceRootsAreCached() throws Exception {
+        FileObject folder = root.getFileObject("a/b");
+        assertEquals(names("B"), names(JavaSourceEnumerator.getJavaSourceFiles(folder)));
+        assertFalse(JavaSourceEnumerator.isCached(folder));
+
+        JavaSourceEnumerator.getJavaSourceFiles(root);
+        assertTrue(JavaSourceEnumerator.isCached(root));
+    }
+
+    public void testCachedFilesFollowChanges() throws Exception {
+        JavaSourceEnumerator.getJavaSourceFiles(root);
+
+        FileUtil.createData(root, "a/C.java");
+        FileUtil.createData(root, "a/c.txt");
+        root.getFileObject("a/A.java").delete();
+        assertEquals(names("B", "C"), names(JavaSourceEnumerator.getJavaSourceFiles(root)));
+
+        root.getFileObject("a/b").delete();
+        assertEquals(names("C"), names(JavaSourceEnumerator.getJavaSourceFiles(root)));
+
+        FileUtil.createData(root, "d/D.java");
+        assertEquals(names("C", "D"), names(JavaSourceEnumerator.getJavaSourceFiles(root)));
+    }
+
+    public void testFollowsSymbolicLinks() throws Exception {
+        File other = new File(getWorkDir(), "other");
+        assertTrue(other.mkdirs());
+        assertTrue(new File(other, "Other.java").createNewFile());
+        File src = FileUtil.toFile(root);
+        try {
+            Files.createSymbolicLink(new File(src, "linked").toPath(), other.toPath());
+            // a cycle back to the root
+            Files.createSymbolicLink(new File(src, "a/loop").toPath(), src.toPath());
+        } catch (IOException | UnsupportedOperationException ex) {
+            log("No symbolic links: " + ex);
+            return;
+        }
+        root.refresh();
+
+        assertEquals(names("A", "B", "Other"), names(JavaSourceEnumerator.getJavaSourceFiles(root)));
+    }
+
+    private static Set<String> names(String... names) {
+        Set<String> result = new TreeSet<>();
+        for (String name : names) {
+            result.add(name);
+        }
+        return result;
+    }
+
+    private static Set<String> names(Collection<FileObject> fileObjects) {
+        Set<String> result = new TreeSet<>();
+        for (FileObject fo : fileObjects) {
+            result.add(fo.getName());
+        }
+        return result;
+    }
+
+    public static final class SourceRoots implements ClassPathProvider {
+
+        static FileObject root;
+
+        @Override
+        public ClassPath findClassPath(FileObject file, String type) {
+            if (ClassPath.SOURCE.equals(type) && null != root && (root.equals(file) || FileUtil.isParentOf(root, file))) {
+                return ClassPathSupport.createClassPath(root);
+            }
+            return null;
+        }
+    }
+}
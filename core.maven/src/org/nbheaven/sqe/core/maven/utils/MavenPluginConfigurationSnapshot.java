@@ -0,0 +1,131 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.core.maven.utils;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.maven.project.MavenProject;
+import org.nbheaven.sqe.core.maven.api.MavenPluginConfiguration;
+import org.netbeans.api.project.Project;
+import org.netbeans.modules.maven.api.NbMavenProject;
+
+/**
+ * The plugin configurations of one Maven project, shared by all tool
+ * modules. Every value is evaluated against the project model only once
+ * and kept until the model is reloaded.
+ *
+ * @author Sven Reimers
+ */
+final class MavenPluginConfigurationSnapshot {
+
+    private static final Map<Project, MavenPluginConfigurationSnapshot> SNAPSHOTS = new WeakHashMap<>();
+
+    /**
+     * The model the configurations were evaluated against.
+     */
+    private MavenProject mavenProject;
+    private final Map<String, MemoizedConfiguration> configurations = new HashMap<>();
+
+    private MavenPluginConfigurationSnapshot() {
+    }
+
+    static MavenPluginConfigurationSnapshot forProject(Project project) {
+        synchronized (SNAPSHOTS) {
+            MavenPluginConfigurationSnapshot snapshot = SNAPSHOTS.get(project);
+            if (null == snapshot) {
+                snapshot = new MavenPluginConfigurationSnapshot();
+                final MavenPluginConfigurationSnapshot listeningSnapshot = snapshot;
+                // the listener must not reference the project, it is the key
+                project.getLookup().lookup(NbMavenProject.class).addPropertyChangeListener(new PropertyChangeListener() {
+                    @Override
+                    public void propertyChange(PropertyChangeEvent evt) {
+                        if (NbMavenProject.PROP_PROJECT.equals(evt.getPropertyName())) {
+                            listeningSnapshot.invalidate();
+                        }
+                    }
+                });
+                SNAPSHOTS.put(project, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @param current the currently loaded model, a different model than the
+     * one the snapshot was taken from invalidates it as well
+     */
+    synchronized MavenPluginConfiguration getConfiguration(MavenProject current, String groupId, String artifactId) {
+        if (current != mavenProject) {
+            configurations.clear();
+            mavenProject = current;
+        }
+        String key = groupId + ':' + artifactId;
+        MemoizedConfiguration configuration = configurations.get(key);
+        if (null == configuration) {
+            configuration = new MemoizedConfiguration(MavenUtilities.getReportPluginConfigurationImpl(current, groupId, artifactId));
+            configurations.put(key, configuration);
+        }
+        return configuration;
+    }
+
+    private synchronized void invalidate() {
+        configurations.clear();
+        mavenProject = null;
+    }
+
+    private static final class MemoizedConfiguration implements MavenPluginConfiguration {
+
+        private final MavenPluginConfiguration delegate;
+        private Boolean definedInProject;
+        private final Map<String, String> values = new HashMap<>();
+        private final Map<String, String[]> listValues = new HashMap<>();
+
+        MemoizedConfiguration(MavenPluginConfiguration delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized boolean isDefinedInProject() {
+            if (null == definedInProject) {
+                definedInProject = delegate.isDefinedInProject();
+            }
+            return definedInProject;
+        }
+
+        @Override
+        public synchronized String getValue(String path) {
+            if (!values.containsKey(path)) {
+                values.put(path, delegate.getValue(path));
+            }
+            return values.get(path);
+        }
+
+        @Override
+        public synchronized String[] getStringListValue(String listParent, String listChild) {
+            String key = listParent + '/' + listChild;
+            if (!listValues.containsKey(key)) {
+                listValues.put(key, delegate.getStringListValue(listParent, listChild));
+            }
+            String[] value = listValues.get(key);
+            return null != value ? value.clone() : null;
+        }
+    }
+}
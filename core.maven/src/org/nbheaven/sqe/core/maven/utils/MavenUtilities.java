@@ -51,9 +51,21 @@ public final class MavenUtilities {
 
     private MavenUtilities() {}
 
+    /**
+     * @return the configuration of the plugin, its values are evaluated once
+     * per loaded model and shared by all callers
+     */
     public static MavenPluginConfiguration getReportPluginConfiguration(final Project project, final String groupId, final String artifactId) {
         MavenProject prj = project.getLookup().lookup(NbMavenProject.class).getMavenProject();
-        return getReportPluginConfigurationImpl(prj, groupId, artifactId);
+        return MavenPluginConfigurationSnapshot.forProject(project).getConfiguration(prj, groupId, artifactId);
+    }
+
+    /**
+     * @return an object standing for the currently loaded model of the
+     * project, a different object is returned once the POM was reloaded
+     */
+    public static Object getModelRevision(Project project) {
+        return project.getLookup().lookup(NbMavenProject.class).getMavenProject();
     }
 
     static MavenPluginConfiguration getReportPluginConfigurationImpl(final MavenProject project, final String groupId, final String artifactId) {
@@ -94,9 +106,21 @@ public final class MavenUtilities {
      * @return list of files in local repository
      */
     public static List<File> findDependencyArtifacts(Project project, String pluginGroupId, String pluginArtifactId, boolean includePluginArtifact) {
+        return findDependencyArtifacts(project, pluginGroupId, pluginArtifactId, includePluginArtifact, true);
+    }
+
+    /**
+     * Like {@link #findDependencyArtifacts(Project, String, String, boolean)}
+     * but only downloads missing artifacts if <code>resolveRemote</code> is
+     * set. Without it only the local repository is looked at, which is
+     * cheap enough to be done on every scan.
+     *
+     * @return list of files in local repository
+     */
+    public static List<File> findDependencyArtifacts(Project project, String pluginGroupId, String pluginArtifactId, boolean includePluginArtifact, boolean resolveRemote) {
         List<File> cpFiles = new ArrayList<File>();
         final NbMavenProject p = project.getLookup().lookup(NbMavenProject.class);
-        final MavenEmbedder online = EmbedderFactory.getOnlineEmbedder();
+        final MavenEmbedder embedder = resolveRemote ? EmbedderFactory.getOnlineEmbedder() : EmbedderFactory.getProjectEmbedder();
         MavenProject mp = p.getMavenProject();
         if (includePluginArtifact) {
             Set<Artifact> arts = new HashSet<Artifact>();
@@ -108,11 +132,11 @@ public final class MavenUtilities {
                     File f = a.getFile();
                     if (f == null) {
                         //somehow the report plugins are not resolved, we need to workaround that..
-                        f = FileUtil.normalizeFile(new File(new File(online.getLocalRepository().getBasedir()), online.getLocalRepository().pathOf(a)));
+                        f = getLocalFile(embedder, a);
                     }
-                    if (!f.exists()) {
+                    if (!f.exists() && resolveRemote) {
                         try {
-                            online.resolve(a, mp.getRemoteArtifactRepositories(), online.getLocalRepository());
+                            embedder.resolve(a, mp.getRemoteArtifactRepositories(), embedder.getLocalRepository());
                         } catch (ArtifactResolutionException ex) {
                             Exceptions.printStackTrace(ex);
                         } catch (ArtifactNotFoundException ex) {
@@ -125,15 +149,20 @@ public final class MavenUtilities {
                             ProjectBuildingRequest req = new DefaultProjectBuildingRequest();
                             req.setRemoteRepositories(mp.getRemoteArtifactRepositories());
                             req.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
-                            req.setSystemProperties(online.getSystemProperties());
-                            ProjectBuildingResult res = online.buildProject(a, req);
+                            req.setSystemProperties(embedder.getSystemProperties());
+                            ProjectBuildingResult res = embedder.buildProject(a, req);
                             MavenProject mp2 = res.getProject();
                             if (mp2 != null) {
                                 // XXX this is not really right, but mp.dependencyArtifacts = null for some reason
                                 for (Dependency dep : mp2.getDependencies()) {
-                                    Artifact a2 = online.createArtifact(dep.getGroupId(), dep.getArtifactId(), dep.getVersion(), "jar");
-                                    online.resolve(a2, mp.getRemoteArtifactRepositories(), online.getLocalRepository());
-                                    File df = a2.getFile();
+                                    Artifact a2 = embedder.createArtifact(dep.getGroupId(), dep.getArtifactId(), dep.getVersion(), "jar");
+                                    File df;
+                                    if (resolveRemote) {
+                                        embedder.resolve(a2, mp.getRemoteArtifactRepositories(), embedder.getLocalRepository());
+                                        df = a2.getFile();
+                                    } else {
+                                        df = getLocalFile(embedder, a2);
+                                    }
                                     if (df.exists()) {
                                         cpFiles.add(df);
                                     }
@@ -153,14 +182,13 @@ public final class MavenUtilities {
                     pluginGroupId.equals(plug.getGroupId())) {
                 try {
                     List<Dependency> deps = plug.getDependencies();
-                    ArtifactFactory artifactFactory = online.getPlexus().lookup(ArtifactFactory.class);
+                    ArtifactFactory artifactFactory = embedder.getPlexus().lookup(ArtifactFactory.class);
                     for (Dependency d : deps) {
                         final Artifact projectArtifact = artifactFactory.createArtifactWithClassifier(d.getGroupId(), d.getArtifactId(), d.getVersion(), d.getType(), d.getClassifier());
-                        String localPath = online.getLocalRepository().pathOf(projectArtifact);
-                        File f = FileUtil.normalizeFile(new File(online.getLocalRepository().getBasedir(), localPath));
-                        if (!f.exists()) {
+                        File f = getLocalFile(embedder, projectArtifact);
+                        if (!f.exists() && resolveRemote) {
                             try {
-                                online.resolve(projectArtifact, mp.getRemoteArtifactRepositories(), online.getLocalRepository());
+                                embedder.resolve(projectArtifact, mp.getRemoteArtifactRepositories(), embedder.getLocalRepository());
                             } catch (ArtifactResolutionException ex) {
                                 ex.printStackTrace();
     //                                        Exceptions.printStackTrace(ex);
@@ -181,4 +209,9 @@ public final class MavenUtilities {
         return cpFiles;
     }
 
+    private static File getLocalFile(MavenEmbedder embedder, Artifact artifact) {
+        String localPath = embedder.getLocalRepository().pathOf(artifact);
+        return FileUtil.normalizeFile(new File(embedder.getLocalRepository().getBasedir(), localPath));
+    }
+
 }
@@ -25,6 +25,7 @@ import java.util.Map;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
+import org.nbheaven.sqe.codedefects.core.api.QualityResultReport;
 import org.nbheaven.sqe.codedefects.core.api.QualityResultStatistic;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal.AuditEventSupport;
 import org.netbeans.api.project.Project;
@@ -36,7 +37,7 @@ import org.openide.util.Lookup;
  *
  * @author Sven Reimers
  */
-public interface CheckstyleResult extends QualityResult, AuditListener, Lookup.Provider, QualityResultStatistic {
+public interface CheckstyleResult extends QualityResult, AuditListener, Lookup.Provider, QualityResultStatistic, QualityResultReport {
 
     public enum Mode {
 
@@ -88,6 +89,12 @@ public interface CheckstyleResult extends QualityResult, AuditListener, Lookup.P
 
     public Map<CategoryKey, Collection<AuditEvent>> getInstanceByType();
 
+    /**
+     * @return the audit events grouped by the file they were reported for,
+     * events of files that cannot be found are left out
+     */
+    public Map<FileObject, Collection<AuditEvent>> getInstanceByFile();
+
     public abstract static class DisplayableKey implements Comparable<DisplayableKey> {
 
         DisplayableKey() {
@@ -44,4 +44,12 @@ public interface CheckstyleSession extends QualitySession {
         return CheckstyleSessionImpl.computeResultAndWait(sourceFile);
     }
 
+    /**
+     * Cancels a pending or running analysis of a single file started by
+     * {@link #computeResultAndWait(org.openide.filesystems.FileObject)}.
+     */
+    public static void cancelComputeResult(FileObject sourceFile) {
+        CheckstyleSessionImpl.cancelComputeResult(sourceFile);
+    }
+
 }
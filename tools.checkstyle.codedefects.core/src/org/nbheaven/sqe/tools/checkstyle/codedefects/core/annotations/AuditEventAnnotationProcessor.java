@@ -19,24 +19,21 @@ package org.nbheaven.sqe.tools.checkstyle.codedefects.core.annotations;
 
 import com.puppycrawl.tools.checkstyle.api.AuditEvent;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
 import org.nbheaven.sqe.codedefects.core.api.SQEAnnotationProcessor;
-import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult;
-import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult.ClassKey;
-import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal.AuditEventFileResolver;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.Project;
-import org.netbeans.api.project.SourceGroup;
 import org.openide.ErrorManager;
 import org.openide.cookies.LineCookie;
 import org.openide.filesystems.FileObject;
-import org.openide.filesystems.FileUtil;
 import org.openide.loaders.DataObject;
 import org.openide.loaders.DataObjectNotFoundException;
 import org.openide.text.Line;
-import org.openide.text.Line.Set;
 
 /**
  *
@@ -62,7 +59,7 @@ public final class AuditEventAnnotationProcessor implements SQEAnnotationProcess
         try {
             DataObject dao = DataObject.find(fo);
             LineCookie cookie = dao.getLookup().lookup(LineCookie.class);
-            Set lineset = cookie.getLineSet();
+            Line.Set lineset = cookie.getLineSet();
             int lineNum = auditEvent.getLine();
 
             return lineset.getOriginal((lineNum > 0) ? (lineNum - 1) : 0);
@@ -74,33 +71,18 @@ public final class AuditEventAnnotationProcessor implements SQEAnnotationProcess
 
     private static void annotate(final AuditEvent auditEvent, final Line line,
             Project project) {
-        CheckstyleAnnotation annotation = CheckstyleAnnotation.getNewInstance(project);
+        annotate(auditEvent, line, CheckstyleAnnotation.getNewInstance(project));
+    }
+
+    private static void annotate(final AuditEvent auditEvent, final Line line,
+            CheckstyleAnnotation annotation) {
         annotation.setErrorMessage(auditEvent.getLocalizedMessage().getMessage());
         annotation.attach(line);
         line.addPropertyChangeListener(annotation);
     }
 
     public static FileObject getFileObjectForAuditEvent(AuditEvent auditEvent, Project project) {
-        String fullFileName = auditEvent.getFileName();
-
-        SourceGroup[] groups = ProjectUtilities.getJavaSourceGroups(project);
-
-        for (SourceGroup g : groups) {
-            FileObject rootOfSourceFolder = g.getRootFolder();
-            String rootFolderAsString = FileUtil.toFile(rootOfSourceFolder).getAbsolutePath();
-
-            if (fullFileName.startsWith(rootFolderAsString)) {
-                fullFileName = fullFileName.substring(rootFolderAsString.length() + 1);
-                break;
-            }
-        }
-
-        if (fullFileName.indexOf('$') != -1) {
-            fullFileName = fullFileName.substring(0, fullFileName.indexOf('$'));
-        }
-
-        // com/ndsatcom/Schnulli.java
-        return GlobalPathRegistry.getDefault().findResource(fullFileName);
+        return new AuditEventFileResolver(project).resolve(auditEvent.getFileName());
     }
 
     public static void openSourceFile(AuditEvent auditEvent, Project project) {
@@ -122,26 +104,53 @@ public final class AuditEventAnnotationProcessor implements SQEAnnotationProcess
         final CheckstyleResult result = (CheckstyleResult) qualityResult;
 
         for (FileObject fo : javaSource.getFileObjects()) {
-            Map<? extends Object, Collection<AuditEvent>> instanceMap = result.getInstanceByClass();
-            ClassKey classKey = new ClassKey(project, fo);
-            Collection<AuditEvent> auditEvents = instanceMap.get(classKey);
-
-            if (null != auditEvents) {
-                for (AuditEvent auditEvent : auditEvents) {
-                    try {
-                        Line line = getLineForRuleViolation(fo,
-                                auditEvent);
-                        annotate(auditEvent, line, project);
-                    } catch (RuntimeException rex) {
-                        ErrorManager.getDefault().notify(rex);
-                    }
-                }
+            annotateFile(result.getInstanceByFile().get(fo), fo, project, false);
+        }
+    }
+
+    @Override
+    public void updateAnnotations(Collection<JavaSource> javaSources,
+            Project project, QualityResult oldResult, QualityResult newResult) {
+        assert newResult instanceof CheckstyleResult : "Illegal session passed to AnnotationProcessor";
+
+        final CheckstyleResult result = (CheckstyleResult) newResult;
+
+        Set<FileObject> files = new HashSet<>();
+        for (JavaSource javaSource : javaSources) {
+            for (FileObject fo : javaSource.getFileObjects()) {
+                files.add(fo);
+                annotateFile(result.getInstanceByFile().get(fo), fo, project, true);
             }
         }
+        CheckstyleAnnotation.REGISTRY.clearAllExcept(project, files);
     }
 
     @Override
     public void clearAllAnnotations(Project project) {
         CheckstyleAnnotation.clearAll(project);
     }
+
+    /**
+     * Annotates the audit events not yet annotated in the file.
+     *
+     * @param removeFixed whether to remove the annotations of audit events no
+     * longer reported
+     */
+    private void annotateFile(Collection<AuditEvent> auditEvents, FileObject fileObject, Project project, boolean removeFixed) {
+        Map<String, AuditEvent> added = CheckstyleAnnotation.REGISTRY.update(project, fileObject, auditEvents,
+                AuditEventAnnotationProcessor::getFingerprint, removeFixed);
+        for (Map.Entry<String, AuditEvent> entry : added.entrySet()) {
+            try {
+                Line line = getLineForRuleViolation(fileObject, entry.getValue());
+                annotate(entry.getValue(), line, CheckstyleAnnotation.getNewInstance(project, fileObject, entry.getKey()));
+            } catch (RuntimeException rex) {
+                ErrorManager.getDefault().notify(rex);
+            }
+        }
+    }
+
+    private static String getFingerprint(AuditEvent auditEvent) {
+        return auditEvent.getSourceName() + ':' + auditEvent.getLine() + ':' + auditEvent.getColumn()
+                + ':' + auditEvent.getMessage();
+    }
 }
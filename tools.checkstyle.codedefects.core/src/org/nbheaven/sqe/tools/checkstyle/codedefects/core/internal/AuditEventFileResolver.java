@@ -0,0 +1,111 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.SourceGroup;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Resolves the file names checkstyle reports to file objects. The source
+ * roots of the project are looked up once and every file name is resolved
+ * only once, so resolving all events of a result costs one lookup per file.
+ *
+ * @author Sven Reimers
+ */
+public final class AuditEventFileResolver {
+
+    private final Project project;
+    private List<Root> roots;
+    private final Map<String, FileObject> files = new HashMap<>();
+
+    public AuditEventFileResolver(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * @return the file checkstyle reported as <code>fileName</code> or
+     * <code>null</code> if it cannot be found
+     */
+    public synchronized FileObject resolve(String fileName) {
+        if (files.containsKey(fileName)) {
+            return files.get(fileName);
+        }
+        FileObject file = lookup(fileName);
+        files.put(fileName, file);
+        return file;
+    }
+
+    private FileObject lookup(String fileName) {
+        for (Root root : getRoots()) {
+            if (fileName.startsWith(root.prefix)) {
+                String relativeName = stripInnerClass(fileName.substring(root.prefix.length()));
+                FileObject file = root.folder.getFileObject(relativeName.replace(File.separatorChar, '/'));
+                return null != file ? file : GlobalPathRegistry.getDefault().findResource(relativeName);
+            }
+        }
+        // com/ndsatcom/Schnulli.java
+        return GlobalPathRegistry.getDefault().findResource(stripInnerClass(fileName));
+    }
+
+    private static String stripInnerClass(String fileName) {
+        int index = fileName.indexOf('$');
+        return -1 != index ? fileName.substring(0, index) : fileName;
+    }
+
+    /**
+     * @return the source roots of the project, longest path first so nested
+     * roots win over their parents
+     */
+    private List<Root> getRoots() {
+        if (null == roots) {
+            List<Root> found = new ArrayList<>();
+            if (null != project) {
+                for (SourceGroup group : ProjectUtilities.getJavaSourceGroups(project)) {
+                    File folder = FileUtil.toFile(group.getRootFolder());
+                    if (null != folder) {
+                        found.add(new Root(folder.getAbsolutePath() + File.separatorChar, group.getRootFolder()));
+                    }
+                }
+            }
+            Collections.sort(found, (first, second) -> second.prefix.length() - first.prefix.length());
+            roots = found;
+        }
+        return roots;
+    }
+
+    private static final class Root {
+
+        private final String prefix;
+        private final FileObject folder;
+
+        Root(String prefix, FileObject folder) {
+            this.prefix = prefix;
+            this.folder = folder;
+        }
+    }
+}
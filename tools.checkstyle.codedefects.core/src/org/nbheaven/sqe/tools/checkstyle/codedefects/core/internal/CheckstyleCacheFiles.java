@@ -0,0 +1,195 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nbheaven.sqe.codedefects.core.util.Hashes;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.modules.Places;
+
+/**
+ * Places the checkstyle cache file, which lets checkstyle skip files that
+ * were unchanged and without errors in the last audit, in the cache
+ * directory of the project. Every configuration gets a file of its own, so
+ * scans of other projects or with other configurations do not overwrite it.
+ * Files not used for a while or exceeding the size limit are deleted.
+ *
+ * @author Sven Reimers
+ */
+final class CheckstyleCacheFiles {
+
+    private static final Logger LOG = Logger.getLogger(CheckstyleCacheFiles.class.getName());
+
+    static final String CACHE_FILE_PROPERTY = "checkstyle.cache.file";     //NOI18N
+
+    /**
+     * The key checkstyle stores the hash of the configuration under, the
+     * cache is discarded once it changes.
+     */
+    private static final String CONFIGURATION_HASH_KEY = "configuration*?";     //NOI18N
+
+    private static final String PREFIX = "checkstyle-";     //NOI18N
+    private static final String SUFFIX = ".cache";     //NOI18N
+
+    /**
+     * Cache files of a project not used for this long are deleted.
+     */
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The cache files of a project are limited to this size in total, the
+     * least recently used ones are deleted first.
+     */
+    private static final long MAX_TOTAL_SIZE = 8L * 1024 * 1024;
+
+    private static volatile boolean legacyCacheFileDeleted;
+
+    private CheckstyleCacheFiles() {
+    }
+
+    /**
+     * @param properties the properties the configuration is expanded with,
+     * without the cache file property
+     * @return the cache file to use
+     */
+    static File getCacheFile(Project project, CheckstyleConfigurationCache.Source source, Properties properties) {
+        deleteLegacyCacheFile();
+        File cacheDirectory = null;
+        try {
+            FileObject directory = ProjectUtils.getCacheDirectory(project, CheckstyleCacheFiles.class);
+            cacheDirectory = FileUtil.toFile(directory);
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "No cache directory for " + ProjectUtils.getInformation(project).getName(), ex);     //NOI18N
+        }
+        if (null == cacheDirectory) {
+            // still apart from other configurations
+            cacheDirectory = Places.getCacheSubdirectory("checkstyle");     //NOI18N
+        }
+        File cacheFile = new File(cacheDirectory, PREFIX + fingerprint(source, properties) + SUFFIX);
+        cleanUp(cacheDirectory, cacheFile);
+        return cacheFile;
+    }
+
+    /**
+     * @return the entries of the cache file, empty if there is none
+     */
+    static Properties load(File cacheFile) {
+        Properties entries = new Properties();
+        if (null != cacheFile && cacheFile.isFile()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(cacheFile))) {
+                entries.load(in);
+            } catch (IOException | IllegalArgumentException ex) {
+                LOG.log(Level.FINE, "Could not read checkstyle cache " + cacheFile, ex);     //NOI18N
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Counts the files checkstyle skipped in an audit. A file is skipped if
+     * it was cached unchanged before the audit and the cache was not
+     * discarded for a changed configuration.
+     *
+     * @param before the cache entries before the audit
+     * @param after the cache entries after the audit
+     * @return the number of files not audited again
+     */
+    static int countCacheHits(Properties before, Properties after, Collection<File> files) {
+        String configurationHash = before.getProperty(CONFIGURATION_HASH_KEY);
+        if (null == configurationHash || !configurationHash.equals(after.getProperty(CONFIGURATION_HASH_KEY))) {
+            return 0;
+        }
+        int hits = 0;
+        for (File file : files) {
+            if (Long.toString(file.lastModified()).equals(before.getProperty(file.getPath()))) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private static String fingerprint(CheckstyleConfigurationCache.Source source, Properties properties) {
+        // checkstyle itself invalidates the cache once the configuration
+        // contents change, so the origin of the configuration is enough
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            sorted.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        sorted.remove(CACHE_FILE_PROPERTY);
+        StringBuilder sb = new StringBuilder(source.getId());
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            sb.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return Hashes.sha1(sb.toString());
+    }
+
+    private static void cleanUp(File cacheDirectory, File current) {
+        File[] cacheFiles = cacheDirectory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (null == cacheFiles) {
+            return;
+        }
+        Arrays.sort(cacheFiles, Comparator.comparingLong(File::lastModified).reversed());
+        long now = System.currentTimeMillis();
+        long totalSize = current.length();
+        for (File cacheFile : cacheFiles) {
+            if (cacheFile.equals(current)) {
+                continue;
+            }
+            if (now - cacheFile.lastModified() > MAX_AGE || totalSize + cacheFile.length() > MAX_TOTAL_SIZE) {
+                if (!cacheFile.delete()) {
+                    LOG.log(Level.FINE, "Could not delete checkstyle cache {0}", cacheFile);     //NOI18N
+                }
+            } else {
+                totalSize += cacheFile.length();
+            }
+        }
+    }
+
+    /**
+     * Removes the cache file formerly shared by all projects.
+     */
+    private static void deleteLegacyCacheFile() {
+        if (legacyCacheFileDeleted) {
+            return;
+        }
+        legacyCacheFileDeleted = true;
+        File userDirectory = Places.getUserDirectory();
+        if (null == userDirectory) {
+            return;
+        }
+        File legacyCacheFile = new File(userDirectory, "cache" + File.separatorChar + "checkstyle");     //NOI18N
+        if (legacyCacheFile.isFile() && !legacyCacheFile.delete()) {
+            LOG.log(Level.FINE, "Could not delete checkstyle cache {0}", legacyCacheFile);     //NOI18N
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
+import com.puppycrawl.tools.checkstyle.PropertiesExpander;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.filesystems.FileObject;
+import org.xml.sax.InputSource;
+
+/**
+ * Keeps parsed checkstyle configurations together with a small pool of
+ * checkers configured from them, so repeated scans do not have to parse the
+ * configuration and instantiate all checks again. An entry is keyed by the
+ * configuration source, its version (last modified date or ETag) and the
+ * properties used to expand it, so projects expanding the same source with
+ * other properties keep entries of their own.
+ *
+ * @author Sven Reimers
+ */
+final class CheckstyleConfigurationCache {
+
+    private static final Logger LOG = Logger.getLogger(CheckstyleConfigurationCache.class.getName());
+
+    static final CheckstyleConfigurationCache INSTANCE = new CheckstyleConfigurationCache();
+
+    /**
+     * Maximum number of idle checkers kept per configuration.
+     */
+    private static final int MAX_IDLE_CHECKERS = 3;
+
+    /**
+     * Remote configurations are asked for their version at most this often.
+     */
+    private static final long URL_REVALIDATION_INTERVAL = 60 * 1000;
+
+    /**
+     * Maximum number of configurations kept, the least recently used one is
+     * dropped first.
+     */
+    private static final int MAX_ENTRIES = 16;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > MAX_ENTRIES) {
+                eldest.getValue().dispose();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private CheckstyleConfigurationCache() {
+    }
+
+    /**
+     * Hands out a checker configured from the given source. The caller has
+     * exclusive use of the checker until {@link PooledChecker#release()} is
+     * called.
+     */
+    PooledChecker acquire(Source source, Properties properties) throws CheckstyleException, IOException {
+        Entry entry = getEntry(source, properties);
+        SnapshotChecker checker = entry.idleCheckers.poll();
+        if (null == checker) {
+            checker = entry.createChecker();
+        }
+        return new PooledChecker(entry, checker);
+    }
+
+    private synchronized Entry getEntry(Source source, Properties properties) throws CheckstyleException, IOException {
+        Key key = new Key(source.getId(), new HashMap<>(properties));
+        Entry entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (null != entry && now - entry.validated < source.getRevalidationInterval()) {
+            return entry;
+        }
+        // only the latest version of a source is kept per properties
+        String version = source.getVersion();
+        if (null != entry && null != version && version.equals(entry.version)) {
+            entry.validated = now;
+            return entry;
+        }
+        LOG.log(Level.FINE, "Loading checkstyle configuration {0}", source.getId());     //NOI18N
+        Configuration configuration;
+        try (InputStream istream = source.openStream()) {
+            configuration = ConfigurationLoader.loadConfiguration(new InputSource(istream),
+                    new PropertiesExpander(properties), true);
+        }
+        Entry loaded = new Entry(version, configuration, now);
+        entries.put(key, loaded);
+        if (null != entry) {
+            entry.dispose();
+        }
+        return loaded;
+    }
+
+    /**
+     * Drops all cached configurations and their idle checkers.
+     */
+    synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.dispose();
+        }
+        entries.clear();
+    }
+
+    private static final class Key {
+
+        private final String sourceId;
+        private final Map<Object, Object> properties;
+
+        private Key(String sourceId, Map<Object, Object> properties) {
+            this.sourceId = sourceId;
+            this.properties = properties;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sourceId.equals(other.sourceId) && properties.equals(other.properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sourceId.hashCode() + properties.hashCode();
+        }
+    }
+
+    /**
+     * A checker borrowed from the cache.
+     */
+    static final class PooledChecker {
+
+        private final Entry entry;
+        private final SnapshotChecker checker;
+
+        private PooledChecker(Entry entry, SnapshotChecker checker) {
+            this.entry = entry;
+            this.checker = checker;
+        }
+
+        SnapshotChecker getChecker() {
+            return checker;
+        }
+
+        /**
+         * Returns the checker to the pool. Listeners added by the caller have
+         * to be removed before.
+         */
+        void release() {
+            entry.release(checker);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String version;
+        private final Configuration configuration;
+        private final Queue<SnapshotChecker> idleCheckers = new ConcurrentLinkedQueue<>();
+        private volatile long validated;
+        private volatile boolean disposed;
+
+        private Entry(String version, Configuration configuration, long validated) {
+            this.version = version;
+            this.configuration = configuration;
+            this.validated = validated;
+        }
+
+        private SnapshotChecker createChecker() throws CheckstyleException {
+            SnapshotChecker checker = new SnapshotChecker();
+            checker.setModuleClassLoader(Checker.class.getClassLoader());
+            checker.configure(configuration);
+            return checker;
+        }
+
+        private void release(SnapshotChecker checker) {
+            if (!disposed && idleCheckers.size() < MAX_IDLE_CHECKERS) {
+                idleCheckers.offer(checker);
+                // dispose() may have drained the pool in the meantime
+                if (disposed && idleCheckers.remove(checker)) {
+                    checker.destroy();
+                }
+            } else {
+                checker.destroy();
+            }
+        }
+
+        private void dispose() {
+            disposed = true;
+            SnapshotChecker checker;
+            while (null != (checker = idleCheckers.poll())) {
+                checker.destroy();
+            }
+        }
+    }
+
+    /**
+     * Where a checkstyle configuration is read from.
+     */
+    abstract static class Source {
+
+        static Source forFile(final FileObject file) {
+            return new Source() {
+
+                @Override
+                String getId() {
+                    return file.toURL().toExternalForm();
+                }
+
+                @Override
+                String getVersion() {
+                    return Long.toString(file.lastModified().getTime()) + '/' + file.getSize();
+                }
+
+                @Override
+                long getRevalidationInterval() {
+                    return 0;
+                }
+
+                @Override
+                InputStream openStream() throws IOException {
+                    return file.getInputStream();
+                }
+            };
+        }
+
+        static Source forURL(final URL url) {
+            return new Source() {
+
+                @Override
+                String getId() {
+                    return url.toExternalForm();
+                }
+
+                @Override
+                String getVersion() {
+                    try {
+                        URLConnection connection = url.openConnection();
+                        if (connection instanceof HttpURLConnection) {
+                            ((HttpURLConnection) connection).setRequestMethod("HEAD");     //NOI18N
+                        }
+                        try {
+                            String etag = connection.getHeaderField("ETag");     //NOI18N
+                            if (null != etag) {
+                                return etag;
+                            }
+                            long lastModified = connection.getLastModified();
+                            return 0 == lastModified ? null : Long.toString(lastModified);
+                        } finally {
+                            if (connection instanceof HttpURLConnection) {
+                                ((HttpURLConnection) connection).disconnect();
+                            } else {
+                                connection.getInputStream().close();
+                            }
+                        }
+                    } catch (IOException ex) {
+                        // unknown version, forces a reload which reports the real problem
+                        LOG.log(Level.FINE, "Could not determine version of " + url, ex);     //NOI18N
+                        return null;
+                    }
+                }
+
+                @Override
+                long getRevalidationInterval() {
+                    return URL_REVALIDATION_INTERVAL;
+                }
+
+                @Override
+                InputStream openStream() throws IOException {
+                    return url.openStream();
+                }
+            };
+        }
+
+        abstract String getId();
+
+        /**
+         * @return a version tag of the configuration or <code>null</code> if
+         * unknown, which means the configuration has to be loaded again
+         */
+        abstract String getVersion();
+
+        abstract long getRevalidationInterval();
+
+        abstract InputStream openStream() throws IOException;
+    }
+}
@@ -40,4 +40,9 @@ final class CheckstyleFileScannerJob extends CheckstyleScannerJob {
     protected void executeCheckstyle() {
         executeCheckstyle(fileObjects);
     }
+
+    @Override
+    protected Object getCoalescingKey() {
+        return 1 == fileObjects.size() ? fileObjects.get(0) : fileObjects;
+    }
 }
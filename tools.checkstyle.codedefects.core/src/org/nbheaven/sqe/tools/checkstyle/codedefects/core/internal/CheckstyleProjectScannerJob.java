@@ -18,8 +18,8 @@
 package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
 
 import java.util.Collection;
-import org.nbheaven.sqe.core.java.utils.FileObjectUtilities;
 import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
+import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult;
 import org.netbeans.api.project.SourceGroup;
 import org.openide.filesystems.FileObject;
 
@@ -38,17 +38,24 @@ final class CheckstyleProjectScannerJob extends CheckstyleScannerJob {
 
     @Override
     protected void executeCheckstyle() {
+        session.scanStartedInternal();
         SourceGroup[] groups = ProjectUtilities.getJavaSourceGroups(getProject());
         for (SourceGroup g : groups) {
+            if (isCancelled()) {
+                return;
+            }
             FileObject rootOfSourceFolder = g.getRootFolder();
-            Collection<FileObject> fullList = FileObjectUtilities.collectAllJavaSourceFiles(rootOfSourceFolder);
+            Collection<FileObject> fullList = getSourceSnapshot().getJavaSourceFiles(rootOfSourceFolder);
             executeCheckstyle(fullList);
         }
     }
 
     @Override
     protected final void postScan() {
-        session.setResultInternal(getCheckstyleResult());
+        CheckstyleResult result = getCheckstyleResult();
+        if (null != result) {
+            session.setResultInternal(result);
+        }
         super.postScan();
         session.scanningDone();
     }
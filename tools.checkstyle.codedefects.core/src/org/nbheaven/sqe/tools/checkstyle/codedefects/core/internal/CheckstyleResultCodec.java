@@ -0,0 +1,133 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.LocalizedMessage;
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import org.nbheaven.sqe.codedefects.core.spi.QualityResultStore;
+import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult;
+import org.nbheaven.sqe.tools.checkstyle.codedefects.core.settings.CheckstyleSettings;
+import org.netbeans.api.project.Project;
+
+/**
+ * Stores checkstyle project results as plain audit event data. The message
+ * is kept as already formatted text, so restoring does not depend on the
+ * message bundles of the checks.
+ *
+ * @author Sven Reimers
+ */
+final class CheckstyleResultCodec implements QualityResultStore.Codec<CheckstyleResult> {
+
+    private final Project project;
+
+    CheckstyleResultCodec(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getSettingsFingerprint() {
+        CheckstyleSettings checkstyleSettings = CheckstyleScannerJob.findSettings(project);
+        CheckstyleConfigurationCache.Source source = CheckstyleScannerJob.findConfigurationSource(checkstyleSettings);
+        if (null == source) {
+            return null;
+        }
+        String version = source.getVersion();
+        if (null == version) {
+            return null;
+        }
+        Properties properties = null != checkstyleSettings ? checkstyleSettings.getProperties() : System.getProperties();
+        Map<String, String> sortedProperties = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            sortedProperties.put(name, properties.getProperty(name));
+        }
+        // defaults filled in by the scanner itself
+        sortedProperties.remove("checkstyle.cache.file");     //NOI18N
+        sortedProperties.remove("checkstyle.header.file");     //NOI18N
+        return source.getId() + '@' + version + sortedProperties;
+    }
+
+    @Override
+    public void write(CheckstyleResult result, DataOutputStream out) throws IOException {
+        Collection<AuditEvent> auditEvents = ((CheckstyleResultImpl) result).getAuditEvents();
+        out.writeInt(auditEvents.size());
+        for (AuditEvent auditEvent : auditEvents) {
+            LocalizedMessage message = auditEvent.getLocalizedMessage();
+            out.writeUTF(auditEvent.getFileName());
+            out.writeInt(auditEvent.getLine());
+            out.writeInt(auditEvent.getColumn());
+            out.writeUTF(auditEvent.getSeverityLevel().getName());
+            out.writeUTF(nonNull(auditEvent.getModuleId()));
+            out.writeUTF(auditEvent.getSourceName());
+            out.writeUTF(nonNull(message.getKey()));
+            out.writeUTF(nonNull(auditEvent.getMessage()));
+        }
+    }
+
+    @Override
+    public CheckstyleResult read(DataInputStream in) throws IOException {
+        CheckstyleResultImpl result = new CheckstyleResultImpl(project);
+        Map<String, Class<?>> sourceClasses = new HashMap<>();
+        int eventCount = in.readInt();
+        for (int i = 0; i < eventCount; i++) {
+            String fileName = in.readUTF();
+            int line = in.readInt();
+            int column = in.readInt();
+            SeverityLevel severity = SeverityLevel.getInstance(in.readUTF());
+            String moduleId = in.readUTF();
+            String sourceName = in.readUTF();
+            String key = in.readUTF();
+            String text = in.readUTF();
+            Class<?> sourceClass = sourceClasses.get(sourceName);
+            if (null == sourceClass) {
+                try {
+                    sourceClass = Class.forName(sourceName, false, Checker.class.getClassLoader());
+                } catch (ClassNotFoundException ex) {
+                    // check no longer available, scan again
+                    return null;
+                }
+                sourceClasses.put(sourceName, sourceClass);
+            }
+            LocalizedMessage message = new LocalizedMessage(line, column, null, key, null, severity,
+                    moduleId.isEmpty() ? null : moduleId, sourceClass, escape(text));
+            result.addError(new AuditEvent(result, fileName, message));
+        }
+        return result;
+    }
+
+    /**
+     * Custom messages are run through MessageFormat, so quotes and braces
+     * of the already formatted text have to be quoted.
+     */
+    private static String escape(String text) {
+        return text.replace("'", "''").replace("{", "'{'").replace("}", "'}'");     //NOI18N
+    }
+
+    private static String nonNull(String value) {
+        return null == value ? "" : value;
+    }
+}
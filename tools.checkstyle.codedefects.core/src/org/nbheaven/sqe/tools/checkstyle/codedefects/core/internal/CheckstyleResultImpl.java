@@ -18,8 +18,11 @@
 package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
 
 import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TreeMap;
@@ -28,7 +31,7 @@ import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult.CategoryKey;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult.ClassKey;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult.PackageKey;
-import org.nbheaven.sqe.tools.checkstyle.codedefects.core.annotations.AuditEventAnnotationProcessor;
+import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.project.Project;
 import org.openide.filesystems.FileObject;
 import org.openide.util.Lookup;
@@ -45,11 +48,15 @@ public final class CheckstyleResultImpl implements CheckstyleResult {
     private Map<ClassKey, Collection<AuditEvent>> instanceByClass;
     private Map<CategoryKey, Collection<AuditEvent>> instanceByType;
     private Map<PackageKey, Collection<AuditEvent>> instanceByPackage;
+    private Map<FileObject, Collection<AuditEvent>> instanceByFile;
 //    private Map<Object, List<RuleViolation>> instanceByType = null;
     private long bugCount = 0;
 //    private Report report;
     private final Lookup lookup;
     private final Project project;
+    private final AuditEventFileResolver fileResolver;
+    private ProgressHandle progressHandle;
+    private int finishedFiles;
 
     /**
      * Creates a new instance of CheckstyleResult
@@ -57,6 +64,16 @@ public final class CheckstyleResultImpl implements CheckstyleResult {
     public CheckstyleResultImpl(Project project) {
         lookup = Lookups.fixed(new Object[]{this});
         this.project = project;
+        this.fileResolver = new AuditEventFileResolver(project);
+    }
+
+    /**
+     * Report file progress of a running scan to the given handle, pass null
+     * once the scan is done.
+     */
+    void setProgressHandle(ProgressHandle progressHandle) {
+        this.progressHandle = progressHandle;
+        this.finishedFiles = 0;
     }
 
     @Override
@@ -81,27 +98,43 @@ public final class CheckstyleResultImpl implements CheckstyleResult {
     }
 
     @Override
-    public Map<ClassKey, Collection<AuditEvent>> getInstanceByClass() {
+    public synchronized Map<ClassKey, Collection<AuditEvent>> getInstanceByClass() {
         if (null == instanceByClass) {
             instanceByClass = new TreeMap<>();
-            for (AuditEvent auditEvent : auditEvents) {
-                if (auditEvent.getFileName().endsWith(".java")) {
-                    FileObject file = AuditEventAnnotationProcessor.getFileObjectForAuditEvent(auditEvent, project);
-                    if (file != null) {
-                        ClassKey key = new ClassKey(project, file);
-                        Collection<AuditEvent> events = instanceByClass.get(key);
-                        if (null == events) {
-                            events = new ArrayList<>();
-                            instanceByClass.put(key, events);
-                        }
-                        events.add(auditEvent);
+            for (Map.Entry<FileObject, Collection<AuditEvent>> entry : getInstanceByFile().entrySet()) {
+                if ("java".equals(entry.getKey().getExt())) {
+                    ClassKey key = new ClassKey(project, entry.getKey());
+                    Collection<AuditEvent> events = instanceByClass.get(key);
+                    if (null == events) {
+                        events = new ArrayList<>();
+                        instanceByClass.put(key, events);
                     }
+                    events.addAll(entry.getValue());
                 }
             }
         }
         return instanceByClass;
     }
 
+    @Override
+    public synchronized Map<FileObject, Collection<AuditEvent>> getInstanceByFile() {
+        if (null == instanceByFile) {
+            instanceByFile = new HashMap<>();
+            for (AuditEvent auditEvent : auditEvents) {
+                FileObject file = fileResolver.resolve(auditEvent.getFileName());
+                if (null != file) {
+                    Collection<AuditEvent> events = instanceByFile.get(file);
+                    if (null == events) {
+                        events = new ArrayList<>();
+                        instanceByFile.put(file, events);
+                    }
+                    events.add(auditEvent);
+                }
+            }
+        }
+        return instanceByFile;
+    }
+
     @Override
     public Map<PackageKey, Collection<AuditEvent>> getInstanceByPackage() {
         if (null == instanceByPackage) {
@@ -144,6 +177,13 @@ public final class CheckstyleResultImpl implements CheckstyleResult {
         return bugCount;
     }
 
+    /**
+     * @return all errors reported to this result
+     */
+    Collection<AuditEvent> getAuditEvents() {
+        return Collections.unmodifiableCollection(auditEvents);
+    }
+
     @Override
     public void addError(AuditEvent aEvt) {
 //        System.out.println("error" + aEvt.getFileName() + ":" + aEvt.getLine() + "@" + aEvt.getColumn() + " Msg: " + aEvt.getMessage() + " Source: " + aEvt.getSourceName());
@@ -169,12 +209,16 @@ public final class CheckstyleResultImpl implements CheckstyleResult {
 
     @Override
     public void fileFinished(AuditEvent aEvt) {
-//        System.out.println("file finished" + aEvt);
+        if (null != progressHandle) {
+            progressHandle.progress(++finishedFiles);
+        }
     }
 
     @Override
     public void fileStarted(AuditEvent aEvt) {
-//        System.out.println("file started" + aEvt);
+        if (null != progressHandle) {
+            progressHandle.progress("Scanning " + new File(aEvt.getFileName()).getName());
+        }
     }
 
     @Override
@@ -197,4 +241,14 @@ public final class CheckstyleResultImpl implements CheckstyleResult {
         return 0;
     }
 
+    @Override
+    public void report(Reporter reporter) {
+        for (Map.Entry<FileObject, Collection<AuditEvent>> entry : getInstanceByFile().entrySet()) {
+            for (AuditEvent auditEvent : entry.getValue()) {
+                reporter.codeDefect(entry.getKey(), auditEvent.getLine(), CodeDefectSeverity.INFO,
+                        auditEvent.getSourceName(), auditEvent.getMessage());
+            }
+        }
+    }
+
 }
@@ -18,20 +18,26 @@
 package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
 
 import com.puppycrawl.tools.checkstyle.Checker;
-import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
-import com.puppycrawl.tools.checkstyle.PropertiesExpander;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.AuditListener;
 import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
-import com.puppycrawl.tools.checkstyle.api.Configuration;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.Reader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.nbheaven.sqe.codedefects.core.spi.SQECodedefectScanner;
+import org.nbheaven.sqe.codedefects.core.spi.SourceSnapshot;
+import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleQualityProvider;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.settings.CheckstyleSettings;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.settings.CheckstyleSettingsProvider;
@@ -39,10 +45,8 @@ import org.nbheaven.sqe.tools.checkstyle.codedefects.core.settings.impl.GlobalCh
 import org.netbeans.api.project.Project;
 import org.netbeans.api.project.ProjectUtils;
 import org.openide.filesystems.FileObject;
-import org.openide.modules.Places;
 import org.openide.util.Exceptions;
 import org.openide.util.Utilities;
-import org.xml.sax.InputSource;
 
 /**
  *
@@ -50,9 +54,14 @@ import org.xml.sax.InputSource;
  */
 abstract class CheckstyleScannerJob extends SQECodedefectScanner.Job {
 
+    private static final Logger LOG = Logger.getLogger(CheckstyleScannerJob.class.getName());
+
     private final Project project;
-    private Checker checker;
+    private CheckstyleConfigurationCache.PooledChecker checker;
+    private File cacheFile;
+    private CheckstyleResultImpl runningResult;
     private CheckstyleResultImpl checkstyleResult;
+    private SourceSnapshot sourceSnapshot;
 
     CheckstyleScannerJob(Project project) {
         this.project = project;
@@ -63,129 +72,239 @@ abstract class CheckstyleScannerJob extends SQECodedefectScanner.Job {
         return "Checkstyle scanning " + ProjectUtils.getInformation(getProject()).getName();
     }
 
+    @Override
+    protected String getProviderId() {
+        return CheckstyleQualityProvider.getDefault().getId();
+    }
+
     protected final Project getProject() {
         return project;
     }
 
+    /**
+     * @return the result or <code>null</code> if the job was cancelled
+     */
     protected final CheckstyleResult getCheckstyleResult() {
-        return checkstyleResult;
+        return isCancelled() ? null : checkstyleResult;
+    }
+
+    /**
+     * @return the sources shared with the other jobs scanning the project
+     */
+    protected final SourceSnapshot getSourceSnapshot() {
+        return sourceSnapshot;
     }
 
     private final void init() {
         // #170426 workaround - this call to project lookup must happen with the default CCL
-        CheckstyleSettingsProvider settingsProvider = getProject().getLookup().lookup(CheckstyleSettingsProvider.class);
+        CheckstyleSettings checkstyleSettings = findSettings(getProject());
         ClassLoader oldLoader = Thread.currentThread().getContextClassLoader();
-        InputStream istream = null;
         try {
             Thread.currentThread().setContextClassLoader(Checker.class.getClassLoader());
-            checker = new Checker();
-            FileObject checkStyleConfigFile = null;
-            URL checkStyleConfigURL = null;
-            Properties properties = System.getProperties();
-            if (settingsProvider != null) {
-                CheckstyleSettings checkstyleSettings = settingsProvider.getCheckstyleSettings();
-                if (checkstyleSettings != null) {
-                    checkStyleConfigFile = checkstyleSettings.getCheckstyleConfigurationFile();
-                    checkStyleConfigURL = checkstyleSettings.getCheckstyleConfigurationURL();
-                    properties = checkstyleSettings.getProperties();
-                }
-            }
-            if (null != checkStyleConfigFile && checkStyleConfigFile.isData()) {
-                istream = checkStyleConfigFile.getInputStream();
-            } else if (null != checkStyleConfigURL) {
-                istream = checkStyleConfigURL.openStream();
-            } else {
-                FileObject global = GlobalCheckstyleSettings.INSTANCE.getCheckstyleConfigurationFile();
-                if (global != null && global.isData()) {
-                    istream = global.getInputStream();
-                } else {
-                    return;
-                }
+            // copied, the cache file depends on the project
+            Properties properties = new Properties();
+            properties.putAll(null != checkstyleSettings ? checkstyleSettings.getProperties() : System.getProperties());
+            CheckstyleConfigurationCache.Source source = findConfigurationSource(checkstyleSettings);
+            if (null == source) {
+                return;
             }
 
             // compensate for bad configuration
-            if (!properties.containsKey("checkstyle.cache.file")) {
-                properties.put("checkstyle.cache.file",
-                        Places.getUserDirectory().getAbsolutePath() + File.separatorChar +
-                        "cache" + File.separatorChar + "checkstyle");
-            }
             if (!properties.containsKey("checkstyle.header.file")) {
                 properties.put("checkstyle.header.file", "");
             }
 
             try {
-                Configuration config = ConfigurationLoader.loadConfiguration(istream,
-                        new PropertiesExpander(properties), true);
-                checker.setModuleClassLoader(Checker.class.getClassLoader());
-                checker.configure(config);
+                checker = CheckstyleConfigurationCache.INSTANCE.acquire(source, withCacheFile(source, properties));
             } catch (CheckstyleException ce) {
                 // Fallback better exception handling necessary
-                checkStyleConfigFile = GlobalCheckstyleSettings.INSTANCE.getCheckstyleConfigurationFile();
+                FileObject checkStyleConfigFile = GlobalCheckstyleSettings.INSTANCE.getCheckstyleConfigurationFile();
                 if (checkStyleConfigFile == null) {
                     return;
                 }
-                InputSource inputSource = new InputSource(checkStyleConfigFile.getInputStream());
-                properties = GlobalCheckstyleSettings.INSTANCE.getProperties();
-                Configuration config = ConfigurationLoader.loadConfiguration(inputSource,
-                        new PropertiesExpander(properties), true);
-                checker.setModuleClassLoader(Checker.class.getClassLoader());
-                checker.configure(config);
+                CheckstyleConfigurationCache.Source fallback = CheckstyleConfigurationCache.Source.forFile(checkStyleConfigFile);
+                Properties fallbackProperties = new Properties();
+                fallbackProperties.putAll(GlobalCheckstyleSettings.INSTANCE.getProperties());
+                checker = CheckstyleConfigurationCache.INSTANCE.acquire(fallback, withCacheFile(fallback, fallbackProperties));
             }
         } catch (CheckstyleException | IOException ex) {
             Exceptions.printStackTrace(ex);
         } finally {
-            if (null != istream) {
-                try {
-                    istream.close();
-                } catch (IOException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
-            }
             Thread.currentThread().setContextClassLoader(oldLoader);
         }
     }
 
+    /**
+     * Points the cache file property to the cache of the project and the
+     * configuration unless it is configured explicitly.
+     */
+    private Properties withCacheFile(CheckstyleConfigurationCache.Source source, Properties properties) {
+        if (!properties.containsKey(CheckstyleCacheFiles.CACHE_FILE_PROPERTY)) {
+            File projectCacheFile = CheckstyleCacheFiles.getCacheFile(getProject(), source, properties);
+            properties.put(CheckstyleCacheFiles.CACHE_FILE_PROPERTY, projectCacheFile.getAbsolutePath());
+        }
+        cacheFile = new File(properties.getProperty(CheckstyleCacheFiles.CACHE_FILE_PROPERTY));
+        return properties;
+    }
+
+    /**
+     * @return the checkstyle settings of the project or <code>null</code> if
+     * the global settings apply
+     */
+    static CheckstyleSettings findSettings(Project project) {
+        CheckstyleSettingsProvider settingsProvider = project.getLookup().lookup(CheckstyleSettingsProvider.class);
+        return null != settingsProvider ? settingsProvider.getCheckstyleSettings() : null;
+    }
+
+    /**
+     * @return where the configuration for the given settings is read from,
+     * or <code>null</code> if there is no usable configuration at all
+     */
+    static CheckstyleConfigurationCache.Source findConfigurationSource(CheckstyleSettings checkstyleSettings) {
+        if (null != checkstyleSettings) {
+            FileObject checkStyleConfigFile = checkstyleSettings.getCheckstyleConfigurationFile();
+            if (null != checkStyleConfigFile && checkStyleConfigFile.isData()) {
+                return CheckstyleConfigurationCache.Source.forFile(checkStyleConfigFile);
+            }
+            URL checkStyleConfigURL = checkstyleSettings.getCheckstyleConfigurationURL();
+            if (null != checkStyleConfigURL) {
+                return CheckstyleConfigurationCache.Source.forURL(checkStyleConfigURL);
+            }
+        }
+        FileObject global = GlobalCheckstyleSettings.INSTANCE.getCheckstyleConfigurationFile();
+        if (global != null && global.isData()) {
+            return CheckstyleConfigurationCache.Source.forFile(global);
+        }
+        return null;
+    }
+
     @Override
     protected final void scan() {
         getProgressHandle().progress("Setting up Checkstyle");
         init();
-        CheckstyleResultImpl internalResult = new CheckstyleResultImpl(getProject());
-        checker.addListener(internalResult);
-        executeCheckstyle();
-        checkstyleResult = internalResult;
+        runningResult = new CheckstyleResultImpl(getProject());
+        if (null != checker) {
+            checker.getChecker().addListener(runningResult);
+            sourceSnapshot = SourceSnapshot.acquire(getProject());
+            try {
+                executeCheckstyle();
+            } finally {
+                sourceSnapshot.release();
+                sourceSnapshot = null;
+                checker.getChecker().removeListener(runningResult);
+                checker.release();
+                checker = null;
+            }
+        }
+        runningResult.setProgressHandle(null);
+        checkstyleResult = runningResult;
     }
 
     protected abstract void executeCheckstyle();
 
     protected final void executeCheckstyle(Collection<FileObject> fullList) {
-
         getProgressHandle().switchToDeterminate(fullList.size());
-        List<File> files = new ArrayList<File>(1);
-
-        int i = 0;
+        runningResult.setProgressHandle(getProgressHandle());
 
+        List<File> files = new ArrayList<>(fullList.size());
+        Map<File, FileObject> fileObjects = new HashMap<>();
         for (FileObject fo : fullList) {
-            Reader reader = null;
+            File file = Utilities.toFile(fo.toURI());
+            files.add(file);
+            fileObjects.put(file, fo);
+        }
+        // checkstyle reports skipped files as started and finished as well
+        Properties cachedBefore = CheckstyleCacheFiles.load(cacheFile);
+        checker.getChecker().setSourceSnapshot(sourceSnapshot, fileObjects);
+        try {
+            process(checker.getChecker(), files, GlobalCheckstyleSettings.INSTANCE.getScannerBatchSize(), this::isCancelled);
+        } finally {
+            checker.getChecker().clearSourceSnapshot();
+        }
+        if (!isCancelled() && !files.isEmpty()) {
+            int hits = CheckstyleCacheFiles.countCacheHits(cachedBefore, CheckstyleCacheFiles.load(cacheFile), files);
+            LOG.log(Level.FINE, "Checkstyle cache hits: {0} of {1} files ({2}%)",     //NOI18N
+                    new Object[]{hits, files.size(), hits * 100 / files.size()});
+        }
+    }
 
-            try {
-                getProgressHandle().progress(i++);
-                getProgressHandle().progress("Scanning " + fo.getName());
-
-                files.add(Utilities.toFile(fo.toURI()));
-                checker.process(files);
-                files.clear();
-                getProgressHandle().progress("Looking for next file");
-            } catch (CheckstyleException ex) {
-                //TODO Add better execption handling
-                Exceptions.printStackTrace(ex);
-            } finally {
-                if (null != reader) {
-                    try {
-                        reader.close();
-                    } catch (IOException ioex) {
+    /**
+     * Hands the files to the checker in chunks of <code>batchSize</code>
+     * files. Every call to {@link Checker#process(java.util.List)} starts a
+     * new audit and persists the checkstyle cache, so larger chunks save that
+     * work per file. If a chunk fails, the files of it not finished before
+     * the failure are retried file by file.
+     */
+    static void process(Checker checker, List<File> files, int batchSize) {
+        process(checker, files, batchSize, () -> false);
+    }
+
+    /**
+     * Like {@link #process(Checker, List, int)} but stops before the next
+     * chunk once <code>cancelled</code> returns true.
+     */
+    static void process(Checker checker, List<File> files, int batchSize, BooleanSupplier cancelled) {
+        int chunkSize = Math.max(1, batchSize);
+        FinishedFiles finishedFiles = new FinishedFiles();
+        checker.addListener(finishedFiles);
+        try {
+            for (int from = 0; from < files.size() && !cancelled.getAsBoolean(); from += chunkSize) {
+                List<File> chunk = files.subList(from, Math.min(files.size(), from + chunkSize));
+                finishedFiles.names.clear();
+                try {
+                    checker.process(chunk);
+                } catch (CheckstyleException ex) {
+                    if (chunk.size() == 1) {
+                        //TODO Add better execption handling
+                        Exceptions.printStackTrace(ex);
+                    } else {
+                        // events of the finished files were reported already
+                        LOG.log(Level.FINE, "Checkstyle failed on a chunk of files, retrying the unfinished ones one by one", ex);     //NOI18N
+                        List<File> unfinished = new ArrayList<>();
+                        for (File file : chunk) {
+                            if (!finishedFiles.names.contains(file.getAbsolutePath())) {
+                                unfinished.add(file);
+                            }
+                        }
+                        process(checker, unfinished, 1, cancelled);
                     }
                 }
             }
+        } finally {
+            checker.removeListener(finishedFiles);
+        }
+    }
+
+    /**
+     * Remembers the files of a chunk checkstyle has reported completely.
+     */
+    private static final class FinishedFiles implements AuditListener {
+
+        private final Set<String> names = new HashSet<>();
+
+        @Override
+        public void fileFinished(AuditEvent aEvt) {
+            names.add(aEvt.getFileName());
+        }
+
+        @Override
+        public void auditStarted(AuditEvent aEvt) {
+        }
+
+        @Override
+        public void auditFinished(AuditEvent aEvt) {
+        }
+
+        @Override
+        public void fileStarted(AuditEvent aEvt) {
+        }
+
+        @Override
+        public void addError(AuditEvent aEvt) {
+        }
+
+        @Override
+        public void addException(AuditEvent aEvt, Throwable aThrowable) {
         }
     }
 }
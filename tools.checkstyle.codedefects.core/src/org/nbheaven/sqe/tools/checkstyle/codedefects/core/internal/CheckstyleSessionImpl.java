@@ -23,6 +23,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.nbheaven.sqe.codedefects.core.api.QualitySession;
 import org.nbheaven.sqe.codedefects.core.spi.AbstractQualitySession;
+import org.nbheaven.sqe.codedefects.core.spi.QualityResultStore;
 import org.nbheaven.sqe.codedefects.core.spi.SQECodedefectScanner;
 import org.nbheaven.sqe.core.utilities.SQEProjectSupport;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleQualityProvider;
@@ -52,7 +53,9 @@ import org.openide.filesystems.FileObject;
 public class CheckstyleSessionImpl extends AbstractQualitySession<CheckstyleQualityProvider, CheckstyleResult> implements CheckstyleSession {
 
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private volatile CheckstyleScannerJob projectScannerJob;
     private CheckstyleResult checkstyleResult;
+    private final CheckstyleResultCodec resultCodec;
 
     /**
      * Creates a new instance of CheckstyleSession
@@ -61,6 +64,7 @@ public class CheckstyleSessionImpl extends AbstractQualitySession<CheckstyleQual
      */
     public CheckstyleSessionImpl(Project project) {
         super(CheckstyleQualityProvider.getDefault(), project);
+        resultCodec = new CheckstyleResultCodec(project);
     }
 
     private final Lock waitResultLock = new ReentrantLock();
@@ -80,11 +84,15 @@ public class CheckstyleSessionImpl extends AbstractQualitySession<CheckstyleQual
         return job.getCheckstyleResult();
     }
 
+    public static void cancelComputeResult(FileObject sourceFile) {
+        SQECodedefectScanner.cancel(CheckstyleQualityProvider.getDefault().getId(), sourceFile);
+    }
+
     @Override
     public CheckstyleResult computeResultAndWait() {
         waitResultLock.lock();
         try {
-            computeResult();
+            computeResult(SQECodedefectScanner.Priority.PROJECT);
             while (isRunning.get()) {
                 waitForResult.awaitUninterruptibly();
             }
@@ -96,10 +104,24 @@ public class CheckstyleSessionImpl extends AbstractQualitySession<CheckstyleQual
 
     @Override
     public void computeResult() {
+        computeResult(SQECodedefectScanner.Priority.PROJECT);
+    }
+
+    @Override
+    public void computeResultInBackground() {
+        computeResult(SQECodedefectScanner.Priority.BACKGROUND);
+    }
+
+    private void computeResult(SQECodedefectScanner.Priority priority) {
         if (!isRunning.getAndSet(true)) {
-            CheckstyleScannerJob job = new CheckstyleProjectScannerJob(this);
-            SQECodedefectScanner.post(job);
+            projectScannerJob = new CheckstyleProjectScannerJob(this);
+            SQECodedefectScanner.post(projectScannerJob, priority);
         } else {
+            // raises the priority of a scan still waiting for execution
+            CheckstyleScannerJob job = projectScannerJob;
+            if (null != job) {
+                SQECodedefectScanner.post(job, priority);
+            }
 //            System.out.println("Checkstyle is already running - Skip call to computeResult()");
         }
     }
@@ -107,6 +129,7 @@ public class CheckstyleSessionImpl extends AbstractQualitySession<CheckstyleQual
     void scanningDone() {
         waitResultLock.lock();
         try {
+            projectScannerJob = null;
             isRunning.set(false);
             waitForResult.signalAll();
         } finally {
@@ -114,6 +137,15 @@ public class CheckstyleSessionImpl extends AbstractQualitySession<CheckstyleQual
         }
     }
 
+    @Override
+    protected QualityResultStore.Codec<CheckstyleResult> getResultCodec() {
+        return resultCodec;
+    }
+
+    void scanStartedInternal() {
+        scanStarted();
+    }
+
     void setResultInternal(CheckstyleResult checkstyleResult) {
         setResult(checkstyleResult);
     }
@@ -0,0 +1,203 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.Definitions;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
+import com.puppycrawl.tools.checkstyle.api.Context;
+import com.puppycrawl.tools.checkstyle.api.FileSetCheck;
+import com.puppycrawl.tools.checkstyle.api.FileText;
+import com.puppycrawl.tools.checkstyle.api.LocalizedMessage;
+import com.puppycrawl.tools.checkstyle.api.MessageDispatcher;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nbheaven.sqe.codedefects.core.spi.SourceSnapshot;
+import org.openide.filesystems.FileObject;
+
+/**
+ * A checker taking the content of the files from the {@link SourceSnapshot}
+ * of the scan instead of reading them again, so the sources are decoded once
+ * for all providers. Files not in the snapshot are read by checkstyle.
+ * <p>
+ * Checkstyle 6.11.2 does not let subclasses fire the audit events, so
+ * {@link Checker#process(List)} is run on no files at all and the files are
+ * processed by a file set check added last, once all other file set checks
+ * began processing. Events and their order stay those of checkstyle. The file
+ * extensions of the checker are not applied, only Java files are scanned.
+ *
+ * @author Sven Reimers
+ */
+final class SnapshotChecker extends Checker {
+
+    private static final Logger LOG = Logger.getLogger(SnapshotChecker.class.getName());
+
+    private final List<FileSetCheck> fileSetChecks = new ArrayList<>();
+    private final SnapshotFiles snapshotFiles = new SnapshotFiles();
+    private boolean snapshotFilesAdded;
+    private SourceSnapshot sourceSnapshot;
+    private Map<File, FileObject> fileObjects = Collections.emptyMap();
+
+    /**
+     * Takes the content of the given files from the snapshot until
+     * {@link #clearSourceSnapshot()} is called.
+     */
+    void setSourceSnapshot(SourceSnapshot sourceSnapshot, Map<File, FileObject> fileObjects) {
+        this.sourceSnapshot = sourceSnapshot;
+        this.fileObjects = fileObjects;
+    }
+
+    void clearSourceSnapshot() {
+        sourceSnapshot = null;
+        fileObjects = Collections.emptyMap();
+    }
+
+    @Override
+    public void addFileSetCheck(FileSetCheck fileSetCheck) {
+        super.addFileSetCheck(fileSetCheck);
+        if (fileSetCheck != snapshotFiles) {
+            fileSetChecks.add(fileSetCheck);
+        }
+    }
+
+    @Override
+    public int process(List<File> files) throws CheckstyleException {
+        if (null == sourceSnapshot) {
+            return super.process(files);
+        }
+        if (!snapshotFilesAdded) {
+            addFileSetCheck(snapshotFiles);
+            snapshotFilesAdded = true;
+        }
+        snapshotFiles.files = files;
+        try {
+            return super.process(Collections.<File>emptyList());
+        } catch (FileFailedException ex) {
+            throw ex.getCause();
+        } finally {
+            snapshotFiles.files = null;
+        }
+    }
+
+    private FileText readText(File file, String charset) throws IOException {
+        FileObject fo = fileObjects.get(file);
+        if (null == fo) {
+            return new FileText(file.getAbsoluteFile(), charset);
+        }
+        List<String> lines = new ArrayList<>();
+        // split like checkstyle does
+        try (BufferedReader reader = new BufferedReader(new StringReader(sourceSnapshot.getSource(fo).getText()))) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                lines.add(line);
+            }
+        }
+        return FileText.fromLines(file.getAbsoluteFile(), lines);
+    }
+
+    /**
+     * Processes the files of the current call while the audit is running,
+     * in the way {@link Checker#process(List)} does.
+     */
+    private final class SnapshotFiles implements FileSetCheck {
+
+        private List<File> files;
+
+        @Override
+        public void beginProcessing(String charset) {
+            if (null == files) {
+                return;
+            }
+            for (File file : files) {
+                String fileName = file.getAbsolutePath();
+                fireFileStarted(fileName);
+                SortedSet<LocalizedMessage> messages = new TreeSet<>();
+                try {
+                    FileText text = readText(file, charset);
+                    for (FileSetCheck fileSetCheck : fileSetChecks) {
+                        messages.addAll(fileSetCheck.process(file, text));
+                    }
+                } catch (IOException ex) {
+                    LOG.log(Level.FINE, "Could not read " + fileName, ex);     //NOI18N
+                    messages.add(new LocalizedMessage(0, Definitions.CHECKSTYLE_BUNDLE, "general.exception",     //NOI18N
+                            new String[]{ex.getMessage()}, null, SnapshotChecker.class, null));
+                } catch (CheckstyleException ex) {
+                    throw new FileFailedException(ex);
+                }
+                fireErrors(fileName, messages);
+                fireFileFinished(fileName);
+            }
+        }
+
+        @Override
+        public SortedSet<LocalizedMessage> process(File file, List<String> lines) {
+            return new TreeSet<>();
+        }
+
+        @Override
+        public void finishProcessing() {
+        }
+
+        @Override
+        public void setMessageDispatcher(MessageDispatcher dispatcher) {
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public void configure(Configuration configuration) {
+        }
+
+        @Override
+        public void contextualize(Context context) {
+        }
+    }
+
+    /**
+     * Carries a checkstyle failure out of
+     * {@link FileSetCheck#beginProcessing(String)}, which cannot throw it.
+     */
+    private static final class FileFailedException extends RuntimeException {
+
+        private FileFailedException(CheckstyleException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized CheckstyleException getCause() {
+            return (CheckstyleException) super.getCause();
+        }
+    }
+}
@@ -44,6 +44,8 @@ public class GlobalCheckstyleSettings extends AbstractCheckstyleSettings {
 
     public static final GlobalCheckstyleSettings INSTANCE = new GlobalCheckstyleSettings();
 
+    private static final int DEFAULT_SCANNER_BATCH_SIZE = 100;
+
     private final Preferences modulePreferences;
 
     private FileObject checkstyleConfigFile;
@@ -110,6 +112,14 @@ public class GlobalCheckstyleSettings extends AbstractCheckstyleSettings {
         return propertiesFile;
     }
 
+    /**
+     * @return the number of files passed to checkstyle in one go, 1 scans
+     * every file on its own
+     */
+    public int getScannerBatchSize() {
+        return Math.max(1, modulePreferences.getInt("scanner_batch_size", DEFAULT_SCANNER_BATCH_SIZE));
+    }
+
     public void setCheckstyleConfigurationPath(String absolutePath) {
         checkstyleConfigFile = FileUtil.toFileObject(new File(absolutePath));
     }
@@ -0,0 +1,168 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
+import com.puppycrawl.tools.checkstyle.PropertiesExpander;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.AuditListener;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.netbeans.junit.NbTestCase;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks that files are handed to {@link Checker#process(java.util.List)} in
+ * batches and report the same events as when processed one by one.
+ *
+ * @author Sven Reimers
+ */
+public class CheckstyleBatchingTest extends NbTestCase {
+
+    private static final int FILE_COUNT = 200;
+    private static final int BATCH_SIZE = 100;
+
+    public CheckstyleBatchingTest(String name) {
+        super(name);
+    }
+
+    public void testBatchedProcessingReportsSameEvents() throws Exception {
+        List<File> files = createSourceFiles(FILE_COUNT);
+
+        CountingListener perFile = run(files, 1);
+        CountingListener batched = run(files, BATCH_SIZE);
+
+        assertEquals(FILE_COUNT, perFile.finishedFiles);
+        assertEquals(FILE_COUNT, batched.finishedFiles);
+        assertEquals(perFile.errors, batched.errors);
+        assertTrue(batched.errors > 0);
+    }
+
+    public void testBatchReachesCheckerOnce() throws Exception {
+        List<File> files = createSourceFiles(FILE_COUNT);
+
+        CountingListener perFile = run(files, 1);
+        CountingListener batched = run(files, BATCH_SIZE);
+
+        assertEquals(FILE_COUNT, perFile.processCalls);
+        assertEquals(FILE_COUNT, perFile.audits);
+        assertEquals(FILE_COUNT / BATCH_SIZE, batched.processCalls);
+        assertEquals(FILE_COUNT / BATCH_SIZE, batched.audits);
+    }
+
+    public void testFailingChunkReportsFinishedFilesOnce() throws Exception {
+        List<File> files = createSourceFiles(4);
+        File broken = files.get(2);
+        Files.write(broken.toPath(), "package sample;\n\npublic class Broken { # }\n".getBytes(StandardCharsets.UTF_8));
+
+        CountingListener listener = run(files, files.size());
+
+        // the lexer fails on the broken file, the files finished before it are not retried
+        assertEquals(files.size() - 1, listener.finishedFiles);
+        // the broken file is started in the chunk and again on its own
+        assertEquals(files.size() + 1, listener.startedFiles);
+    }
+
+    private CountingListener run(List<File> files, int batchSize) throws Exception {
+        final CountingListener listener = new CountingListener();
+        Checker checker = new Checker() {
+
+            @Override
+            public int process(List<File> chunk) throws CheckstyleException {
+                listener.processCalls++;
+                return super.process(chunk);
+            }
+        };
+        checker.setModuleClassLoader(Checker.class.getClassLoader());
+        try (InputStream config = CheckstyleScannerJob.class.getResourceAsStream("/org/nbheaven/sqe/tools/checkstyle/codedefects/core/resources/google_checks.xml")) {
+            checker.configure(ConfigurationLoader.loadConfiguration(new InputSource(config), new PropertiesExpander(new Properties()), true));
+        }
+        checker.addListener(listener);
+        try {
+            CheckstyleScannerJob.process(checker, files, batchSize);
+        } finally {
+            checker.destroy();
+        }
+        return listener;
+    }
+
+    private List<File> createSourceFiles(int count) throws IOException {
+        File dir = new File(getWorkDir(), "src");
+        dir.mkdirs();
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            File file = new File(dir, "Sample" + i + ".java");
+            String source = "package sample;\n\n"
+                    + "public class Sample" + i + " {\n\n"
+                    + "  private int value_" + i + ";\n\n"
+                    + "  public int getValue() {\n"
+                    + "    if (value_" + i + " > 0) return value_" + i + ";\n"
+                    + "    return -1;\n"
+                    + "  }\n"
+                    + "}\n";
+            Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static final class CountingListener implements AuditListener {
+
+        private int processCalls;
+        private int audits;
+        private int startedFiles;
+        private int finishedFiles;
+        private int errors;
+
+        @Override
+        public void auditStarted(AuditEvent aEvt) {
+            audits++;
+        }
+
+        @Override
+        public void auditFinished(AuditEvent aEvt) {
+        }
+
+        @Override
+        public void fileStarted(AuditEvent aEvt) {
+            startedFiles++;
+        }
+
+        @Override
+        public void fileFinished(AuditEvent aEvt) {
+            finishedFiles++;
+        }
+
+        @Override
+        public void addError(AuditEvent aEvt) {
+            errors++;
+        }
+
+        @Override
+        public void addException(AuditEvent aEvt, Throwable aThrowable) {
+        }
+    }
+}
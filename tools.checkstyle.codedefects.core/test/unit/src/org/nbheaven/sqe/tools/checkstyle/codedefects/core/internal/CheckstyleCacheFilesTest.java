@@ -0,0 +1,129 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.checkstyle.codedefects.core.internal;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
+import com.puppycrawl.tools.checkstyle.PropertiesExpander;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.netbeans.junit.NbTestCase;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks counting the files the checkstyle cache lets checkstyle skip.
+ *
+ * @author Sven Reimers
+ */
+public class CheckstyleCacheFilesTest extends NbTestCase {
+
+    private static final String CONFIGURATION = "<?xml version=\"1.0\"?>\n"
+            + "<!DOCTYPE module PUBLIC \"-//Puppy Crawl//DTD Check Configuration 1.3//EN\" \"http://www.puppycrawl.com/dtds/configuration_1_3.dtd\">\n"
+            + "<module name=\"Checker\">\n"
+            + "  <module name=\"TreeWalker\">\n"
+            + "    <property name=\"cacheFile\" value=\"${checkstyle.cache.file}\"/>\n"
+            + "    <module name=\"MemberName\">%s</module>\n"
+            + "  </module>\n"
+            + "</module>\n";
+
+    public CheckstyleCacheFilesTest(String name) {
+        super(name);
+    }
+
+    public void testUnchangedFilesWithoutErrorsAreHits() throws Exception {
+        List<File> files = createSourceFiles();
+        File cacheFile = new File(getWorkDir(), "checkstyle.cache");
+
+        assertEquals(0, audit(files, cacheFile, ""));
+        // only the files without errors are cached
+        assertEquals(2, audit(files, cacheFile, ""));
+
+        File changed = files.get(0);
+        assertTrue(changed.setLastModified(changed.lastModified() + 2000));
+        assertEquals(1, audit(files, cacheFile, ""));
+    }
+
+    public void testChangedConfigurationHasNoHits() throws Exception {
+        List<File> files = createSourceFiles();
+        File cacheFile = new File(getWorkDir(), "checkstyle.cache");
+
+        audit(files, cacheFile, "");
+        assertEquals(0, audit(files, cacheFile, "<property name=\"severity\" value=\"warning\"/>"));
+    }
+
+    public void testCountsRetriedFilesOnce() throws Exception {
+        List<File> files = createSourceFiles();
+        File broken = new File(getWorkDir(), "src/Broken.java");
+        Files.write(broken.toPath(), "package sample;\n\npublic class Broken { # }\n".getBytes(StandardCharsets.UTF_8));
+        // the files after the broken one are retried one by one
+        files.add(1, broken);
+        File cacheFile = new File(getWorkDir(), "checkstyle.cache");
+
+        audit(files, cacheFile, "");
+        assertEquals(2, audit(files, cacheFile, ""));
+    }
+
+    public void testMissingCacheFileIsEmpty() throws Exception {
+        assertTrue(CheckstyleCacheFiles.load(new File(getWorkDir(), "missing.cache")).isEmpty());
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    private int audit(List<File> files, File cacheFile, String checkProperties) throws Exception {
+        Properties properties = new Properties();
+        properties.put(CheckstyleCacheFiles.CACHE_FILE_PROPERTY, cacheFile.getAbsolutePath());
+        Checker checker = new Checker();
+        checker.setModuleClassLoader(Checker.class.getClassLoader());
+        String configuration = String.format(CONFIGURATION, checkProperties);
+        checker.configure(ConfigurationLoader.loadConfiguration(new InputSource(new StringReader(configuration)), new PropertiesExpander(properties), true));
+        try {
+            Properties before = CheckstyleCacheFiles.load(cacheFile);
+            CheckstyleScannerJob.process(checker, files, files.size());
+            return CheckstyleCacheFiles.countCacheHits(before, CheckstyleCacheFiles.load(cacheFile), files);
+        } finally {
+            checker.destroy();
+        }
+    }
+
+    /**
+     * @return two files without errors and one with
+     */
+    private List<File> createSourceFiles() throws IOException {
+        File dir = new File(getWorkDir(), "src");
+        dir.mkdirs();
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File file = new File(dir, "Sample" + i + ".java");
+            String member = i < 2 ? "value" : "Value";
+            String source = "package sample;\n\n"
+                    + "public class Sample" + i + " {\n"
+                    + "    private int " + member + ";\n"
+                    + "}\n";
+            Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        return files;
+    }
+}
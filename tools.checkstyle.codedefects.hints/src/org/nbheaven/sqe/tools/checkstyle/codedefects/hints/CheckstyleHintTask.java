@@ -22,7 +22,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.Document;
@@ -48,6 +47,9 @@ import org.openide.util.RequestProcessor;
 final class CheckstyleHintTask implements CancellableTask<CompilationInfo> {
 
     private static final RequestProcessor HINT_PROCESSOR = new RequestProcessor("Checkstyle-Hint-Processor", 1);
+    private final RequestProcessor.Task computeTask = HINT_PROCESSOR.create(this::computeScheduledErrors);
+    private volatile FileObject scheduledFile;
+    private volatile Document scheduledDocument;
 
     private List<ErrorDescription> errors;
 
@@ -56,6 +58,10 @@ final class CheckstyleHintTask implements CancellableTask<CompilationInfo> {
 
     @Override
     public void cancel() {
+        FileObject fileObject = scheduledFile;
+        if (null != fileObject) {
+            CheckstyleSession.cancelComputeResult(fileObject);
+        }
     }
 
     @Override
@@ -68,14 +74,11 @@ final class CheckstyleHintTask implements CancellableTask<CompilationInfo> {
                     System.out.println("CheckstyleHintTask: (calc) " + System.identityHashCode(fileObject));
                     final Document document = compilationInfo.getDocument();
                     if (null != document) {
-                        HINT_PROCESSOR.post(() -> {
-                            try {
-                                errors = computeErrors(fileObject, document);
-                                CheckstyleHintTaskFactory.rescheduleFile(fileObject);
-                            } catch (Exception ex) {
-                                Exceptions.printStackTrace(ex);
-                            }
-                        });
+                        // a newer request replaces a pending or running one for this file
+                        CheckstyleSession.cancelComputeResult(fileObject);
+                        scheduledFile = fileObject;
+                        scheduledDocument = document;
+                        computeTask.schedule(0);
                     } else {
                         errors = Collections.emptyList();
                     }
@@ -91,24 +94,38 @@ final class CheckstyleHintTask implements CancellableTask<CompilationInfo> {
         }
     }
 
+    private void computeScheduledErrors() {
+        FileObject fileObject = scheduledFile;
+        Document document = scheduledDocument;
+        try {
+            List<ErrorDescription> computedErrors = computeErrors(fileObject, document);
+            if (null != computedErrors) {
+                errors = computedErrors;
+                CheckstyleHintTaskFactory.rescheduleFile(fileObject);
+            }
+        } catch (Exception ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * @return the errors found or <code>null</code> if the scan was
+     * cancelled or replaced by a newer one
+     */
     private static List<ErrorDescription> computeErrors(FileObject fileObject, Document document) throws Exception {
         CheckstyleResult result = CheckstyleSession.computeResultAndWait(fileObject);
         if (result != null) {
             List<ErrorDescription> computedErrors = new LinkedList<>();
             Project project = FileOwnerQuery.getOwner(fileObject);
 
-            // XXX see comment in ClassKey constructor
-            Map<CheckstyleResult.ClassKey, Collection<AuditEvent>> instanceByClass = result.getInstanceByClass();
-            instanceByClass.keySet().stream()
-                    .filter((classKey) -> (classKey.getFileObject().equals(fileObject)))
-                    .map((classKey) -> instanceByClass.get(classKey))
-                    .forEach((bugs) -> {
-                        computedErrors.addAll(createErrorDescription(project, fileObject, document, bugs));
-                    });
+            Collection<AuditEvent> auditEvents = result.getInstanceByFile().get(fileObject);
+            if (null != auditEvents) {
+                computedErrors.addAll(createErrorDescription(project, fileObject, document, auditEvents));
+            }
 
             return computedErrors;
         }
-        return Collections.emptyList();
+        return null;
     }
 
     private static List<ErrorDescription> createErrorDescription(Project project, FileObject fileObject, Document document, Collection<AuditEvent> auditEvents) {
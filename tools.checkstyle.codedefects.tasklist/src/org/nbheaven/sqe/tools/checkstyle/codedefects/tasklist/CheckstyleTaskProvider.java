@@ -17,15 +17,20 @@
  */
 package org.nbheaven.sqe.tools.checkstyle.codedefects.tasklist;
 
-import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
 import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
-import org.nbheaven.sqe.core.utilities.SQEProjectSupport;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult;
-import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleResult.ClassKey;
 import org.nbheaven.sqe.tools.checkstyle.codedefects.core.CheckstyleSession;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.FileOwnerQuery;
@@ -34,123 +39,171 @@ import org.netbeans.spi.tasklist.PushTaskScanner;
 import org.netbeans.spi.tasklist.Task;
 import org.netbeans.spi.tasklist.TaskScanningScope;
 import org.openide.filesystems.FileObject;
+import org.openide.util.RequestProcessor;
 
 /**
+ * Pushes the audit events of the current Checkstyle results to the tasklist.
+ * Tasks are pushed asynchronously: a cached result is pushed right away,
+ * otherwise a scan is started and its result pushed once available. Later
+ * results only update the files whose tasks changed.
  *
  * @author Sven Reimers
  */
 public final class CheckstyleTaskProvider extends PushTaskScanner {
 
+    private static final RequestProcessor TASK_PROCESSOR = new RequestProcessor("Checkstyle-Task-Processor", 1);
+
+    private final Map<CheckstyleSession, SessionTasks> sessionTasks = new HashMap<>();
+
     public CheckstyleTaskProvider() {
         super("Checkstyle", "Checkstyle found Errors", null);
     }
 
     @Override
     public synchronized void setScope(TaskScanningScope taskScanningScope, Callback callback) {
+        for (SessionTasks tasks : sessionTasks.values()) {
+            tasks.detach();
+        }
+        sessionTasks.clear();
         if (taskScanningScope == null || callback == null) {
             return;
         }
 
         for (FileObject fileObject : taskScanningScope.getLookup().lookupAll(FileObject.class)) {
-            if (SQECodedefectSupport.isQualityProviderEnabledForFileObject(fileObject, CheckstyleSession.class) && JavaSource.forFileObject(fileObject) != null) {
-                CheckstyleResult result = getResult(fileObject);
-                if (result == null) {
-                    continue;
-                }
-                Project project = SQEProjectSupport.findProjectByFileObject(fileObject);
-                Map<ClassKey, Collection<AuditEvent>> instanceByClass = result.getInstanceByClass();
-                CheckstyleResult.ClassKey key = new CheckstyleResult.ClassKey(project, fileObject);
-                Collection<AuditEvent> auditEvents = instanceByClass.get(key);
-                if (auditEvents != null) { // SQE-57
-                    callback.setTasks(fileObject, new LinkedList<>(getTasks(auditEvents, fileObject)));
+            if (SQECodedefectSupport.isQualityProviderEnabledForFileObject(fileObject, CheckstyleSession.class) && null != JavaSource.forFileObject(fileObject)) {
+                CheckstyleSession qualitySession = SQECodedefectSupport.retrieveSession(FileOwnerQuery.getOwner(fileObject), CheckstyleSession.class);
+                if (null != qualitySession) {
+                    getSessionTasks(qualitySession, callback).addFile(fileObject);
                 }
             }
         }
 
         for (Project project : taskScanningScope.getLookup().lookupAll(Project.class)) {
-            CheckstyleResult result = getResult(project);
-            if (result != null) {
-                List<Task> tasks = new LinkedList<>();
-                for (Map.Entry<ClassKey, Collection<AuditEvent>> classEntry : result.getInstanceByClass().entrySet()) {
-                    tasks.addAll(getTasks(classEntry.getValue(), classEntry.getKey().getFileObject()));
-                }
-                callback.setTasks(project.getProjectDirectory(), tasks);
+            CheckstyleSession qualitySession = SQECodedefectSupport.retrieveSession(project, CheckstyleSession.class);
+            if (null != qualitySession) {
+                getSessionTasks(qualitySession, callback).addAllFiles();
             }
         }
+
+        for (SessionTasks tasks : sessionTasks.values()) {
+            tasks.attach();
+        }
     }
 
-    private List<Task> getTasks(Collection<AuditEvent> auditevents, FileObject file) {
+    private SessionTasks getSessionTasks(CheckstyleSession qualitySession, Callback callback) {
+        SessionTasks tasks = sessionTasks.get(qualitySession);
+        if (null == tasks) {
+            tasks = new SessionTasks(qualitySession, callback);
+            sessionTasks.put(qualitySession, tasks);
+        }
+        return tasks;
+    }
+
+    private static List<Task> getTasks(Collection<AuditEvent> auditEvents, FileObject file) {
         List<Task> tasks = new LinkedList<>();
-        for (AuditEvent auditEvent : auditevents) {
+        for (AuditEvent auditEvent : auditEvents) {
             tasks.add(Task.create(file, "sqe-tasklist-checkstyle", auditEvent.getMessage(), auditEvent.getLine()));
         }
         return tasks;
     }
 
-    private CheckstyleResult getResult(FileObject fileObject) {
-        return getResult(FileOwnerQuery.getOwner(fileObject));
+    /**
+     * @return what the tasks of the given audit events show, equal
+     * signatures mean equal tasks
+     */
+    private static List<String> getSignature(Collection<AuditEvent> bugs) {
+        List<String> signature = new ArrayList<>(auditEvents.size());
+        for (AuditEvent auditEvent : auditEvents) {
+            signature.add(auditEvent.getLine() + ":" + auditEvent.getMessage());
+        }
+        return signature;
     }
 
-    private CheckstyleResult getResult(Project project) {
-        CheckstyleSession qualitySession = SQECodedefectSupport.retrieveSession(project, CheckstyleSession.class);
+    /**
+     * The tasks pushed for the files of one session in the current scope.
+     */
+    private static final class SessionTasks implements ChangeListener<CheckstyleResult> {
 
-        CheckstyleResult result = null;
-        if (qualitySession != null) {
-            result = qualitySession.getResult();
-            if (null == result) {
-                result = qualitySession.computeResultAndWait();
+        private final CheckstyleSession qualitySession;
+        private final Callback callback;
+        /**
+         * The files in scope, <code>null</code> if the whole project is.
+         */
+        private Set<FileObject> files = new HashSet<>();
+        private Map<FileObject, List<String>> pushed;
+        private volatile boolean detached;
+
+        SessionTasks(CheckstyleSession qualitySession, Callback callback) {
+            this.qualitySession = qualitySession;
+            this.callback = callback;
+        }
+
+        void addFile(FileObject fileObject) {
+            if (null != files) {
+                files.add(fileObject);
             }
+        }
 
+        void addAllFiles() {
+            files = null;
+        }
+
+        void attach() {
+            qualitySession.getResultProperty().addListener(this);
+            TASK_PROCESSOR.post(() -> {
+                CheckstyleResult result = qualitySession.getResult();
+                if (null != result) {
+                    push(result);
+                } else if (!detached) {
+                    qualitySession.computeResultInBackground();
+                }
+            });
+        }
+
+        void detach() {
+            detached = true;
+            qualitySession.getResultProperty().removeListener(this);
+        }
+
+        @Override
+        public void changed(ObservableValue<? extends CheckstyleResult> observable, CheckstyleResult oldValue, CheckstyleResult newValue) {
+            if (null != newValue) {
+                TASK_PROCESSOR.post(() -> push(newValue));
+            }
         }
-        return result;
-    }
 
-//    private Collection<String> getClasses(final FileObject fo) {
-//        if (fo == null || !fo.isValid() || fo.isVirtual()) {
-//            throw new IllegalArgumentException();
-//        }
-//        final JavaSource js = JavaSource.forFileObject(fo);
-//        if (js == null) {
-//            throw new IllegalArgumentException();
-//        }
-//        try {
-//            final Collection<String> result = new ArrayList<String>();
-//            js.runUserActionTask(new CancellableTask<CompilationController>() {
-//                @Override
-//                public void run(final CompilationController control) throws Exception {
-//                    if (control.toPhase(JavaSource.Phase.ELEMENTS_RESOLVED).compareTo(JavaSource.Phase.ELEMENTS_RESOLVED) >= 0) {
-//                        new TreePathScanner<Void, Void>() {
-//
-//                            private void recurseType(TypeElement te, String prefix) {
-//                                for (TypeElement type : ElementFilter.typesIn(te.getEnclosedElements())) {
-//                                    result.add(prefix + type.getSimpleName().toString());
-//                                    recurseType(type, prefix + type.getSimpleName() + "$");
-//                                }
-//                            }
-//
-//                            @Override
-//                            public Void visitClass(ClassTree t, Void v) {
-//                                Element el = control.getTrees().getElement(getCurrentPath());
-//
-//                                TypeElement te = (TypeElement) el;
-//                                String outerFQN = te.getQualifiedName().toString();
-//                                result.add(outerFQN);
-//                                recurseType(te, outerFQN + "$");
-//                                return null;
-//                            }
-//                        }.scan(control.getCompilationUnit(), null);
-//                    }
-//                }
-//
-//                @Override
-//                public void cancel() {
-//                }
-//
-//            }, true);
-//            return result;
-//        } catch (IOException ioe) {
-//            Exceptions.printStackTrace(ioe);
-//            return Collections.<String>emptyList();
-//        }
-//    }
+        private synchronized void push(CheckstyleResult result) {
+            if (detached) {
+                return;
+            }
+            boolean initial = null == pushed;
+            if (initial) {
+                pushed = new HashMap<>();
+            }
+            Map<FileObject, Collection<AuditEvent>> instanceByFile = result.getInstanceByFile();
+            Set<FileObject> targets = files;
+            if (null == targets) {
+                targets = new HashSet<>(instanceByFile.keySet());
+                targets.addAll(pushed.keySet());
+            }
+            for (FileObject file : targets) {
+                Collection<AuditEvent> auditEvents = instanceByFile.get(file);
+                List<String> signature = null != auditEvents ? getSignature(auditEvents) : Collections.<String>emptyList();
+                List<String> previous = pushed.get(file);
+                boolean changed = initial
+                        // files asked for explicitly get their (maybe empty) tasks once
+                        ? null != files || !signature.isEmpty()
+                        : !signature.equals(null != previous ? previous : Collections.<String>emptyList());
+                if (!changed) {
+                    continue;
+                }
+                callback.setTasks(file, null != auditEvents ? getTasks(auditEvents, file) : Collections.<Task>emptyList());
+                if (signature.isEmpty()) {
+                    pushed.remove(file);
+                } else {
+                    pushed.put(file, signature);
+                }
+            }
+        }
+    }
 }
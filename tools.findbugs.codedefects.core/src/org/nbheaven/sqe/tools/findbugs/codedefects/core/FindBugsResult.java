@@ -25,6 +25,7 @@ import java.util.Map;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
+import org.nbheaven.sqe.codedefects.core.api.QualityResultReport;
 import org.nbheaven.sqe.codedefects.core.api.QualityResultStatistic;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.annotations.BugAnnotationProcessor;
 import org.netbeans.api.project.Project;
@@ -35,7 +36,7 @@ import org.openide.util.ImageUtilities;
  *
  * @author Sven Reimers
  */
-public interface FindBugsResult extends QualityResult, QualityResultStatistic {
+public interface FindBugsResult extends QualityResult, QualityResultStatistic, QualityResultReport {
 
     public enum Mode {
 
@@ -96,6 +97,12 @@ public interface FindBugsResult extends QualityResult, QualityResultStatistic {
 
     public Map<BugPattern, Collection<BugInstance>> getInstanceByType(boolean coreBugsOnly);
 
+    /**
+     * @return the bug instances grouped by the source file of their primary
+     * class, bugs of classes without a known source file are left out
+     */
+    public Map<FileObject, Collection<BugInstance>> getInstanceByFile(boolean coreBugsOnly);
+
     public long getCodeDefectCount(boolean isFilterOn);
 
     @Override
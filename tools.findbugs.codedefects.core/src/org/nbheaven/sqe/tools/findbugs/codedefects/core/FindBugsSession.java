@@ -43,4 +43,12 @@ public interface FindBugsSession extends QualitySession {
     public static FindBugsResult computeResultAndWait(FileObject sourceFile) {
         return FindBugsSessionImpl.computeResultAndWait(sourceFile);
     }
+
+    /**
+     * Cancels a pending or running analysis of a single file started by
+     * {@link #computeResultAndWait(org.openide.filesystems.FileObject)}.
+     */
+    public static void cancelComputeResult(FileObject sourceFile) {
+        FindBugsSessionImpl.cancelComputeResult(sourceFile);
+    }
 }
@@ -30,10 +30,10 @@ import org.nbheaven.sqe.tools.findbugs.codedefects.core.search.impl.MethodElemen
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
 import org.nbheaven.sqe.codedefects.core.api.SQEAnnotationProcessor;
 import org.nbheaven.sqe.core.java.search.ClassElementDescriptor;
+import org.nbheaven.sqe.core.java.search.ElementDescriptor;
 import org.nbheaven.sqe.core.java.search.JavaElement;
 import org.nbheaven.sqe.core.java.search.MethodElementDescriptor;
-import org.nbheaven.sqe.core.java.utils.JavaSourceProvider;
-import org.nbheaven.sqe.core.java.utils.TypeUtilities;
+import org.nbheaven.sqe.core.java.utils.JavaTypeResolver;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.Project;
 import org.openide.ErrorManager;
@@ -43,9 +43,12 @@ import org.openide.loaders.DataObject;
 import org.openide.loaders.DataObjectNotFoundException;
 import org.openide.text.Line;
 import org.openide.text.Line.Part;
-import org.openide.text.Line.Set;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.search.impl.ClassElementDescriptorImpl;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.search.impl.VariableElementDescriptorImpl;
 import org.nbheaven.sqe.core.java.search.SearchUtilities;
@@ -65,16 +68,12 @@ public final class BugAnnotationProcessor implements SQEAnnotationProcessor {
 
     private static Line getLineForSourceAnnotation(DataObject dao, SourceLineAnnotation sourceLineAnnotation) {
         LineCookie cookie = dao.getLookup().lookup(LineCookie.class);
-        Set lineset = cookie.getLineSet();
+        Line.Set lineset = cookie.getLineSet();
         int lineNum = sourceLineAnnotation.getStartLine();
         return lineset.getCurrent(lineNum - 1);
     }
 
-    private static void annotate(final BugInstance bugInstance, final JavaElement javaElement, Project project) {
-        if (javaElement == null) {
-            return;
-        }
-        FindBugsAnnotation annotation = FindBugsAnnotation.getNewInstance(project);
+    private static void annotate(final BugInstance bugInstance, final JavaElement javaElement, FindBugsAnnotation annotation) {
         annotation.setErrorMessage(bugInstance.getMessage());
         Line line = javaElement.getLine();
         Part linePart = line.createPart(javaElement.getBeginColumn(), javaElement.getEndColumn());
@@ -83,7 +82,10 @@ public final class BugAnnotationProcessor implements SQEAnnotationProcessor {
     }
 
     private static void annotate(final BugInstance bugInstance, final Line line, Project project) {
-        FindBugsAnnotation annotation = FindBugsAnnotation.getNewInstance(project);
+        annotate(bugInstance, line, FindBugsAnnotation.getNewInstance(project));
+    }
+
+    private static void annotate(final BugInstance bugInstance, final Line line, FindBugsAnnotation annotation) {
         annotation.setErrorMessage(bugInstance.getMessage());
         annotation.attach(line);
         line.addPropertyChangeListener(annotation);
@@ -176,13 +178,7 @@ public final class BugAnnotationProcessor implements SQEAnnotationProcessor {
     }
 
     public static FileObject findFileObjectForAnnotatedClass(final String className, final Project project) {
-        String javaFileName = className;
-
-        JavaSourceProvider javaSourceProvider = TypeUtilities.getJavaTypeElement(javaFileName, project);
-        if (null == javaSourceProvider) {
-            return null;
-        }
-        return javaSourceProvider.getFileObject();
+        return JavaTypeResolver.forProject(project).findFileObject(className);
     }
 
     @Override
@@ -195,8 +191,22 @@ public final class BugAnnotationProcessor implements SQEAnnotationProcessor {
         final FindBugsResult result = (FindBugsResult) qualityResult;
 
         FileObject fileObject = javaSource.getFileObjects().iterator().next();
-        Collection<String> fqnClassNames = SearchUtilities.getFQNClassNames(fileObject);
-        fqnClassNames.stream().forEach((fqnClassName) -> annotateClass(fqnClassName, fileObject, project, result));
+        annotateFile(result.getInstanceByFile(true).get(fileObject), fileObject, project, false);
+    }
+
+    @Override
+    public void updateAnnotations(Collection<JavaSource> javaSources, Project project, QualityResult oldResult, QualityResult newResult) {
+        assert newResult instanceof FindBugsResult : "Illegal session passed to AnnotationProcessor";
+
+        final FindBugsResult result = (FindBugsResult) newResult;
+
+        Set<FileObject> files = new HashSet<>();
+        for (JavaSource javaSource : javaSources) {
+            FileObject fileObject = javaSource.getFileObjects().iterator().next();
+            files.add(fileObject);
+            annotateFile(result.getInstanceByFile(true).get(fileObject), fileObject, project, true);
+        }
+        FindBugsAnnotation.REGISTRY.clearAllExcept(project, files);
     }
 
     @Override
@@ -204,53 +214,76 @@ public final class BugAnnotationProcessor implements SQEAnnotationProcessor {
         FindBugsAnnotation.clearAll(project);
     }
 
-    private void annotateClass(String className, FileObject fileObject, Project project, FindBugsResult result) {
-        Map<? extends FindBugsResult.DisplayableKey<?>, Collection<BugInstance>> instanceMap = result.getInstanceByClass(true);
-        FindBugsResult.StringKey key = new FindBugsResult.StringKey(className);
-        Collection<BugInstance> bugs = instanceMap.get(key); // relies on .equals/.hashCode working across subclasses
-
-        if (null != bugs) {
-            for (BugInstance bug : bugs) {
-                try {
-                    SourceLineAnnotation sourceLineAnnotation = null;
-                    // Highest priority: return the first top level source line annotation
-                    for (Iterator<BugAnnotation> annotationIterator = bug.annotationIterator(); annotationIterator.hasNext();) {
-                        BugAnnotation annotation = annotationIterator.next();
-                        if (annotation instanceof SourceLineAnnotation) {
-                            sourceLineAnnotation = (SourceLineAnnotation) annotation;
-                            break;
-                        }
-                    }
-                    if ((null != sourceLineAnnotation) && (-1 != sourceLineAnnotation.getStartLine())) {
-                        Line line = getLineForSourceAnnotation(DataObject.find(fileObject), sourceLineAnnotation);
-                        annotate(bug, line, project);
-                        continue;
-                    }
-                    FieldAnnotation fieldAnnotation = bug.getPrimaryField();
-                    if (null != fieldAnnotation) {
-                        VariableElementDescriptor desc = new VariableElementDescriptorImpl(bug.getPrimaryClass(), fieldAnnotation, project);
-                        JavaElement findFieldElement = org.nbheaven.sqe.core.java.search.SearchUtilities.findVariableElement(desc);
-                        annotate(bug, findFieldElement, project);
-                        continue;
+    /**
+     * Annotates the bugs not yet annotated in the file.
+     *
+     * @param removeFixed whether to remove the annotations of bugs no longer
+     * reported
+     */
+    private void annotateFile(Collection<BugInstance> bugs, FileObject fileObject, Project project, boolean removeFixed) {
+        Map<String, BugInstance> added = FindBugsAnnotation.REGISTRY.update(project, fileObject, bugs,
+                BugAnnotationProcessor::getFingerprint, removeFixed);
+        // bugs without a source line are located by their element, all at once
+        List<String> pendingFingerprints = new ArrayList<>();
+        List<ElementDescriptor> descriptors = new ArrayList<>();
+        for (Map.Entry<String, BugInstance> entry : added.entrySet()) {
+            BugInstance bug = entry.getValue();
+            try {
+                SourceLineAnnotation sourceLineAnnotation = null;
+                // Highest priority: return the first top level source line annotation
+                for (Iterator<BugAnnotation> annotationIterator = bug.annotationIterator(); annotationIterator.hasNext();) {
+                    BugAnnotation annotation = annotationIterator.next();
+                    if (annotation instanceof SourceLineAnnotation) {
+                        sourceLineAnnotation = (SourceLineAnnotation) annotation;
+                        break;
                     }
-                    MethodAnnotation methodAnnotation = bug.getPrimaryMethod();
-                    if (null != methodAnnotation) {
-                        MethodElementDescriptor desc = new MethodElementDescriptorImpl(bug.getPrimaryClass(), methodAnnotation, project);
-                        JavaElement findMethodElement = org.nbheaven.sqe.core.java.search.SearchUtilities.findMethodElement(desc);
-                        annotate(bug, findMethodElement, project);
-                        continue;
-                    }
-                    ClassAnnotation classAnnotation = bug.getPrimaryClass();
-                    if (null != classAnnotation) {
-                        ClassElementDescriptor desc = new ClassElementDescriptorImpl(classAnnotation, project);
-                        JavaElement findClassElement = org.nbheaven.sqe.core.java.search.SearchUtilities.findClassElement(desc);
-                        annotate(bug, findClassElement, project);
-                        continue;
-                    }
-                } catch (Exception ex) {
-                    ErrorManager.getDefault().notify(ex);
                 }
+                if ((null != sourceLineAnnotation) && (-1 != sourceLineAnnotation.getStartLine())) {
+                    Line line = getLineForSourceAnnotation(DataObject.find(fileObject), sourceLineAnnotation);
+                    annotate(bug, line, FindBugsAnnotation.getNewInstance(project, fileObject, entry.getKey()));
+                    continue;
+                }
+                FieldAnnotation fieldAnnotation = bug.getPrimaryField();
+                if (null != fieldAnnotation) {
+                    pendingFingerprints.add(entry.getKey());
+                    descriptors.add(new VariableElementDescriptorImpl(bug.getPrimaryClass(), fieldAnnotation, project));
+                    continue;
+                }
+                MethodAnnotation methodAnnotation = bug.getPrimaryMethod();
+                if (null != methodAnnotation) {
+                    pendingFingerprints.add(entry.getKey());
+                    descriptors.add(new MethodElementDescriptorImpl(bug.getPrimaryClass(), methodAnnotation, project));
+                    continue;
+                }
+                ClassAnnotation classAnnotation = bug.getPrimaryClass();
+                if (null != classAnnotation) {
+                    pendingFingerprints.add(entry.getKey());
+                    descriptors.add(new ClassElementDescriptorImpl(classAnnotation, project));
+                }
+            } catch (Exception ex) {
+                ErrorManager.getDefault().notify(ex);
+            }
+        }
+        if (descriptors.isEmpty()) {
+            return;
+        }
+        Map<ElementDescriptor, JavaElement> elements = SearchUtilities.findElements(fileObject, descriptors);
+        for (int i = 0; i < pendingFingerprints.size(); i++) {
+            JavaElement element = elements.get(descriptors.get(i));
+            if (null == element) {
+                continue;
+            }
+            String fingerprint = pendingFingerprints.get(i);
+            try {
+                annotate(added.get(fingerprint), element, FindBugsAnnotation.getNewInstance(project, fileObject, fingerprint));
+            } catch (Exception ex) {
+                ErrorManager.getDefault().notify(ex);
             }
         }
     }
+
+    private static String getFingerprint(BugInstance bugInstance) {
+        SourceLineAnnotation sourceLineAnnotation = bugInstance.getPrimarySourceLineAnnotation();
+        return bugInstance.getInstanceKey() + ':' + (null != sourceLineAnnotation ? sourceLineAnnotation.getStartLine() : -1);
+    }
 }
@@ -17,20 +17,16 @@
  */
 package org.nbheaven.sqe.tools.findbugs.codedefects.core.annotations;
 
+import org.nbheaven.sqe.codedefects.core.util.DefectFingerprints;
 import org.netbeans.api.project.Project;
 
+import org.openide.filesystems.FileObject;
 import org.openide.text.Annotation;
 import org.openide.text.Line;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
-
 /**
  * An annotation implementation marking the line where a FindBug was detected.
  * This class tracks all constructed instances of this annotation type, and can
@@ -43,49 +39,34 @@ public class FindBugsAnnotation extends Annotation implements PropertyChangeList
     /**
      * The annotations currently existing.
      */
-    private static final Map<Project, List<FindBugsAnnotation>> annotationMap = new ConcurrentHashMap<>();
-    private static final ReentrantLock secureGetCreateLock = new ReentrantLock();
+    static final DefectFingerprints.Registry<FindBugsAnnotation> REGISTRY = new DefectFingerprints.Registry<>(FindBugsAnnotation::detach);
 
     /**
      * The error message shown on mouseover on the findbugs icon
      */
     private String errormessage = null;
 
+    private Project project;
+
     private FindBugsAnnotation() {
     }
 
     public static final FindBugsAnnotation getNewInstance(Project project) {
-        List<FindBugsAnnotation> annotations;
-
-        secureGetCreateLock.lock();
-        try {
-            annotations = annotationMap.get(project);
+        return getNewInstance(project, null, null);
+    }
 
-            if (null == annotations) {
-                annotations = new ArrayList<>();
-                annotationMap.put(project, annotations);
-            }
-        } finally {
-            secureGetCreateLock.unlock();
-        }
+    /**
+     * @param file the file the annotation is shown in
+     * @param fingerprint identifies the annotated defect within the file
+     */
+    public static final FindBugsAnnotation getNewInstance(Project project, FileObject file, String fingerprint) {
         FindBugsAnnotation pmd = new FindBugsAnnotation();
-
-        synchronized (annotations) {
-            annotations.add(pmd);
-        }
-
-        return pmd;
+        pmd.project = project;
+        return REGISTRY.add(project, file, fingerprint, pmd);
     }
 
     public static final void clearAll(Project project) {
-        List<FindBugsAnnotation> annotations = annotationMap.get(project);
-
-        if (null != annotations) {
-            synchronized (annotations) {
-                annotations.stream().forEach(annotation -> annotation.detach());
-                annotations.clear();
-            }
-        }
+        REGISTRY.clearAll(project);
     }
 
     /**
@@ -131,5 +112,8 @@ public class FindBugsAnnotation extends Annotation implements PropertyChangeList
         Line line = (Line) propertyChangeEvent.getSource();
         line.removePropertyChangeListener(this);
         detach();
+        if (null != project) {
+            REGISTRY.remove(project, this);
+        }
     }
 }
@@ -0,0 +1,164 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.findbugs.codedefects.core.internal;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nbheaven.sqe.core.java.utils.CompileOnSaveHelper;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.WeakListeners;
+
+/**
+ * Keeps what single file scans of a project need besides the file itself -
+ * source folders, binary root and auxiliary classpath per source root - so
+ * subsequent scans do not have to ask the project for them again. Everything
+ * is dropped as soon as a source or compile classpath changes.
+ * <p>
+ * Only these paths are cached. Each scan still runs a new FindBugs engine,
+ * which parses the auxiliary classpath and builds its analysis cache again.
+ *
+ * @author Sven Reimers
+ */
+final class FindBugsFileScanContext {
+
+    private static final Logger LOG = Logger.getLogger(FindBugsFileScanContext.class.getName());
+
+    private final Map<FileObject, RootContext> rootContexts = new HashMap<>();
+    private final Set<ClassPath> observedClassPaths = Collections.newSetFromMap(new WeakHashMap<ClassPath, Boolean>());
+    private final PropertyChangeListener classPathListener = new PropertyChangeListener() {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (ClassPath.PROP_ENTRIES.equals(evt.getPropertyName()) || ClassPath.PROP_ROOTS.equals(evt.getPropertyName())) {
+                invalidate();
+            }
+        }
+    };
+
+    /**
+     * @return the context of the given source root, <code>null</code> if the
+     * root cannot be analyzed
+     */
+    RootContext getRootContext(FileObject sourceRoot, ClassPath sourcePath) {
+        synchronized (this) {
+            RootContext rootContext = rootContexts.get(sourceRoot);
+            if (null != rootContext) {
+                return rootContext;
+            }
+        }
+        ClassPath compilePath = ClassPath.getClassPath(sourceRoot, ClassPath.COMPILE);
+        observe(sourcePath);
+        observe(compilePath);
+        RootContext rootContext = createRootContext(sourceRoot, sourcePath, compilePath);
+        if (null != rootContext) {
+            synchronized (this) {
+                rootContexts.put(sourceRoot, rootContext);
+            }
+        }
+        return rootContext;
+    }
+
+    synchronized void invalidate() {
+        rootContexts.clear();
+    }
+
+    private synchronized void observe(ClassPath classPath) {
+        if (null != classPath && observedClassPaths.add(classPath)) {
+            classPath.addPropertyChangeListener(WeakListeners.propertyChange(classPathListener, classPath));
+        }
+    }
+
+    static RootContext createRootContext(FileObject sourceRoot, ClassPath sourcePath, ClassPath compilePath) {
+        List<String> sourceDirs = new ArrayList<>();
+        for (FileObject root : sourcePath.getRoots()) {
+            File sourceRootF = FileUtil.toFile(root);
+            if (sourceRootF != null) {
+                // XXX this does not seem to suffice to suppress "unread field" on a field used from another class
+                LOG.log(Level.FINER, "addSourceDir: {0}", sourceRootF);
+                sourceDirs.add(sourceRootF.getAbsolutePath());
+            }
+        }
+
+        try {
+            URL binaryRootU = CompileOnSaveHelper.forSourceRoot(sourceRoot).binaryRoot(false);
+            if (binaryRootU == null || !binaryRootU.getProtocol().equals("file")) {
+                LOG.log(Level.WARNING, "Bad or missing binary root {0} found for {1}", new Object[] {binaryRootU, sourceRoot});
+                return null;
+            }
+            File binaryRoot = new File(binaryRootU.toURI());
+
+            if (compilePath == null) {
+                LOG.log(Level.WARNING, "No compile CP found in {0}", sourceRoot);
+                return null;
+            }
+            List<String> auxClasspath = new ArrayList<>();
+            for (ClassPath.Entry entry : compilePath.entries()) {
+                URL url = CompileOnSaveHelper.forClassPathEntry(entry.getURL()).binaryRoot(false);
+                File checkFile = FileUtil.archiveOrDirForURL(url);
+                if (checkFile != null && checkFile.exists()) {
+                    LOG.log(Level.FINER, "addAuxClasspathEntry: {0}", checkFile);
+                    auxClasspath.add(checkFile.getAbsolutePath());
+                } else {
+                    LOG.log(Level.WARNING, "Bad file on auxiliary classpath: {0}", checkFile);
+                }
+            }
+            return new RootContext(sourceDirs, binaryRoot, auxClasspath);
+        } catch (Exception x) {
+            LOG.log(Level.INFO, null, x);
+            return null;
+        }
+    }
+
+    static final class RootContext {
+
+        private final List<String> sourceDirs;
+        private final File binaryRoot;
+        private final List<String> auxClasspath;
+
+        private RootContext(List<String> sourceDirs, File binaryRoot, List<String> auxClasspath) {
+            this.sourceDirs = Collections.unmodifiableList(sourceDirs);
+            this.binaryRoot = binaryRoot;
+            this.auxClasspath = Collections.unmodifiableList(auxClasspath);
+        }
+
+        List<String> getSourceDirs() {
+            return sourceDirs;
+        }
+
+        File getBinaryRoot() {
+            return binaryRoot;
+        }
+
+        List<String> getAuxClasspath() {
+            return auxClasspath;
+        }
+    }
+}
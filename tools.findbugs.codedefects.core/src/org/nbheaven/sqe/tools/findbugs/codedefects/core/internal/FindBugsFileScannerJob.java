@@ -18,14 +18,11 @@
 package org.nbheaven.sqe.tools.findbugs.codedefects.core.internal;
 
 import java.io.File;
-import java.net.URL;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.nbheaven.sqe.core.java.utils.CompileOnSaveHelper;
 import org.netbeans.api.java.classpath.ClassPath;
 import org.netbeans.api.project.Project;
 import org.openide.filesystems.FileObject;
-import org.openide.filesystems.FileUtil;
 
 /**
  *
@@ -36,10 +33,17 @@ class FindBugsFileScannerJob extends FindBugsScannerJob {
     private static final Logger LOG = Logger.getLogger(FindBugsFileScannerJob.class.getName());
 
     private final FileObject sourceFile;
+    private final FindBugsFileScanContext context;
 
-    FindBugsFileScannerJob(Project project, FileObject sourceFile) {
+    FindBugsFileScannerJob(Project project, FileObject sourceFile, FindBugsFileScanContext context) {
         super(project);
         this.sourceFile = sourceFile;
+        this.context = context;
+    }
+
+    @Override
+    protected Object getCoalescingKey() {
+        return sourceFile;
     }
 
     @Override
@@ -50,61 +54,38 @@ class FindBugsFileScannerJob extends FindBugsScannerJob {
         if (sourcePath == null) {
             return fibuProject;
         }
-        for (FileObject sourceRoot : sourcePath.getRoots()) {
-            File sourceRootF = FileUtil.toFile(sourceRoot);
-            if (sourceRootF != null) {
-                // XXX this does not seem to suffice to suppress "unread field" on a field used from another class
-                LOG.log(Level.FINER, "addSourceDir: {0}", sourceRootF);
-                fibuProject.addSourceDir(sourceRootF.getAbsolutePath());
-            }
-        }
         FileObject sourceRoot = sourcePath.findOwnerRoot(sourceFile);
+        FindBugsFileScanContext.RootContext rootContext = null == context
+                ? FindBugsFileScanContext.createRootContext(sourceRoot, sourcePath, ClassPath.getClassPath(sourceRoot, ClassPath.COMPILE))
+                : context.getRootContext(sourceRoot, sourcePath);
+        if (null == rootContext) {
+            return null;
+        }
+        for (String sourceDir : rootContext.getSourceDirs()) {
+            fibuProject.addSourceDir(sourceDir);
+        }
 
         String binaryName = sourcePath.getResourceName(sourceFile, '/', false); // "org/foo/MyClass"
-        try {
-            URL binaryRootU = CompileOnSaveHelper.forSourceRoot(sourceRoot).binaryRoot(false);
-            if (binaryRootU != null && binaryRootU.getProtocol().equals("file")) {
-                File binaryRoot = new File(binaryRootU.toURI());
-                File clazz = new File(binaryRoot, binaryName + ".class");
-                if (clazz.isFile()) {
-                    LOG.log(Level.FINE, "addFile: {0}", clazz);
-                    fibuProject.addFile(clazz.getAbsolutePath());
-                    // Also check for nested classes:
-                    for (File kid : clazz.getParentFile().listFiles()) {
-                        String n = kid.getName();
-                        if (n.endsWith(".class") && n.startsWith(binaryName.replaceFirst(".+/", "") + "$")) {
-                            LOG.log(Level.FINE, "addFile: {0}", kid);
-                            fibuProject.addFile(kid.getAbsolutePath());
-                        }
-                    }
-                } else {
-                    LOG.log(Level.WARNING, "No such file {0}", clazz);
-                    return null;
+        File clazz = new File(rootContext.getBinaryRoot(), binaryName + ".class");
+        if (clazz.isFile()) {
+            LOG.log(Level.FINE, "addFile: {0}", clazz);
+            fibuProject.addFile(clazz.getAbsolutePath());
+            // Also check for nested classes:
+            for (File kid : clazz.getParentFile().listFiles()) {
+                String n = kid.getName();
+                if (n.endsWith(".class") && n.startsWith(binaryName.replaceFirst(".+/", "") + "$")) {
+                    LOG.log(Level.FINE, "addFile: {0}", kid);
+                    fibuProject.addFile(kid.getAbsolutePath());
                 }
-            } else {
-                LOG.log(Level.WARNING, "Bad or missing binary root {0} found for {1}", new Object[] {binaryRootU, sourceRoot});
-                return null;
-            }
-
-            ClassPath cp = ClassPath.getClassPath(sourceRoot, ClassPath.COMPILE);
-            if (cp == null) {
-                LOG.log(Level.WARNING, "No compile CP found in {0}", sourceRoot);
-                return null;
             }
-            for (ClassPath.Entry entry : cp.entries()) {
-                URL url = CompileOnSaveHelper.forClassPathEntry(entry.getURL()).binaryRoot(false);
-                File checkFile = FileUtil.archiveOrDirForURL(url);
-                if (checkFile != null && checkFile.exists()) {
-                    LOG.log(Level.FINER, "addAuxClasspathEntry: {0}", checkFile);
-                    fibuProject.addAuxClasspathEntry(checkFile.getAbsolutePath());
-                } else {
-                    LOG.log(Level.WARNING, "Bad file on auxiliary classpath: {0}", checkFile);
-                }
-            }
-        } catch (Exception x) {
-            LOG.log(Level.INFO, null, x);
+        } else {
+            LOG.log(Level.WARNING, "No such file {0}", clazz);
             return null;
         }
+
+        for (String auxClasspathEntry : rootContext.getAuxClasspath()) {
+            fibuProject.addAuxClasspathEntry(auxClasspathEntry);
+        }
         return fibuProject;
     }
 
@@ -0,0 +1,326 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.findbugs.codedefects.core.internal;
+
+import edu.umd.cs.findbugs.BugInstance;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.nbheaven.sqe.codedefects.core.util.Hashes;
+
+/**
+ * Remembers the class files and bug instances of the last project scan, so
+ * the next scan only has to analyze the classes that changed since then plus
+ * the classes directly referring to them. Everything else is put on the
+ * auxiliary classpath and its bug instances are taken over from the last
+ * scan.
+ * <p>
+ * The state is only kept in memory, so the first scan of a project after a
+ * restart of the IDE is a full scan.
+ *
+ * @author Sven Reimers
+ */
+final class FindBugsIncrementalState {
+
+    private static final Logger LOG = Logger.getLogger(FindBugsIncrementalState.class.getName());
+
+    private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([^;<>:\\[\\s]+)[;<]");     //NOI18N
+
+    private Object settingsKey;
+    private List<File> binaryRoots = Collections.emptyList();
+    private Map<File, ClassFileState> classFiles = Collections.emptyMap();
+    private Map<String, List<BugInstance>> bugsByClass = Collections.emptyMap();
+
+    /**
+     * Compares the class files currently found below the binary roots with
+     * the ones seen by the last scan.
+     *
+     * @param binaryRoots the binary roots of the project
+     * @param settingsKey something equal to the key of the last scan as long
+     * as the analysis settings did not change
+     * @return the classes to analyze, never <code>null</code>
+     */
+    synchronized Delta computeDelta(List<File> binaryRoots, Object settingsKey) {
+        boolean full = null == this.settingsKey
+                || !this.settingsKey.equals(settingsKey)
+                || !this.binaryRoots.equals(binaryRoots);
+        for (File root : binaryRoots) {
+            if (!root.isDirectory()) {
+                full = true;
+            }
+        }
+
+        Map<File, ClassFileState> current = new HashMap<>();
+        Set<String> changedClasses = new HashSet<>();
+        for (File root : binaryRoots) {
+            if (root.isDirectory()) {
+                collectClassFiles(root, root, full ? Collections.<File, ClassFileState>emptyMap() : classFiles, current, changedClasses);
+            }
+        }
+
+        Delta delta = new Delta(binaryRoots, settingsKey, current, full);
+        if (full) {
+            return delta;
+        }
+
+        for (Map.Entry<File, ClassFileState> entry : classFiles.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                changedClasses.add(entry.getValue().className);
+                delta.removedClasses.add(entry.getValue().className);
+            }
+        }
+        for (Map.Entry<File, ClassFileState> entry : current.entrySet()) {
+            ClassFileState state = entry.getValue();
+            if (changedClasses.contains(state.className) || !Collections.disjoint(state.references, changedClasses)) {
+                delta.classesToAnalyze.add(entry.getKey());
+                delta.analyzedClasses.add(state.className);
+            }
+        }
+        LOG.log(Level.FINE, "{0} of {1} classes changed, analyzing {2} classes",     //NOI18N
+                new Object[]{changedClasses.size(), current.size(), delta.classesToAnalyze.size()});
+        return delta;
+    }
+
+    /**
+     * @return the bug instances of the last scan for all classes not
+     * analyzed again
+     */
+    synchronized Collection<BugInstance> getRetainedBugs(Delta delta) {
+        if (delta.full) {
+            return Collections.emptyList();
+        }
+        Collection<BugInstance> retained = new ArrayList<>();
+        for (Map.Entry<String, List<BugInstance>> entry : bugsByClass.entrySet()) {
+            if (!delta.analyzedClasses.contains(entry.getKey()) && !delta.removedClasses.contains(entry.getKey())) {
+                retained.addAll(entry.getValue());
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Takes over the state of a successfully finished scan.
+     *
+     * @param delta the delta the scan was based on
+     * @param bugs all bug instances of the resulting scan result
+     */
+    synchronized void update(Delta delta, Collection<BugInstance> bugs) {
+        Map<String, List<BugInstance>> newBugsByClass = new HashMap<>();
+        for (BugInstance bugInstance : bugs) {
+            String className = bugInstance.getPrimaryClass().getClassName();
+            List<BugInstance> classBugs = newBugsByClass.get(className);
+            if (null == classBugs) {
+                classBugs = new ArrayList<>();
+                newBugsByClass.put(className, classBugs);
+            }
+            classBugs.add(bugInstance);
+        }
+        settingsKey = delta.settingsKey;
+        binaryRoots = delta.binaryRoots;
+        classFiles = delta.classFiles;
+        bugsByClass = newBugsByClass;
+    }
+
+    /**
+     * Forgets everything, the next scan will analyze all classes.
+     */
+    synchronized void reset() {
+        settingsKey = null;
+        binaryRoots = Collections.emptyList();
+        classFiles = Collections.emptyMap();
+        bugsByClass = Collections.emptyMap();
+    }
+
+    private static void collectClassFiles(File root, File folder, Map<File, ClassFileState> previous,
+            Map<File, ClassFileState> current, Set<String> changedClasses) {
+        File[] children = folder.listFiles();
+        if (null == children) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectClassFiles(root, child, previous, current, changedClasses);
+            } else if (child.getName().endsWith(".class")) {     //NOI18N
+                ClassFileState old = previous.get(child);
+                long modified = child.lastModified();
+                long length = child.length();
+                if (null != old && old.modified == modified && old.length == length) {
+                    current.put(child, old);
+                    continue;
+                }
+                ClassFileState state = readClassFile(root, child, modified, length);
+                current.put(child, state);
+                if (null == old || null == state.hash || !state.hash.equals(old.hash)) {
+                    changedClasses.add(state.className);
+                }
+            }
+        }
+    }
+
+    private static ClassFileState readClassFile(File root, File classFile, long modified, long length) {
+        String path = root.toURI().relativize(classFile.toURI()).getPath();
+        String className = path.substring(0, path.length() - ".class".length()).replace('/', '.');     //NOI18N
+        String hash = null;
+        Set<String> references = Collections.emptySet();
+        try {
+            byte[] content = Files.readAllBytes(classFile.toPath());
+            hash = Hashes.sha1(content);
+            references = readReferencedClasses(content);
+            references.remove(className);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Could not read " + classFile, ex);     //NOI18N
+        }
+        return new ClassFileState(className, modified, length, hash, references);
+    }
+
+    /**
+     * Collects the names of all classes mentioned in the constant pool of a
+     * class file, either as class constants or inside type descriptors.
+     */
+    static Set<String> readReferencedClasses(byte[] content) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");     //NOI18N
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        List<Integer> classNameIndexes = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndexes.add(in.readUnsignedShort());
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);     //NOI18N
+            }
+        }
+
+        Set<String> references = new HashSet<>();
+        for (int index : classNameIndexes) {
+            String name = utf8[index];
+            if (null != name && !name.startsWith("[")) {     //NOI18N
+                references.add(name.replace('/', '.'));
+            }
+        }
+        for (String value : utf8) {
+            if (null != value && value.indexOf(';') > 0) {
+                Matcher matcher = DESCRIPTOR_TYPE.matcher(value);
+                while (matcher.find()) {
+                    references.add(matcher.group(1).replace('/', '.'));
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * The outcome of comparing the current class files with the last scan.
+     */
+    static final class Delta {
+
+        private final List<File> binaryRoots;
+        private final Object settingsKey;
+        private final Map<File, ClassFileState> classFiles;
+        private final boolean full;
+        private final List<File> classesToAnalyze = new ArrayList<>();
+        private final Set<String> analyzedClasses = new HashSet<>();
+        private final Set<String> removedClasses = new HashSet<>();
+
+        private Delta(List<File> binaryRoots, Object settingsKey, Map<File, ClassFileState> classFiles, boolean full) {
+            this.binaryRoots = binaryRoots;
+            this.settingsKey = settingsKey;
+            this.classFiles = classFiles;
+            this.full = full;
+        }
+
+        /**
+         * @return true if all classes have to be analyzed
+         */
+        boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return the class files to analyze if this is not a full analysis
+         */
+        List<File> getClassesToAnalyze() {
+            return classesToAnalyze;
+        }
+    }
+
+    private static final class ClassFileState {
+
+        private final String className;
+        private final long modified;
+        private final long length;
+        private final String hash;
+        private final Set<String> references;
+
+        ClassFileState(String className, long modified, long length, String hash, Set<String> references) {
+            this.className = className;
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+            this.references = references;
+        }
+    }
+}
@@ -17,14 +17,19 @@
  */
 package org.nbheaven.sqe.tools.findbugs.codedefects.core.internal;
 
+import edu.umd.cs.findbugs.BugInstance;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.nbheaven.sqe.core.java.utils.CompileOnSaveHelper;
 import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
+import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
+import org.nbheaven.sqe.tools.findbugs.codedefects.core.settings.FindBugsSettings;
 import org.netbeans.api.java.classpath.ClassPath;
 import org.netbeans.api.java.source.ClasspathInfo;
 import org.netbeans.api.java.source.CompilationController;
@@ -43,22 +48,50 @@ class FindBugsProjectScannerJob extends FindBugsScannerJob {
     private static final Logger LOG = Logger.getLogger(FindBugsProjectScannerJob.class.getName());
 
     private final FindBugsSessionImpl findBugsSession;
+    private FindBugsIncrementalState.Delta delta;
 
     FindBugsProjectScannerJob(FindBugsSessionImpl session) {
         super(session.getProject());
         findBugsSession = session;
     }
 
+    @Override
+    protected void scan() {
+        findBugsSession.scanStartedInternal();
+        super.scan();
+    }
+
     @Override
     protected void postScan() {
-        findBugsSession.setResultInternal(getResult());
+        FindBugsResult result = getResult();
+        if (null != result) {
+            findBugsSession.setResultInternal(result);
+        }
         super.postScan();
         findBugsSession.scanningDone();
     }
 
+    @Override
+    protected void completeResult() {
+        if (null == delta || isCancelled()) {
+            // a cancelled scan leaves the state of the last scan untouched
+            return;
+        }
+        FindBugsIncrementalState incrementalState = findBugsSession.getIncrementalState();
+        if (isAnalysisCompleted() || (!delta.isFull() && delta.getClassesToAnalyze().isEmpty())) {
+            for (BugInstance bugInstance : incrementalState.getRetainedBugs(delta)) {
+                getResultImpl().add(bugInstance);
+            }
+            incrementalState.update(delta, getResultImpl().getBugInstances());
+        } else {
+            incrementalState.reset();
+        }
+    }
+
     @Override
     protected edu.umd.cs.findbugs.Project createFindBugsProject() {
         final edu.umd.cs.findbugs.Project fibuProject = new edu.umd.cs.findbugs.Project();
+        final List<File> binaryRoots = new ArrayList<>();
 
         for (SourceGroup g : ProjectUtilities.getJavaSourceGroups(getProject())) {
             final FileObject fo = g.getRootFolder();
@@ -85,8 +118,7 @@ class FindBugsProjectScannerJob extends FindBugsScannerJob {
                             LOG.warning("Skipping nonexistent binary entry " + checkFile);
                             return null;
                         }
-                        LOG.log(Level.FINE, "addFile: {0}", checkFile);
-                        fibuProject.addFile(checkFile.getAbsolutePath());
+                        binaryRoots.add(checkFile);
                     }
 
                     if (null != cp) {
@@ -130,6 +162,29 @@ class FindBugsProjectScannerJob extends FindBugsScannerJob {
             }
         }
 
+        delta = null;
+        if (FindBugsSettings.isIncrementalAnalysis()) {
+            delta = findBugsSession.getIncrementalState().computeDelta(binaryRoots, getSettingsKey());
+        }
+        if (null == delta || delta.isFull()) {
+            for (File binaryRoot : binaryRoots) {
+                LOG.log(Level.FINE, "addFile: {0}", binaryRoot);
+                fibuProject.addFile(binaryRoot.getAbsolutePath());
+            }
+        } else {
+            if (delta.getClassesToAnalyze().isEmpty()) {
+                LOG.fine("No classes changed since last scan");
+                return null;
+            }
+            for (File binaryRoot : binaryRoots) {
+                LOG.log(Level.FINER, "addAuxClasspathEntry: {0}", binaryRoot);
+                fibuProject.addAuxClasspathEntry(binaryRoot.getAbsolutePath());
+            }
+            for (File classFile : delta.getClassesToAnalyze()) {
+                LOG.log(Level.FINE, "addFile: {0}", classFile);
+                fibuProject.addFile(classFile.getAbsolutePath());
+            }
+        }
         return fibuProject;
     }
 
@@ -0,0 +1,117 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.findbugs.codedefects.core.internal;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.SAXBugCollectionHandler;
+import edu.umd.cs.findbugs.SortedBugCollection;
+import edu.umd.cs.findbugs.config.UserPreferences;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.nbheaven.sqe.codedefects.core.spi.QualityResultStore;
+import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
+import org.netbeans.api.project.Project;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Stores FindBugs project results in the XML format of FindBugs itself, which
+ * keeps all annotations of the bug instances.
+ *
+ * @author Sven Reimers
+ */
+final class FindBugsResultCodec implements QualityResultStore.Codec<FindBugsResult> {
+
+    private final Project project;
+
+    FindBugsResultCodec(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getSettingsFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        for (Object keyPart : FindBugsScannerJob.getSettingsKey(project)) {
+            if (keyPart instanceof UserPreferences) {
+                fingerprint.append(toString((UserPreferences) keyPart));
+            } else {
+                fingerprint.append(keyPart);
+            }
+            fingerprint.append('\n');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * The properties written by FindBugs in a stable order and without the
+     * timestamp comment.
+     */
+    private static String toString(UserPreferences preferences) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            preferences.write(bytes);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        String[] lines = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1).split("\r?\n");     //NOI18N
+        Arrays.sort(lines);
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            if (!line.startsWith("#")) {     //NOI18N
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void write(FindBugsResult result, DataOutputStream out) throws IOException {
+        SortedBugCollection bugCollection = new SortedBugCollection();
+        for (BugInstance bugInstance : ((FindBugsResultImpl) result).getBugInstances()) {
+            bugCollection.add(bugInstance, false);
+        }
+        bugCollection.writeXML(out);
+    }
+
+    @Override
+    public FindBugsResult read(DataInputStream in) throws IOException {
+        SortedBugCollection bugCollection = new SortedBugCollection();
+        SAXBugCollectionHandler handler = new SAXBugCollectionHandler(bugCollection);
+        try {
+            XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(handler);
+            reader.parse(new InputSource(in));
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException(ex);
+        }
+        FindBugsResultImpl result = new FindBugsResultImpl(project);
+        for (BugInstance bugInstance : bugCollection.getCollection()) {
+            result.add(bugInstance);
+        }
+        result.publish();
+        return result;
+    }
+}
@@ -20,27 +20,26 @@ package org.nbheaven.sqe.tools.findbugs.codedefects.core.internal;
 import edu.umd.cs.findbugs.BugInstance;
 import edu.umd.cs.findbugs.BugPattern;
 import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.HashMap;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.utils.FiBuUtil;
-import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import org.nbheaven.sqe.codedefects.core.api.CodeDefectSeverity;
-import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult.CategoryKey;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult.ClassKey;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult.PackageKey;
-import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsSession;
 import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileObject;
 import org.openide.util.ImageUtilities;
 import org.openide.util.Lookup;
 import org.openide.util.lookup.Lookups;
@@ -100,28 +99,22 @@ public final class FindBugsResultImpl implements FindBugsResult {
 
         public abstract Map<?, Collection<BugInstance>> getInstanceList(final FindBugsResultImpl result, boolean coreBugsOnly);
     }
-    private final Map<ClassKey, Collection<BugInstance>> instanceByClass = new TreeMap<>();
-    private final Map<PackageKey, Collection<BugInstance>> instanceByPackage = new TreeMap<>();
-    private final Map<CategoryKey, Collection<BugInstance>> instanceByCategory = new TreeMap<>();
-    private final Map<BugPattern, Collection<BugInstance>> instanceByType = new TreeMap<>();
-    private Map<ClassKey, Collection<BugInstance>> filteredInstanceByClass;
-    private Map<PackageKey, Collection<BugInstance>> filteredInstanceByPackage;
-    private Map<CategoryKey, Collection<BugInstance>> filteredInstanceByCategory;
-    private Map<BugPattern, Collection<BugInstance>> filteredInstanceByType;
-    private long bugCount = 0;
-    private long coreBugCount = 0;
-    private long infoBugCount = 0;
-    private long warningBugCount = 0;
-    private long errorBugCount = 0;
-    private Lookup lookup;
-    private final FindBugsSession session;
+
+    private final Project project;
+    private final Lookup lookup;
+    /**
+     * Collects the indexes while bugs are reported, <code>null</code> once
+     * the result is published.
+     */
+    private Index index = new Index();
+    private volatile Snapshot snapshot;
 
     /**
      * Creates a new instance of FindBugsResult
      */
     FindBugsResultImpl(Project project) {
         lookup = Lookups.singleton(this);
-        this.session = SQECodedefectSupport.retrieveSession(project, FindBugsSession.class);
+        this.project = project;
     }
 
     @Override
@@ -129,189 +122,306 @@ public final class FindBugsResultImpl implements FindBugsResult {
         return lookup;
     }
 
-    private <T> void removeAllBugInstancesForBugPattern(BugPattern bugPattern, Map<T, Collection<BugInstance>> mapToClear) {
-        for (Map.Entry<T, Collection<BugInstance>> entry : new HashMap<>(mapToClear).entrySet()) {
-            for (BugInstance bugInstance : new ArrayList<>(entry.getValue())) {
-                if (bugInstance.getBugPattern().equals(bugPattern)) {
-                    entry.getValue().remove(bugInstance);
-                }
-            }
-            if (entry.getValue().isEmpty()) {
-                mapToClear.remove(entry.getKey());
-            }
-        }
-    }
-
     @Override
-    public void removeAllBugInstancesForBugPattern(BugPattern bugPattern) {
-        if (null != instanceByType) {
-            removeAllBugInstancesForBugPattern(bugPattern, instanceByType);
-        }
-        if (null != instanceByCategory) {
-            removeAllBugInstancesForBugPattern(bugPattern, instanceByCategory);
-        }
-        if (null != instanceByClass) {
-            removeAllBugInstancesForBugPattern(bugPattern, instanceByClass);
+    public synchronized void removeAllBugInstancesForBugPattern(BugPattern bugPattern) {
+        boolean published = null == index;
+        Index remaining = new Index(published ? snapshot.classKeys : index.classKeys);
+        for (BugInstance bugInstance : published ? snapshot.bugInstances : index.bugInstances) {
+            if (!bugInstance.getBugPattern().equals(bugPattern)) {
+                remaining.add(bugInstance, project);
+            }
         }
-        if (null != instanceByPackage) {
-            removeAllBugInstancesForBugPattern(bugPattern, instanceByPackage);
+        if (published) {
+            snapshot = new Snapshot(remaining);
+        } else {
+            index = remaining;
         }
 
 //        session.resultChanged(null, this);//TODO
     }
 
-    private final Collection<BugInstance> storageOnly = new ArrayList<>();
-    private final AtomicBoolean initialized = new AtomicBoolean(Boolean.FALSE);
+    /**
+     * Indexes the bug right away, called on the scanner thread while the
+     * analysis is running.
+     */
+    protected synchronized void add(final BugInstance bugInstance) {
+        if (null == index) {
+            throw new IllegalStateException("Result is already published");     //NOI18N
+        }
+        index.add(bugInstance, project);
+    }
+
+    /**
+     * Freezes the indexes built so far into an immutable snapshot, no more
+     * bugs can be added afterwards.
+     */
+    synchronized void publish() {
+        if (null == snapshot) {
+            snapshot = new Snapshot(index);
+            index = null;
+        }
+    }
 
-    protected void add(final BugInstance bugInstance) {
-        storageOnly.add(bugInstance);
+    /**
+     * @return the published state, or a copy of the bugs reported so far if
+     * the result is not published yet, reading never publishes it
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        return null != current ? current : getSnapshotInProgress();
     }
 
-    private synchronized void reallyUpdateMaps() {
-        if (initialized.compareAndSet(false, true)) {
-            for (BugInstance bugInstance : storageOnly) {
-                bugCount++;
-                if (FiBuUtil.isBugPatternIssuedFromCore(bugInstance.getBugPattern())) {
-                    coreBugCount++;
-                }
-                // register by classname
-                ClassKey classKey = new ClassKey(bugInstance.getPrimaryClass(), session.getProject());
-                Collection<BugInstance> listByClass = instanceByClass.get(classKey);
-                if (null == listByClass) {
-                    listByClass = new ArrayList<BugInstance>();
-                    instanceByClass.put(classKey, listByClass);
-                }
-                listByClass.add(bugInstance);
-
-                // register by packagename
-                PackageKey packageKey = new PackageKey(bugInstance.getPrimaryClass());
-                Collection<BugInstance> listByPackage = instanceByPackage.get(packageKey);
-                if (null == listByPackage) {
-                    listByPackage = new ArrayList<BugInstance>();
-                    instanceByPackage.put(packageKey, listByPackage);
-                }
-                listByPackage.add(bugInstance);
-
-                // register by category
-                CategoryKey categoryKey = new CategoryKey(bugInstance.getBugPattern());
-                Collection<BugInstance> listByCategory = instanceByCategory.get(categoryKey);
-                if (null == listByCategory) {
-                    listByCategory = new ArrayList<BugInstance>();
-                    instanceByCategory.put(categoryKey, listByCategory);
-                }
-                listByCategory.add(bugInstance);
-
-                // register by category
-                Collection<BugInstance> listByType = instanceByType.get(bugInstance.getBugPattern());
-                if (null == listByType) {
-                    listByType = new ArrayList<>();
-                    instanceByType.put(bugInstance.getBugPattern(), listByType);
-                }
-                listByType.add(bugInstance);
-
-                switch (bugInstance.getPriority()) {
-                    case Priorities.HIGH_PRIORITY:
-                        errorBugCount++;
-                        break;
-                    case Priorities.NORMAL_PRIORITY:
-                        warningBugCount++;
-                        break;
-                    default:
-                        infoBugCount++;
-                        break;
-                }
-            }
+    private synchronized Snapshot getSnapshotInProgress() {
+        if (null != snapshot) {
+            return snapshot;
         }
+        return new Snapshot(index.copy(project));
+    }
+
+    /**
+     * @return all bug instances added to this result
+     */
+    synchronized Collection<BugInstance> getBugInstances() {
+        return null != index ? Collections.unmodifiableList(index.bugInstances) : snapshot.bugInstances;
     }
 
     @Override
     public Map<ClassKey, Collection<BugInstance>> getInstanceByClass(boolean coreBugsOnly) {
-        reallyUpdateMaps();
-        if (coreBugsOnly) {
-            if (null == filteredInstanceByClass) {
-                filteredInstanceByClass = createFilteredMap(instanceByClass);
-            }
-            return filteredInstanceByClass;
-        } else {
-            return instanceByClass;
-        }
+        return getSnapshot().instanceByClass.get(coreBugsOnly);
     }
 
     @Override
     public Map<PackageKey, Collection<BugInstance>> getInstanceByPackage(boolean coreBugsOnly) {
-        reallyUpdateMaps();
-        if (coreBugsOnly) {
-            if (null == filteredInstanceByPackage) {
-                filteredInstanceByPackage = createFilteredMap(instanceByPackage);
-            }
-            return filteredInstanceByPackage;
-        } else {
-            return instanceByPackage;
-        }
+        return getSnapshot().instanceByPackage.get(coreBugsOnly);
     }
 
     @Override
     public Map<CategoryKey, Collection<BugInstance>> getInstanceByCategory(boolean coreBugsOnly) {
-        reallyUpdateMaps();
-        if (coreBugsOnly) {
-            if (null == filteredInstanceByCategory) {
-                filteredInstanceByCategory = createFilteredMap(instanceByCategory);
-            }
-            return filteredInstanceByCategory;
-        } else {
-            return instanceByCategory;
-        }
+        return getSnapshot().instanceByCategory.get(coreBugsOnly);
     }
 
     @Override
     public Map<BugPattern, Collection<BugInstance>> getInstanceByType(boolean coreBugsOnly) {
-        reallyUpdateMaps();
-        if (coreBugsOnly) {
-            if (null == filteredInstanceByType) {
-                filteredInstanceByType = createFilteredMap(instanceByType);
-            }
-            return filteredInstanceByType;
-        } else {
-            return instanceByType;
-        }
+        return getSnapshot().instanceByType.get(coreBugsOnly);
     }
 
-    private <T> Map<T, Collection<BugInstance>> createFilteredMap(Map<T, Collection<BugInstance>> originalMap) {
-        Map<T, Collection<BugInstance>> filteredMap = new TreeMap<>();
-        originalMap.entrySet().stream().forEach((entry) -> filteredMap.put(entry.getKey(), new FilteredCollection<>(entry.getValue())));
-        return filteredMap;
+    @Override
+    public Map<FileObject, Collection<BugInstance>> getInstanceByFile(boolean coreBugsOnly) {
+        return getSnapshot().instanceByFile.get(coreBugsOnly);
     }
 
     @Override
     public long getCodeDefectCount(boolean isFilterOn) {
-        reallyUpdateMaps();
+        Snapshot current = getSnapshot();
         if (isFilterOn) {
-            return coreBugCount;
+            return current.coreBugCount;
         }
-        return bugCount;
+        return current.bugInstances.size();
     }
 
     @Override
     public long getCodeDefectCountSum() {
-        reallyUpdateMaps();
-        return bugCount;
+        return getSnapshot().bugInstances.size();
     }
 
     @Override
     public long getCodeDefectCount(CodeDefectSeverity severity) {
-        reallyUpdateMaps();
+        Snapshot current = getSnapshot();
         if (CodeDefectSeverity.INFO == severity) {
-            return infoBugCount;
+            return current.infoBugCount;
         }
         if (CodeDefectSeverity.WARNING == severity) {
-            return warningBugCount;
+            return current.warningBugCount;
         }
         if (CodeDefectSeverity.ERROR == severity) {
-            return errorBugCount;
+            return current.errorBugCount;
         }
 
         return 0;
     }
+
+    @Override
+    public void report(Reporter reporter) {
+        for (Map.Entry<FileObject, Collection<BugInstance>> entry : getInstanceByFile(false).entrySet()) {
+            for (BugInstance bugInstance : entry.getValue()) {
+                SourceLineAnnotation sourceLine = bugInstance.getPrimarySourceLineAnnotation();
+                reporter.codeDefect(entry.getKey(), null != sourceLine ? sourceLine.getStartLine() : -1,
+                        getSeverity(bugInstance), bugInstance.getType(), bugInstance.getMessage());
+            }
+        }
+    }
+
+    private static CodeDefectSeverity getSeverity(BugInstance bugInstance) {
+        switch (bugInstance.getPriority()) {
+            case Priorities.HIGH_PRIORITY:
+                return CodeDefectSeverity.ERROR;
+            case Priorities.NORMAL_PRIORITY:
+                return CodeDefectSeverity.WARNING;
+            default:
+                return CodeDefectSeverity.INFO;
+        }
+    }
+
+    /**
+     * Mutable indexes filled while bugs are reported.
+     */
+    private static final class Index {
+
+        private final List<BugInstance> bugInstances = new ArrayList<>();
+        private final Map<String, ClassKey> classKeys;
+        private final Grouping<ClassKey> instanceByClass = new Grouping<>();
+        private final Grouping<PackageKey> instanceByPackage = new Grouping<>();
+        private final Grouping<CategoryKey> instanceByCategory = new Grouping<>();
+        private final Grouping<BugPattern> instanceByType = new Grouping<>();
+        private final Grouping<FileObject> instanceByFile = new Grouping<>(HashMap::new);
+        private long coreBugCount;
+        private long infoBugCount;
+        private long warningBugCount;
+        private long errorBugCount;
+
+        Index() {
+            this(Collections.<String, ClassKey>emptyMap());
+        }
+
+        /**
+         * @param classKeys keys already resolved, looking up the file of a
+         * class is expensive
+         */
+        Index(Map<String, ClassKey> classKeys) {
+            this.classKeys = new HashMap<>(classKeys);
+        }
+
+        /**
+         * @return an index of the same bugs, not affected by adding more
+         * bugs to this one
+         */
+        Index copy(Project project) {
+            Index copy = new Index(classKeys);
+            for (BugInstance bugInstance : bugInstances) {
+                copy.add(bugInstance, project);
+            }
+            return copy;
+        }
+
+        void add(BugInstance bugInstance, Project project) {
+            bugInstances.add(bugInstance);
+            boolean core = FiBuUtil.isBugPatternIssuedFromCore(bugInstance.getBugPattern());
+            if (core) {
+                coreBugCount++;
+            }
+            String className = bugInstance.getPrimaryClass().getClassName();
+            ClassKey classKey = classKeys.get(className);
+            if (null == classKey) {
+                classKey = new ClassKey(bugInstance.getPrimaryClass(), project);
+                classKeys.put(className, classKey);
+            }
+            instanceByClass.add(classKey, bugInstance, core);
+            instanceByPackage.add(new PackageKey(bugInstance.getPrimaryClass()), bugInstance, core);
+            instanceByCategory.add(new CategoryKey(bugInstance.getBugPattern()), bugInstance, core);
+            instanceByType.add(bugInstance.getBugPattern(), bugInstance, core);
+            if (null != classKey.getFileObject()) {
+                instanceByFile.add(classKey.getFileObject(), bugInstance, core);
+            }
+
+            switch (bugInstance.getPriority()) {
+                case Priorities.HIGH_PRIORITY:
+                    errorBugCount++;
+                    break;
+                case Priorities.NORMAL_PRIORITY:
+                    warningBugCount++;
+                    break;
+                default:
+                    infoBugCount++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Bugs grouped by a key, once for all bugs and once for bugs of core
+     * detectors only. A key is present in both maps even if none of its bugs
+     * stems from a core detector.
+     */
+    private static final class Grouping<K> {
+
+        private final Map<K, Collection<BugInstance>> all;
+        private final Map<K, Collection<BugInstance>> core;
+
+        Grouping() {
+            this(TreeMap::new);
+        }
+
+        /**
+         * @param mapFactory creates the maps, for keys without a natural
+         * order
+         */
+        Grouping(Supplier<Map<K, Collection<BugInstance>>> mapFactory) {
+            all = mapFactory.get();
+            core = mapFactory.get();
+        }
+
+        void add(K key, BugInstance bugInstance, boolean coreBug) {
+            all.computeIfAbsent(key, k -> new ArrayList<>()).add(bugInstance);
+            Collection<BugInstance> coreBugs = core.computeIfAbsent(key, k -> new ArrayList<>());
+            if (coreBug) {
+                coreBugs.add(bugInstance);
+            }
+        }
+    }
+
+    /**
+     * The immutable state of a published result.
+     */
+    private static final class Snapshot {
+
+        private final List<BugInstance> bugInstances;
+        private final Map<String, ClassKey> classKeys;
+        private final FrozenGrouping<ClassKey> instanceByClass;
+        private final FrozenGrouping<PackageKey> instanceByPackage;
+        private final FrozenGrouping<CategoryKey> instanceByCategory;
+        private final FrozenGrouping<BugPattern> instanceByType;
+        private final FrozenGrouping<FileObject> instanceByFile;
+        private final long coreBugCount;
+        private final long infoBugCount;
+        private final long warningBugCount;
+        private final long errorBugCount;
+
+        Snapshot(Index index) {
+            bugInstances = Collections.unmodifiableList(index.bugInstances);
+            classKeys = index.classKeys;
+            instanceByClass = new FrozenGrouping<>(index.instanceByClass);
+            instanceByPackage = new FrozenGrouping<>(index.instanceByPackage);
+            instanceByCategory = new FrozenGrouping<>(index.instanceByCategory);
+            instanceByType = new FrozenGrouping<>(index.instanceByType);
+            instanceByFile = new FrozenGrouping<>(index.instanceByFile);
+            coreBugCount = index.coreBugCount;
+            infoBugCount = index.infoBugCount;
+            warningBugCount = index.warningBugCount;
+            errorBugCount = index.errorBugCount;
+        }
+    }
+
+    private static final class FrozenGrouping<K> {
+
+        private final Map<K, Collection<BugInstance>> all;
+        private final Map<K, Collection<BugInstance>> core;
+
+        FrozenGrouping(Grouping<K> grouping) {
+            all = freeze(grouping.all);
+            core = freeze(grouping.core);
+        }
+
+        Map<K, Collection<BugInstance>> get(boolean coreBugsOnly) {
+            return coreBugsOnly ? core : all;
+        }
+
+        private static <K> Map<K, Collection<BugInstance>> freeze(Map<K, Collection<BugInstance>> map) {
+            for (Map.Entry<K, Collection<BugInstance>> entry : map.entrySet()) {
+                entry.setValue(Collections.unmodifiableCollection(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(map);
+        }
+    }
 //
 //    public abstract static class DisplayableKey<T extends DisplayableKey<?>> implements Comparable<T> {
 //
@@ -397,58 +507,4 @@ public final class FindBugsResultImpl implements FindBugsResult {
 //            return this.bugPattern.getCategory();
 //        }
 //    }
-
-    private static class FilteredCollection<T extends BugInstance> extends AbstractCollection<T> {
-
-        Collection<T> originalCollection;
-
-        public FilteredCollection(Collection<T> originalCollection) {
-            this.originalCollection = originalCollection;
-        }
-
-        @SuppressFBWarnings("DLS_DEAD_LOCAL_STORE")
-        @Override
-        public int size() {
-            int i = 0;
-            for (BugInstance instance : this) {
-                i++;
-            }
-            return i;
-        }
-
-        @Override
-        public Iterator<T> iterator() {
-            final Iterator<T> origIterator = originalCollection.iterator();
-            return new Iterator<T>() {
-
-                private T nextObject;
-                private boolean hasNext;
-
-                @Override
-                public T next() {
-                    if (hasNext) {
-                        return nextObject;
-                    }
-                    throw new NoSuchElementException();
-                }
-
-                @Override
-                public void remove() {
-                    throw new UnsupportedOperationException();
-                }
-
-                @Override
-                public boolean hasNext() {
-                    while (origIterator.hasNext()) {
-                        nextObject = origIterator.next();
-                        BugPattern bugPattern = nextObject.getBugPattern();
-                        if (FiBuUtil.isBugPatternIssuedFromCore(bugPattern)) {
-                            return (hasNext = true);
-                        }
-                    }
-                    return (hasNext = false);
-                }
-            };
-        }
-    }
 }
@@ -25,10 +25,16 @@ import edu.umd.cs.findbugs.NoClassesFoundToAnalyzeException;
 import edu.umd.cs.findbugs.Priorities;
 import edu.umd.cs.findbugs.config.UserPreferences;
 import edu.umd.cs.findbugs.filter.Filter;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.nbheaven.sqe.codedefects.core.spi.SQECodedefectScanner;
+import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsQualityProvider;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
 //import org.nbheaven.sqe.tools.findbugs.codedefects.core.Installer;
 //import org.nbheaven.sqe.tools.findbugs.codedefects.core.NbBugReporter;
@@ -46,12 +52,17 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
 
     private static final Logger LOG = Logger.getLogger(FindBugsScannerJob.class.getName());
 
+    private static final int MAX_CACHED_FILTERS = 16;
+    private static final Map<String, Filter> FILTERS = new HashMap<>();
+
     static {
         Installer.installPluginUpdater();
     }
 
     private edu.umd.cs.findbugs.Project findBugsProject;
     private FindBugsResultImpl findBugsResult;
+    private boolean analysisCompleted;
+    private Thread engineThread;
     private Project project;
 
     FindBugsScannerJob(Project project) {
@@ -63,6 +74,11 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
         return "FindBugs scanning " + ProjectUtils.getInformation(getProject()).getDisplayName();
     }
 
+    @Override
+    protected String getProviderId() {
+        return FindBugsQualityProvider.getDefault().getId();
+    }
+
     @Override
     protected void preScan() {
         super.preScan();
@@ -74,20 +90,101 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
         findBugsProject = createFindBugsProject();
         this.findBugsResult = new FindBugsResultImpl(getProject());
         executeFindBugs();
+        completeResult();
+        findBugsResult.publish();
+    }
+
+    /**
+     * Hook to add further bugs to the result of the analysis before it gets
+     * published.
+     */
+    protected void completeResult() {
     }
 
     final protected Project getProject() {
         return this.project;
     }
 
+    /**
+     * @return the result or <code>null</code> if the job was cancelled
+     */
     protected FindBugsResult getResult() {
+        return isCancelled() ? null : findBugsResult;
+    }
+
+    final FindBugsResultImpl getResultImpl() {
         return findBugsResult;
     }
 
+    /**
+     * @return true if the FindBugs engine ran through without being
+     * interrupted or failing
+     */
+    protected final boolean isAnalysisCompleted() {
+        return analysisCompleted;
+    }
+
+    /**
+     * @return a value equal to the one of an earlier scan as long as the
+     * analysis settings of the project did not change in between
+     */
+    protected final Object getSettingsKey() {
+        return getSettingsKey(getProject());
+    }
+
+    static List<Object> getSettingsKey(Project project) {
+        FindBugsSettingsProvider findBugsSettingsProvider = project.getLookup().lookup(FindBugsSettingsProvider.class);
+        if (null == findBugsSettingsProvider) {
+            return Arrays.<Object>asList(FindBugsSettings.getUserPreferences().clone());
+        }
+        return Arrays.<Object>asList(findBugsSettingsProvider.getFindBugsSettings().clone(),
+                getFilterKey(findBugsSettingsProvider.getIncludeFilter()),
+                getFilterKey(findBugsSettingsProvider.getExcludeFilter()));
+    }
+
+    /**
+     * Parsed filters are kept as long as the filter file does not change.
+     */
+    private static Filter getFilter(String fileName) throws IOException {
+        String key = getFilterKey(fileName);
+        synchronized (FILTERS) {
+            Filter filter = FILTERS.get(key);
+            if (null == filter) {
+                filter = new Filter(fileName);
+                if (FILTERS.size() >= MAX_CACHED_FILTERS) {
+                    FILTERS.clear();
+                }
+                FILTERS.put(key, filter);
+            }
+            return filter;
+        }
+    }
+
+    private static String getFilterKey(String fileName) {
+        if (null == fileName) {
+            return null;
+        }
+        return fileName + '@' + new File(fileName).lastModified();
+    }
+
+    /**
+     * @return the project to analyze or <code>null</code> if there is nothing
+     * to analyze, in which case the FindBugs engine is not run and the result
+     * only holds what {@link #completeResult()} adds
+     */
     protected abstract edu.umd.cs.findbugs.Project createFindBugsProject();
 
+    @Override
+    protected void cancelRequested() {
+        synchronized (this) {
+            if (null != engineThread) {
+                engineThread.interrupt();
+            }
+        }
+    }
+
     private void executeFindBugs() {
-        if (findBugsProject == null) {
+        if (findBugsProject == null || isCancelled()) {
             return;
         }
 
@@ -113,7 +210,7 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
             String includeFileName = findBugsSettingsProvider.getIncludeFilter();
             if (null != includeFileName) {
                 try {
-                    Filter filter = new Filter(includeFileName);
+                    Filter filter = getFilter(includeFileName);
                     textReporter = new FilterBugReporter(textReporter, filter, true);
                 } catch (IOException ioe) {
                     LOG.log(Level.INFO, null, ioe);
@@ -122,7 +219,7 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
             String excludeFileName = findBugsSettingsProvider.getExcludeFilter();
             if (null != excludeFileName) {
                 try {
-                    Filter filter = new Filter(excludeFileName);
+                    Filter filter = getFilter(excludeFileName);
                     textReporter = new FilterBugReporter(textReporter, filter, false);
                 } catch (IOException ioe) {
                     LOG.log(Level.INFO, null, ioe);
@@ -163,8 +260,16 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
 
         // Run the analysis!
         try {
+            synchronized (this) {
+                engineThread = Thread.currentThread();
+            }
+            if (isCancelled()) {
+                return;
+            }
             engine.execute();
+            analysisCompleted = true;
         } catch (NoClassesFoundToAnalyzeException ncftae) {
+            analysisCompleted = true;
             // TODO - do something interesting here
             // TODO - add something to the result...
             LOG.log(Level.FINE, "coming from a " + getClass().getName(), ncftae);
@@ -172,9 +277,18 @@ public abstract class FindBugsScannerJob extends SQECodedefectScanner.Job {
             LOG.log(Level.INFO, null, ex);
             // TODO - do something interesting here
         } catch (InterruptedException iex) {
-            LOG.log(Level.INFO, null, iex);
+            if (isCancelled()) {
+                LOG.log(Level.FINE, "FindBugs scan cancelled");
+            } else {
+                LOG.log(Level.INFO, null, iex);
+            }
             // TODO - do something interesting here
         } finally {
+            synchronized (this) {
+                engineThread = null;
+            }
+            // do not leave an interrupt of a late cancel behind
+            Thread.interrupted();
             progressCallback.getProgressHandle().finish();
         }
     }
@@ -23,7 +23,9 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.nbheaven.sqe.codedefects.core.api.QualitySession;
 import org.nbheaven.sqe.codedefects.core.spi.AbstractQualitySession;
+import org.nbheaven.sqe.codedefects.core.spi.QualityResultStore;
 import org.nbheaven.sqe.codedefects.core.spi.SQECodedefectScanner;
+import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
 import org.nbheaven.sqe.core.utilities.SQEProjectSupport;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsQualityProvider;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
@@ -52,6 +54,10 @@ import org.openide.filesystems.FileObject;
 public class FindBugsSessionImpl extends AbstractQualitySession<FindBugsQualityProvider, FindBugsResult> implements FindBugsSession {
 
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private volatile FindBugsScannerJob projectScannerJob;
+    private final FindBugsIncrementalState incrementalState = new FindBugsIncrementalState();
+    private final FindBugsFileScanContext fileScanContext = new FindBugsFileScanContext();
+    private final FindBugsResultCodec resultCodec;
 
     /**
      * Creates a new instance of FindBugsSession
@@ -60,6 +66,7 @@ public class FindBugsSessionImpl extends AbstractQualitySession<FindBugsQualityP
      */
     public FindBugsSessionImpl(Project project) {
         super(FindBugsQualityProvider.getDefault(), project);
+        resultCodec = new FindBugsResultCodec(project);
     }
 
     private final Lock waitResultLock = new ReentrantLock();
@@ -74,16 +81,22 @@ public class FindBugsSessionImpl extends AbstractQualitySession<FindBugsQualityP
      */
     public static FindBugsResult computeResultAndWait(FileObject sourceFile) {
         Project project = SQEProjectSupport.findProjectByFileObject(sourceFile);
-        FindBugsScannerJob job = new FindBugsFileScannerJob(project, sourceFile);
+        FindBugsSession session = SQECodedefectSupport.retrieveSession(project, FindBugsSession.class);
+        FindBugsFileScanContext context = session instanceof FindBugsSessionImpl ? ((FindBugsSessionImpl) session).fileScanContext : null;
+        FindBugsScannerJob job = new FindBugsFileScannerJob(project, sourceFile, context);
         SQECodedefectScanner.postAndWait(job);
         return job.getResult();
     }
 
+    public static void cancelComputeResult(FileObject sourceFile) {
+        SQECodedefectScanner.cancel(FindBugsQualityProvider.getDefault().getId(), sourceFile);
+    }
+
     @Override
     public FindBugsResult computeResultAndWait() {
         waitResultLock.lock();
         try {
-            computeResult();
+            computeResult(SQECodedefectScanner.Priority.PROJECT);
             while (isRunning.get()) {
                 waitForResult.awaitUninterruptibly();
             }
@@ -95,10 +108,24 @@ public class FindBugsSessionImpl extends AbstractQualitySession<FindBugsQualityP
 
     @Override
     public void computeResult() {
+        computeResult(SQECodedefectScanner.Priority.PROJECT);
+    }
+
+    @Override
+    public void computeResultInBackground() {
+        computeResult(SQECodedefectScanner.Priority.BACKGROUND);
+    }
+
+    private void computeResult(SQECodedefectScanner.Priority priority) {
         if (!isRunning.getAndSet(true)) {
-            FindBugsScannerJob job = new FindBugsProjectScannerJob(this);
-            SQECodedefectScanner.post(job);
+            projectScannerJob = new FindBugsProjectScannerJob(this);
+            SQECodedefectScanner.post(projectScannerJob, priority);
         } else {
+            // raises the priority of a scan still waiting for execution
+            FindBugsScannerJob job = projectScannerJob;
+            if (null != job) {
+                SQECodedefectScanner.post(job, priority);
+            }
 //            System.out.println("FindBugs is already running - Skip call to computeResult()");
         }
     }
@@ -106,6 +133,7 @@ public class FindBugsSessionImpl extends AbstractQualitySession<FindBugsQualityP
     void scanningDone() {
         waitResultLock.lock();
         try {
+            projectScannerJob = null;
             isRunning.set(false);
             waitForResult.signalAll();
         } finally {
@@ -113,6 +141,19 @@ public class FindBugsSessionImpl extends AbstractQualitySession<FindBugsQualityP
         }
     }
 
+    FindBugsIncrementalState getIncrementalState() {
+        return incrementalState;
+    }
+
+    @Override
+    protected QualityResultStore.Codec<FindBugsResult> getResultCodec() {
+        return resultCodec;
+    }
+
+    void scanStartedInternal() {
+        scanStarted();
+    }
+
     void setResultInternal(FindBugsResult findBugsResult) {
         setResult(findBugsResult);
     }
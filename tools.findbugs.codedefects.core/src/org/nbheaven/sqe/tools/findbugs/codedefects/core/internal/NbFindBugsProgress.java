@@ -21,7 +21,6 @@ import edu.umd.cs.findbugs.FindBugsProgress;
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.project.Project;
 import org.netbeans.api.project.ProjectUtils;
-import org.openide.util.Cancellable;
 
 class NbFindBugsProgress implements FindBugsProgress {
 
@@ -82,21 +81,4 @@ class NbFindBugsProgress implements FindBugsProgress {
                 " - [" + stage + "] ");
     }
 
-    private static class CancelCallback implements Cancellable {
-
-        private boolean cancelled = false;
-
-        public CancelCallback() {
-        }
-
-        @Override
-        public boolean cancel() {
-            cancelled = true;
-            return true;
-        }
-
-        public boolean isCancelled() {
-            return cancelled;
-        }
-    }
 }
@@ -31,6 +31,7 @@ import java.io.IOException;
 
 import java.util.Iterator;
 import org.openide.modules.Places;
+import org.openide.util.NbPreferences;
 
 /**
  *
@@ -41,6 +42,19 @@ final public class FindBugsSettings {
     private static UserPreferences userPreferences;
     private static final File SETTINGS_DIR = new File(Places.getUserDirectory(), "config" + File.separatorChar + "findbugs");
     private static final String SETTINGS_FILE = "UserPreferences.findbugs";
+    private static final String INCREMENTAL_ANALYSIS = "incremental.analysis";
+
+    /**
+     * @return true if project scans analyze only the classes changed since
+     * the last scan and their direct dependents
+     */
+    public static boolean isIncrementalAnalysis() {
+        return NbPreferences.forModule(FindBugsSettings.class).getBoolean(INCREMENTAL_ANALYSIS, true);
+    }
+
+    public static void setIncrementalAnalysis(boolean incremental) {
+        NbPreferences.forModule(FindBugsSettings.class).putBoolean(INCREMENTAL_ANALYSIS, incremental);
+    }
 
     static public UserPreferences getUserPreferences() {
         if (null == userPreferences) {
@@ -33,11 +33,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.Document;
 import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
-import org.nbheaven.sqe.core.java.search.ClassElementDescriptor;
+import org.nbheaven.sqe.core.java.search.ElementDescriptor;
 import org.nbheaven.sqe.core.java.search.JavaElement;
-import org.nbheaven.sqe.core.java.search.MethodElementDescriptor;
 import org.nbheaven.sqe.core.java.search.SearchUtilities;
-import org.nbheaven.sqe.core.java.search.VariableElementDescriptor;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsSession;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.search.impl.ClassElementDescriptorImpl;
@@ -63,6 +61,9 @@ import org.openide.util.RequestProcessor;
 final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
 
     private static final RequestProcessor HINT_PROCESSOR = new RequestProcessor("FindBugs-Hint-Processor", 1);
+    private final RequestProcessor.Task computeTask = HINT_PROCESSOR.create(this::computeScheduledErrors);
+    private volatile FileObject scheduledFile;
+    private volatile Document scheduledDocument;
     private volatile List<ErrorDescription> errors;
 
     public FindBugsHintTask() {
@@ -70,7 +71,10 @@ final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
 
     @Override
     public void cancel() {
-        // TODO kill this
+        FileObject fileObject = scheduledFile;
+        if (null != fileObject) {
+            FindBugsSession.cancelComputeResult(fileObject);
+        }
     }
 
     @Override
@@ -83,14 +87,11 @@ final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
                     System.out.println("FindBugsHintTask: (calc) " + System.identityHashCode(fileObject));
                     final Document document = compilationInfo.getDocument();
                     if (null != document) {
-                        HINT_PROCESSOR.post(() -> {
-                            try {
-                                errors = computeErrors(fileObject, document);
-                                FindBugsHintTaskFactory.rescheduleFile(fileObject);
-                            } catch (Exception ex) {
-                                Exceptions.printStackTrace(ex);
-                            }
-                        });
+                        // a newer request replaces a pending or running one for this file
+                        FindBugsSession.cancelComputeResult(fileObject);
+                        scheduledFile = fileObject;
+                        scheduledDocument = document;
+                        computeTask.schedule(0);
                     } else {
                         errors = Collections.emptyList();
                     }
@@ -105,6 +106,24 @@ final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
         }
     }
 
+    private void computeScheduledErrors() {
+        FileObject fileObject = scheduledFile;
+        Document document = scheduledDocument;
+        try {
+            List<ErrorDescription> computedErrors = computeErrors(fileObject, document);
+            if (null != computedErrors) {
+                errors = computedErrors;
+                FindBugsHintTaskFactory.rescheduleFile(fileObject);
+            }
+        } catch (Exception ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * @return the errors found or <code>null</code> if the scan was
+     * cancelled or replaced by a newer one
+     */
     private static List<ErrorDescription> computeErrors(FileObject fileObject, Document document) throws Exception {
         FindBugsResult result = FindBugsSession.computeResultAndWait(fileObject);
 
@@ -112,23 +131,31 @@ final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
             List<ErrorDescription> computedErrors = new LinkedList<>();
             Project project = FileOwnerQuery.getOwner(fileObject);
 
-            // XXX see comment in ClassKey constructor
-            Map<FindBugsResult.ClassKey, Collection<BugInstance>> instanceByClass = result.getInstanceByClass(true);
-            instanceByClass.keySet().stream()
-                    .filter((classKey) -> (classKey.getFileObject().equals(fileObject)))
-                    .map((classKey) -> instanceByClass.get(classKey))
-                    .forEach((bugs) -> {
-                        computedErrors.addAll(createErrorDescription(project, fileObject, document, bugs));
-                    });
+            Collection<BugInstance> bugs = result.getInstanceByFile(true).get(fileObject);
+            if (null != bugs) {
+                computedErrors.addAll(createErrorDescription(project, fileObject, document, bugs));
+            }
 
             return computedErrors;
         }
-        return Collections.emptyList();
+        return null;
     }
 
     private static List<ErrorDescription> createErrorDescription(Project project, FileObject file, Document document, Collection<BugInstance> bugs) {
+        // resolve the elements of all bugs in one go, per bug the most specific one found wins
+        List<List<ElementDescriptor>> candidates = new ArrayList<>(bugs.size());
+        List<ElementDescriptor> descriptors = new ArrayList<>();
+        for (BugInstance bugInstance : bugs) {
+            List<ElementDescriptor> bugCandidates = getElementDescriptors(bugInstance, project);
+            candidates.add(bugCandidates);
+            descriptors.addAll(bugCandidates);
+        }
+        Map<ElementDescriptor, JavaElement> elements = SearchUtilities.findElements(file, descriptors);
+
         List<ErrorDescription> errorDescriptions = new LinkedList<>();
+        int index = 0;
         for (final BugInstance bugInstance : bugs) {
+            List<ElementDescriptor> bugCandidates = candidates.get(index++);
             try {
                 int line = 0;
                 // Highest priority: return the first top level source line annotation
@@ -139,7 +166,13 @@ final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
                         break;
                     }
                 }
-                JavaElement findElement = locateElement(bugInstance, project);
+                JavaElement findElement = null;
+                for (ElementDescriptor candidate : bugCandidates) {
+                    findElement = elements.get(candidate);
+                    if (findElement != null) {
+                        break;
+                    }
+                }
                 if (line == 0) {
                     if (findElement != null) {
                         line = Math.max(1, findElement.getLine().getLineNumber() + 1);
@@ -162,32 +195,25 @@ final class FindBugsHintTask implements CancellableTask<CompilationInfo> {
         return errorDescriptions;
     }
 
-    private static JavaElement locateElement(BugInstance bugInstance, Project project) {
+    /**
+     * @return the descriptors of the elements a bug may be located at, most
+     * specific first
+     */
+    private static List<ElementDescriptor> getElementDescriptors(BugInstance bugInstance, Project project) {
+        List<ElementDescriptor> descriptors = new ArrayList<>(3);
         MethodAnnotation methodAnnotation = bugInstance.getPrimaryMethod();
         if (methodAnnotation != null) {
-            MethodElementDescriptor desc = new MethodElementDescriptorImpl(bugInstance.getPrimaryClass(), methodAnnotation, project);
-            JavaElement e = SearchUtilities.findMethodElement(desc);
-            if (e != null) {
-                return e;
-            }
+            descriptors.add(new MethodElementDescriptorImpl(bugInstance.getPrimaryClass(), methodAnnotation, project));
         }
         FieldAnnotation fieldAnnotation = bugInstance.getPrimaryField();
         if (fieldAnnotation != null) {
-            VariableElementDescriptor desc = new VariableElementDescriptorImpl(bugInstance.getPrimaryClass(), fieldAnnotation, project);
-            JavaElement e = SearchUtilities.findVariableElement(desc);
-            if (e != null) {
-                return e;
-            }
+            descriptors.add(new VariableElementDescriptorImpl(bugInstance.getPrimaryClass(), fieldAnnotation, project));
         }
         ClassAnnotation classAnnotation = bugInstance.getPrimaryClass();
         if (classAnnotation != null) {
-            ClassElementDescriptor desc = new ClassElementDescriptorImpl(classAnnotation, project);
-            JavaElement e = SearchUtilities.findClassElement(desc);
-            if (e != null) {
-                return e;
-            }
+            descriptors.add(new ClassElementDescriptorImpl(classAnnotation, project));
         }
-        return null;
+        return descriptors;
     }
 
 }
@@ -17,19 +17,21 @@
  */
 package org.nbheaven.sqe.tools.findbugs.codedefects.tasklist;
 
-import edu.umd.cs.findbugs.BugInstance;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import edu.umd.cs.findbugs.BugInstance;
 import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsResult;
 import org.nbheaven.sqe.tools.findbugs.codedefects.core.FindBugsSession;
-import org.nbheaven.sqe.core.java.search.SearchUtilities;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.FileOwnerQuery;
 import org.netbeans.api.project.Project;
@@ -37,107 +39,171 @@ import org.netbeans.spi.tasklist.PushTaskScanner;
 import org.netbeans.spi.tasklist.Task;
 import org.netbeans.spi.tasklist.TaskScanningScope;
 import org.openide.filesystems.FileObject;
+import org.openide.util.RequestProcessor;
 
 /**
+ * Pushes the bugs of the current FindBugs results to the tasklist.
+ * Tasks are pushed asynchronously: a cached result is pushed right away,
+ * otherwise a scan is started and its result pushed once available. Later
+ * results only update the files whose tasks changed.
  *
  * @author Sven Reimers
  */
 public class FindBugsTaskProvider extends PushTaskScanner {
 
+    private static final RequestProcessor TASK_PROCESSOR = new RequestProcessor("FindBugs-Task-Processor", 1);
+
+    private final Map<FindBugsSession, SessionTasks> sessionTasks = new HashMap<>();
+
     public FindBugsTaskProvider() {
         super("FindBugs", "FindBugs found Bugs", null);
     }
 
-    private final Map<FindBugsSession, ChangeListener<FindBugsResult>> listeners = new WeakHashMap<>();
-
     @Override
-    public synchronized void setScope(TaskScanningScope taskScanningScope, final Callback callback) {
-        if (taskScanningScope == null) {
-            synchronized (listeners) {
-                for (Map.Entry<FindBugsSession, ChangeListener<FindBugsResult>> entry : listeners.entrySet()) {
-                    entry.getKey().getResultProperty().removeListener(entry.getValue());
-                }
-            }
+    public synchronized void setScope(TaskScanningScope taskScanningScope, Callback callback) {
+        for (SessionTasks tasks : sessionTasks.values()) {
+            tasks.detach();
+        }
+        sessionTasks.clear();
+        if (taskScanningScope == null || callback == null) {
             return;
         }
 
-        for (FileObject file : taskScanningScope.getLookup().lookupAll(FileObject.class)) {
-            if (JavaSource.forFileObject(file) == null) {
-                continue;
-            }
-            Project project = FileOwnerQuery.getOwner(file);
-            if (project == null) {
-                continue;
-            }
-            FindBugsSession qualitySession = SQECodedefectSupport.retrieveSession(project, FindBugsSession.class);
-            if (qualitySession == null) {
-                continue;
-            }
-            FindBugsResult result = getResult(qualitySession);
-            Map<FindBugsResult.ClassKey, Collection<BugInstance>> instanceByClass = result.getInstanceByClass(true);
-            Collection<String> classes = SearchUtilities.getFQNClassNames(file);
-            List<Task> tasks = new LinkedList<Task>();
-            for (String className : classes) {
-                for (FindBugsResult.ClassKey classKey : instanceByClass.keySet()) {
-                    if (classKey.getDisplayName().equals(className)) {
-                        Collection<BugInstance> bugs = instanceByClass.get(classKey);
-                        tasks.addAll(getTasks(bugs, file));
-                    }
+        for (FileObject fileObject : taskScanningScope.getLookup().lookupAll(FileObject.class)) {
+            if (null != JavaSource.forFileObject(fileObject)) {
+                FindBugsSession qualitySession = SQECodedefectSupport.retrieveSession(FileOwnerQuery.getOwner(fileObject), FindBugsSession.class);
+                if (null != qualitySession) {
+                    getSessionTasks(qualitySession, callback).addFile(fileObject);
                 }
             }
-            callback.setTasks(file, tasks);
         }
 
-        for (final Project project : taskScanningScope.getLookup().lookupAll(Project.class)) {
+        for (Project project : taskScanningScope.getLookup().lookupAll(Project.class)) {
             FindBugsSession qualitySession = SQECodedefectSupport.retrieveSession(project, FindBugsSession.class);
-            if (qualitySession == null) {
-                continue;
-            }
-            FindBugsResult result = getResult(qualitySession);
-            pushTasks(result, callback, project);
-            synchronized (listeners) {
-                ChangeListener<FindBugsResult> listener = listeners.get(qualitySession);
-                if (listener != null) {
-                    qualitySession.getResultProperty().removeListener(listener);
-                }
-                listener = new ChangeListener<FindBugsResult>() {
-                    @Override
-                    public void changed(ObservableValue<? extends FindBugsResult> observable, FindBugsResult oldValue, FindBugsResult newValue) {
-                        pushTasks(newValue, callback, project);
-                    }
-                };
-                listeners.put(qualitySession, listener);
-                qualitySession.getResultProperty().addListener(listener);
+            if (null != qualitySession) {
+                getSessionTasks(qualitySession, callback).addAllFiles();
             }
         }
 
+        for (SessionTasks tasks : sessionTasks.values()) {
+            tasks.attach();
+        }
     }
 
-    private void pushTasks(FindBugsResult result, Callback callback, Project project) {
-        List<Task> tasks = new LinkedList<Task>();
-        for (Map.Entry<FindBugsResult.ClassKey, Collection<BugInstance>> classEntry : result.getInstanceByClass(true).entrySet()) {
-            tasks.addAll(getTasks(classEntry.getValue(), classEntry.getKey().getFileObject()));
+    private SessionTasks getSessionTasks(FindBugsSession qualitySession, Callback callback) {
+        SessionTasks tasks = sessionTasks.get(qualitySession);
+        if (null == tasks) {
+            tasks = new SessionTasks(qualitySession, callback);
+            sessionTasks.put(qualitySession, tasks);
         }
-        // XXX shouldn't this break out tasks by file?
-        callback.setTasks(project.getProjectDirectory(), tasks);
+        return tasks;
     }
 
-    private List<Task> getTasks(Collection<BugInstance> bugs, final FileObject file) {
-        if (file == null) {
-            return Collections.emptyList();
-        }
-        List<Task> tasks = new LinkedList<Task>();
-        for (final BugInstance bugInstance : bugs) {
+    private static List<Task> getTasks(Collection<BugInstance> bugs, FileObject file) {
+        List<Task> tasks = new LinkedList<>();
+        for (BugInstance bugInstance : bugs) {
             tasks.add(Task.create(file, "sqe-tasklist-findbugs", bugInstance.getMessage(), bugInstance.getPrimarySourceLineAnnotation().getStartLine()));
         }
         return tasks;
     }
 
-    private FindBugsResult getResult(FindBugsSession qualitySession) {
-        FindBugsResult result = qualitySession.getResult();
-        if (null == result) {
-            result = qualitySession.computeResultAndWait();
+    /**
+     * @return what the tasks of the given bugs show, equal
+     * signatures mean equal tasks
+     */
+    private static List<String> getSignature(Collection<BugInstance> bugs) {
+        List<String> signature = new ArrayList<>(bugs.size());
+        for (BugInstance bugInstance : bugs) {
+            signature.add(bugInstance.getPrimarySourceLineAnnotation().getStartLine() + ":" + bugInstance.getMessage());
+        }
+        return signature;
+    }
+
+    /**
+     * The tasks pushed for the files of one session in the current scope.
+     */
+    private static final class SessionTasks implements ChangeListener<FindBugsResult> {
+
+        private final FindBugsSession qualitySession;
+        private final Callback callback;
+        /**
+         * The files in scope, <code>null</code> if the whole project is.
+         */
+        private Set<FileObject> files = new HashSet<>();
+        private Map<FileObject, List<String>> pushed;
+        private volatile boolean detached;
+
+        SessionTasks(FindBugsSession qualitySession, Callback callback) {
+            this.qualitySession = qualitySession;
+            this.callback = callback;
+        }
+
+        void addFile(FileObject fileObject) {
+            if (null != files) {
+                files.add(fileObject);
+            }
+        }
+
+        void addAllFiles() {
+            files = null;
+        }
+
+        void attach() {
+            qualitySession.getResultProperty().addListener(this);
+            TASK_PROCESSOR.post(() -> {
+                FindBugsResult result = qualitySession.getResult();
+                if (null != result) {
+                    push(result);
+                } else if (!detached) {
+                    qualitySession.computeResultInBackground();
+                }
+            });
+        }
+
+        void detach() {
+            detached = true;
+            qualitySession.getResultProperty().removeListener(this);
+        }
+
+        @Override
+        public void changed(ObservableValue<? extends FindBugsResult> observable, FindBugsResult oldValue, FindBugsResult newValue) {
+            if (null != newValue) {
+                TASK_PROCESSOR.post(() -> push(newValue));
+            }
+        }
+
+        private synchronized void push(FindBugsResult result) {
+            if (detached) {
+                return;
+            }
+            boolean initial = null == pushed;
+            if (initial) {
+                pushed = new HashMap<>();
+            }
+            Map<FileObject, Collection<BugInstance>> instanceByFile = result.getInstanceByFile(true);
+            Set<FileObject> targets = files;
+            if (null == targets) {
+                targets = new HashSet<>(instanceByFile.keySet());
+                targets.addAll(pushed.keySet());
+            }
+            for (FileObject file : targets) {
+                Collection<BugInstance> bugs = instanceByFile.get(file);
+                List<String> signature = null != bugs ? getSignature(bugs) : Collections.<String>emptyList();
+                List<String> previous = pushed.get(file);
+                boolean changed = initial
+                        // files asked for explicitly get their (maybe empty) tasks once
+                        ? null != files || !signature.isEmpty()
+                        : !signature.equals(null != previous ? previous : Collections.<String>emptyList());
+                if (!changed) {
+                    continue;
+                }
+                callback.setTasks(file, null != bugs ? getTasks(bugs, file) : Collections.<Task>emptyList());
+                if (signature.isEmpty()) {
+                    pushed.remove(file);
+                } else {
+                    pushed.put(file, signature);
+                }
+            }
         }
-        return result;
     }
 }
@@ -24,6 +24,7 @@ import javax.swing.ImageIcon;
 import net.sourceforge.pmd.RuleViolation;
 import net.sourceforge.pmd.Rule;
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
+import org.nbheaven.sqe.codedefects.core.api.QualityResultReport;
 import org.nbheaven.sqe.codedefects.core.api.QualityResultStatistic;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.annotations.RuleViolationAnnotationProcessor;
 import org.openide.filesystems.FileObject;
@@ -34,7 +35,7 @@ import org.openide.util.Lookup;
  *
  * @author Sven Reimers
  */
-public interface PMDResult extends QualityResult, Lookup.Provider, QualityResultStatistic {
+public interface PMDResult extends QualityResult, Lookup.Provider, QualityResultStatistic, QualityResultReport {
 
     public enum Mode {
 
@@ -87,6 +88,12 @@ public interface PMDResult extends QualityResult, Lookup.Provider, QualityResult
 
     public Map<PackageKey, Collection<RuleViolation>> getInstanceByPackage();
 
+    /**
+     * @return the rule violations grouped by the source file they were found
+     * in, violations of classes without a known source file are left out
+     */
+    public Map<FileObject, Collection<RuleViolation>> getInstanceByFile();
+
     public abstract static class DisplayableKey implements Comparable<DisplayableKey> {
 
         public abstract String getDisplayName();
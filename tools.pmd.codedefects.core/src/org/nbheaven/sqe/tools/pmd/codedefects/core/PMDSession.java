@@ -43,4 +43,12 @@ public interface PMDSession extends QualitySession {
     public static PMDResult computeResultAndWait(FileObject sourceFile) {
         return PMDSessionImpl.computeResultAndWait(sourceFile);
     }
+
+    /**
+     * Cancels a pending or running analysis of a single file started by
+     * {@link #computeResultAndWait(org.openide.filesystems.FileObject)}.
+     */
+    public static void cancelComputeResult(FileObject sourceFile) {
+        PMDSessionImpl.cancelComputeResult(sourceFile);
+    }
 }
@@ -18,13 +18,15 @@
 package org.nbheaven.sqe.tools.pmd.codedefects.core.annotations;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import net.sourceforge.pmd.RuleViolation;
 
 import org.nbheaven.sqe.codedefects.core.api.QualityResult;
 import org.nbheaven.sqe.codedefects.core.api.SQEAnnotationProcessor;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult;
 
-import org.nbheaven.sqe.core.java.search.SearchUtilities;
 import org.netbeans.api.java.classpath.GlobalPathRegistry;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.Project;
@@ -39,10 +41,7 @@ import org.openide.loaders.DataObjectNotFoundException;
 
 import org.openide.text.Line;
 import org.openide.text.Line.Part;
-import org.openide.text.Line.Set;
 
-import java.util.Map;
-import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult.ClassKey;
 import org.openide.cookies.LineCookie;
 
 /**
@@ -70,7 +69,7 @@ public final class RuleViolationAnnotationProcessor
         try {
             DataObject dao = DataObject.find(fo);
             LineCookie cookie = dao.getCookie(LineCookie.class);
-            Set lineset = cookie.getLineSet();
+            Line.Set lineset = cookie.getLineSet();
             int lineNum = ruleViolation.getBeginLine();
 
             return lineset.getOriginal(lineNum - 1);
@@ -82,7 +81,11 @@ public final class RuleViolationAnnotationProcessor
 
     private static void annotate(final RuleViolation ruleViolation,
             final Line line, Project project) {
-        PMDAnnotation annotation = PMDAnnotation.getNewInstance(project);
+        annotate(ruleViolation, line, PMDAnnotation.getNewInstance(project));
+    }
+
+    private static void annotate(final RuleViolation ruleViolation,
+            final Line line, PMDAnnotation annotation) {
         annotation.setErrorMessage(ruleViolation.getDescription() + " [" + ruleViolation.getRule().getName() + "]");
         Part linePart = line.createPart(ruleViolation.getBeginColumn(), ruleViolation.getEndColumn());
         annotation.attach(linePart);
@@ -127,10 +130,23 @@ public final class RuleViolationAnnotationProcessor
         final PMDResult result = (PMDResult) qualityResult;
 
         FileObject fileObject = javaSource.getFileObjects().iterator().next();
-        Collection<String> fqnClassNames = SearchUtilities.getFQNClassNames(fileObject);
-        for (String fqnClassName : fqnClassNames) {
-            annotateClass(fqnClassName, fileObject, project, result);
+        annotateFile(result.getInstanceByFile().get(fileObject), fileObject, project, false);
+    }
+
+    @Override
+    public void updateAnnotations(Collection<JavaSource> javaSources,
+            Project project, QualityResult oldResult, QualityResult newResult) {
+        assert newResult instanceof PMDResult : "Illegal session passed to AnnotationProcessor";
+
+        final PMDResult result = (PMDResult) newResult;
+
+        Set<FileObject> files = new HashSet<>();
+        for (JavaSource javaSource : javaSources) {
+            FileObject fileObject = javaSource.getFileObjects().iterator().next();
+            files.add(fileObject);
+            annotateFile(result.getInstanceByFile().get(fileObject), fileObject, project, true);
         }
+        PMDAnnotation.REGISTRY.clearAllExcept(project, files);
     }
 
     @Override
@@ -138,20 +154,27 @@ public final class RuleViolationAnnotationProcessor
         PMDAnnotation.clearAll(project);
     }
 
-    private void annotateClass(String className, FileObject fileObject, Project project, PMDResult result) {
-        Map<ClassKey, Collection<RuleViolation>> instanceMap = result.getInstanceByClass();
-        ClassKey classKey = new ClassKey(className);
-        Collection<RuleViolation> ruleViolations = instanceMap.get(classKey);
-        if (null != ruleViolations) {
-            for (RuleViolation ruleViolation : ruleViolations) {
-                try {
-                    Line line = getLineForRuleViolation(fileObject, ruleViolation);
-                    annotate(ruleViolation, line, project);
-                } catch (RuntimeException rex) {
-                    ErrorManager.getDefault().notify(rex);
-                }
+    /**
+     * Annotates the rule violations not yet annotated in the file.
+     *
+     * @param removeFixed whether to remove the annotations of violations no
+     * longer reported
+     */
+    private void annotateFile(Collection<RuleViolation> ruleViolations, FileObject fileObject, Project project, boolean removeFixed) {
+        Map<String, RuleViolation> added = PMDAnnotation.REGISTRY.update(project, fileObject, ruleViolations,
+                RuleViolationAnnotationProcessor::getFingerprint, removeFixed);
+        for (Map.Entry<String, RuleViolation> entry : added.entrySet()) {
+            try {
+                Line line = getLineForRuleViolation(fileObject, entry.getValue());
+                annotate(entry.getValue(), line, PMDAnnotation.getNewInstance(project, fileObject, entry.getKey()));
+            } catch (RuntimeException rex) {
+                ErrorManager.getDefault().notify(rex);
             }
         }
+    }
 
+    private static String getFingerprint(RuleViolation ruleViolation) {
+        return ruleViolation.getRule().getName() + ':' + ruleViolation.getBeginLine() + ':' + ruleViolation.getBeginColumn()
+                + ':' + ruleViolation.getEndLine() + ':' + ruleViolation.getEndColumn() + ':' + ruleViolation.getDescription();
     }
 }
@@ -0,0 +1,172 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.pmd.codedefects.core.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import net.sourceforge.pmd.Rule;
+import net.sourceforge.pmd.RuleViolation;
+
+/**
+ * RuleViolation restored from the {@link PMDResultCache}.
+ *
+ * @author Sven Reimers
+ */
+final class CachedRuleViolation implements RuleViolation {
+
+    private final Rule rule;
+    private final Data data;
+
+    CachedRuleViolation(Rule rule, Data data) {
+        this.rule = rule;
+        this.data = data;
+    }
+
+    @Override
+    public Rule getRule() {
+        return rule;
+    }
+
+    @Override
+    public String getDescription() {
+        return data.description;
+    }
+
+    @Override
+    public boolean isSuppressed() {
+        return data.suppressed;
+    }
+
+    @Override
+    public String getFilename() {
+        return data.filename;
+    }
+
+    @Override
+    public int getBeginLine() {
+        return data.beginLine;
+    }
+
+    @Override
+    public int getBeginColumn() {
+        return data.beginColumn;
+    }
+
+    @Override
+    public int getEndLine() {
+        return data.endLine;
+    }
+
+    @Override
+    public int getEndColumn() {
+        return data.endColumn;
+    }
+
+    @Override
+    public String getPackageName() {
+        return data.packageName;
+    }
+
+    @Override
+    public String getClassName() {
+        return data.className;
+    }
+
+    @Override
+    public String getMethodName() {
+        return data.methodName;
+    }
+
+    @Override
+    public String getVariableName() {
+        return data.variableName;
+    }
+
+    /**
+     * The rule independent part of a RuleViolation as stored on disk.
+     */
+    static final class Data {
+
+        private final String ruleName;
+        private final String description;
+        private final boolean suppressed;
+        private final String filename;
+        private final int beginLine;
+        private final int beginColumn;
+        private final int endLine;
+        private final int endColumn;
+        private final String packageName;
+        private final String className;
+        private final String methodName;
+        private final String variableName;
+
+        Data(RuleViolation ruleViolation) {
+            this(ruleViolation.getRule().getName(), ruleViolation.getDescription(), ruleViolation.isSuppressed(),
+                    ruleViolation.getFilename(), ruleViolation.getBeginLine(), ruleViolation.getBeginColumn(),
+                    ruleViolation.getEndLine(), ruleViolation.getEndColumn(), ruleViolation.getPackageName(),
+                    ruleViolation.getClassName(), ruleViolation.getMethodName(), ruleViolation.getVariableName());
+        }
+
+        private Data(String ruleName, String description, boolean suppressed, String filename,
+                int beginLine, int beginColumn, int endLine, int endColumn,
+                String packageName, String className, String methodName, String variableName) {
+            this.ruleName = ruleName;
+            this.description = description;
+            this.suppressed = suppressed;
+            this.filename = filename;
+            this.beginLine = beginLine;
+            this.beginColumn = beginColumn;
+            this.endLine = endLine;
+            this.endColumn = endColumn;
+            this.packageName = packageName;
+            this.className = className;
+            this.methodName = methodName;
+            this.variableName = variableName;
+        }
+
+        String getRuleName() {
+            return ruleName;
+        }
+
+        static Data read(DataInputStream in) throws IOException {
+            return new Data(in.readUTF(), in.readUTF(), in.readBoolean(), in.readUTF(),
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(ruleName);
+            out.writeUTF(nonNull(description));
+            out.writeBoolean(suppressed);
+            out.writeUTF(nonNull(filename));
+            out.writeInt(beginLine);
+            out.writeInt(beginColumn);
+            out.writeInt(endLine);
+            out.writeInt(endColumn);
+            out.writeUTF(nonNull(packageName));
+            out.writeUTF(nonNull(className));
+            out.writeUTF(nonNull(methodName));
+            out.writeUTF(nonNull(variableName));
+        }
+
+        private static String nonNull(String value) {
+            return null == value ? "" : value;
+        }
+    }
+}
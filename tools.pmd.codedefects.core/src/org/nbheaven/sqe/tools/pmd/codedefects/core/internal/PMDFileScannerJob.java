@@ -40,4 +40,9 @@ final class PMDFileScannerJob extends PMDScannerJob {
     protected void executePMD() {
         executePMD(fileObjects);
     }
+
+    @Override
+    protected Object getCoalescingKey() {
+        return 1 == fileObjects.size() ? fileObjects.get(0) : fileObjects;
+    }
 }
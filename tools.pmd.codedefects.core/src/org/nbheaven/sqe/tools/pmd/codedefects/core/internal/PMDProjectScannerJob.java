@@ -18,9 +18,13 @@
 package org.nbheaven.sqe.tools.pmd.codedefects.core.internal;
 
 import java.util.Collection;
+import java.util.HashSet;
+import net.sourceforge.pmd.RuleSets;
+import org.nbheaven.sqe.core.java.utils.ProjectUtilities;
+import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.PMDIncludes;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.PMDSettingsProvider;
-import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.impl.DefaultPMDIncludes;
+import org.netbeans.api.project.SourceGroup;
 import org.openide.filesystems.FileObject;
 
 /**
@@ -36,6 +40,12 @@ final class PMDProjectScannerJob extends PMDScannerJob {
         this.session = session;
     }
 
+    @Override
+    protected void scan() {
+        session.scanStartedInternal();
+        super.scan();
+    }
+
     @Override
     protected void executePMD() {
         PMDSettingsProvider prv = getProject().getLookup().lookup(PMDSettingsProvider.class);
@@ -47,16 +57,28 @@ final class PMDProjectScannerJob extends PMDScannerJob {
             }
         }
         if (includes == null) {
-            //default behaviour..
-            includes = new DefaultPMDIncludes(getProject()).getProjectIncludes();
+            //default behaviour, the same files as DefaultPMDIncludes but
+            //collected together with the other scanners
+            includes = new HashSet<>();
+            for (SourceGroup g : ProjectUtilities.getJavaSourceGroups(getProject())) {
+                includes.addAll(getSourceSnapshot().getJavaSourceFiles(g.getRootFolder()));
+            }
         }
         executePMD(includes);
 
     }
 
+    @Override
+    protected PMDResultCache createResultCache(RuleSets rules) {
+        return PMDResultCache.load(getProject(), rules);
+    }
+
     @Override
     protected final void postScan() {
-        session.setResultInternal(getPMDResult());
+        PMDResult result = getPMDResult();
+        if (null != result) {
+            session.setResultInternal(result);
+        }
         super.postScan();
         session.scanningDone();
     }
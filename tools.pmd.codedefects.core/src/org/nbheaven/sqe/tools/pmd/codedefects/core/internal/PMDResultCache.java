@@ -0,0 +1,219 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.pmd.codedefects.core.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sourceforge.pmd.PropertyDescriptor;
+import net.sourceforge.pmd.Rule;
+import net.sourceforge.pmd.RuleSets;
+import net.sourceforge.pmd.RuleViolation;
+import org.nbheaven.sqe.codedefects.core.util.Hashes;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectUtils;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Persistent per-project store of PMD rule violations. Entries are keyed by
+ * file path and content hash, the whole store is bound to the fingerprint of
+ * the active rules it was computed with.
+ *
+ * @author Sven Reimers
+ */
+final class PMDResultCache {
+
+    private static final Logger LOGGER = Logger.getLogger(PMDResultCache.class.getName());
+    private static final String CACHE_FILE = "pmd-violations.bin";
+    private static final int VERSION = 1;
+
+    private final Project project;
+    private final String ruleSetFingerprint;
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> updatedEntries = new HashMap<>();
+    private int hits;
+
+    private PMDResultCache(Project project, String ruleSetFingerprint, Map<String, Entry> entries) {
+        this.project = project;
+        this.ruleSetFingerprint = ruleSetFingerprint;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the store of the given project. Entries computed with a different
+     * rule set are dropped.
+     */
+    static PMDResultCache load(Project project, RuleSets rules) {
+        String fingerprint = fingerprint(rules);
+        Map<String, Entry> entries = new HashMap<>();
+        FileObject cacheFile = getCacheDirectory(project).getFileObject(CACHE_FILE);
+        if (null != cacheFile) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(cacheFile.getInputStream()))) {
+                if (VERSION == in.readInt() && fingerprint.equals(in.readUTF())) {
+                    int entryCount = in.readInt();
+                    for (int i = 0; i < entryCount; i++) {
+                        Entry entry = Entry.read(in);
+                        entries.put(entry.path, entry);
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.INFO, "Discarding unreadable PMD cache " + cacheFile, ex);     //NOI18N
+                entries.clear();
+            }
+        }
+        return new PMDResultCache(project, fingerprint, entries);
+    }
+
+    /**
+     * @return the cached violations for the given file or null if the file
+     * changed since it was last analyzed
+     */
+    synchronized Collection<RuleViolation> get(FileObject fileObject, String contentHash, RuleSets rules) {
+        Entry entry = entries.get(fileObject.getPath());
+        if (null == entry || !entry.contentHash.equals(contentHash)) {
+            return null;
+        }
+        List<RuleViolation> ruleViolations = new ArrayList<>(entry.violations.size());
+        for (CachedRuleViolation.Data data : entry.violations) {
+            Rule rule = rules.getRuleByName(data.getRuleName());
+            if (null == rule) {
+                return null;
+            }
+            ruleViolations.add(new CachedRuleViolation(rule, data));
+        }
+        updatedEntries.put(entry.path, entry);
+        hits++;
+        return ruleViolations;
+    }
+
+    synchronized void put(FileObject fileObject, String contentHash, Iterable<RuleViolation> ruleViolations) {
+        List<CachedRuleViolation.Data> violations = new ArrayList<>();
+        for (RuleViolation ruleViolation : ruleViolations) {
+            violations.add(new CachedRuleViolation.Data(ruleViolation));
+        }
+        Entry entry = new Entry(fileObject.getPath(), contentHash, violations);
+        updatedEntries.put(entry.path, entry);
+    }
+
+    synchronized int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Writes all entries touched during the current scan, files no longer part
+     * of the scan are dropped from the store.
+     */
+    synchronized void store() {
+        try {
+            FileObject cacheDir = getCacheDirectory(project);
+            FileObject cacheFile = cacheDir.getFileObject(CACHE_FILE);
+            if (null == cacheFile) {
+                cacheFile = cacheDir.createData(CACHE_FILE);
+            }
+            try (OutputStream os = cacheFile.getOutputStream();
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.writeInt(VERSION);
+                out.writeUTF(ruleSetFingerprint);
+                out.writeInt(updatedEntries.size());
+                for (Entry entry : updatedEntries.values()) {
+                    entry.write(out);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Failed to write PMD cache for " + ProjectUtils.getInformation(project).getName(), ex);     //NOI18N
+        }
+    }
+
+    /**
+     * @return a hash of every active rule including its implementation and
+     * the values of all its properties
+     */
+    static String fingerprint(RuleSets rules) {
+        TreeSet<String> ruleIds = new TreeSet<>();
+        for (Rule rule : rules.getAllRules()) {
+            StringBuilder ruleId = new StringBuilder();
+            ruleId.append(rule.getRuleSetName()).append('/').append(rule.getName())
+                    .append(':').append(rule.getPriority().getPriority())
+                    .append(':').append(rule.getRuleClass());
+            TreeSet<String> properties = new TreeSet<>();
+            for (PropertyDescriptor<?> descriptor : rule.getPropertyDescriptors()) {
+                properties.add(descriptor.name() + '=' + propertyValue(rule, descriptor));
+            }
+            ruleId.append(properties);
+            ruleIds.add(ruleId.toString());
+        }
+        return Hashes.sha1(String.join(",", ruleIds));
+    }
+
+    private static <T> String propertyValue(Rule rule, PropertyDescriptor<T> descriptor) {
+        T value = rule.getProperty(descriptor);
+        return null == value ? "" : descriptor.asDelimitedString(value);
+    }
+
+    private static FileObject getCacheDirectory(Project project) {
+        try {
+            return ProjectUtils.getCacheDirectory(project, PMDResultCache.class);
+        } catch (IOException ex) {
+            throw new IllegalStateException("No cache directory for " + project, ex);     //NOI18N
+        }
+    }
+
+    private static final class Entry {
+
+        private final String path;
+        private final String contentHash;
+        private final List<CachedRuleViolation.Data> violations;
+
+        Entry(String path, String contentHash, List<CachedRuleViolation.Data> violations) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.violations = violations;
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            String contentHash = in.readUTF();
+            int violationCount = in.readInt();
+            List<CachedRuleViolation.Data> violations = new ArrayList<>(violationCount);
+            for (int i = 0; i < violationCount; i++) {
+                violations.add(CachedRuleViolation.Data.read(in));
+            }
+            return new Entry(path, contentHash, violations);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeUTF(contentHash);
+            out.writeInt(violations.size());
+            for (CachedRuleViolation.Data data : violations) {
+                data.write(out);
+            }
+        }
+    }
+}
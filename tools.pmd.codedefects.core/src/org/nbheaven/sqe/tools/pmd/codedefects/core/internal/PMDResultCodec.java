@@ -0,0 +1,80 @@
+/* Copyright 2005,2006 Sven Reimers, Florian Vogler
+ *
+ * This file is part of the Software Quality Environment Project.
+ *
+ * The Software Quality Environment Project is free software:
+ * you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation,
+ * either version 2 of the License, or (at your option) any later version.
+ *
+ * The Software Quality Environment Project is distributed in the hope that
+ * it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nbheaven.sqe.tools.pmd.codedefects.core.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import net.sourceforge.pmd.Report;
+import net.sourceforge.pmd.Rule;
+import net.sourceforge.pmd.RuleSets;
+import net.sourceforge.pmd.RuleViolation;
+import org.nbheaven.sqe.codedefects.core.spi.QualityResultStore;
+import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult;
+import org.netbeans.api.project.Project;
+
+/**
+ * Stores PMD project results as the rule independent violation data also used
+ * by the {@link PMDResultCache}, rules are resolved against the active rules
+ * again on restore.
+ *
+ * @author Sven Reimers
+ */
+final class PMDResultCodec implements QualityResultStore.Codec<PMDResult> {
+
+    private final Project project;
+
+    PMDResultCodec(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public String getSettingsFingerprint() {
+        return PMDResultCache.fingerprint(getRules());
+    }
+
+    @Override
+    public void write(PMDResult result, DataOutputStream out) throws IOException {
+        Report report = ((PMDResultImpl) result).getReport();
+        out.writeInt(report.size());
+        for (Iterator<RuleViolation> it = report.iterator(); it.hasNext();) {
+            new CachedRuleViolation.Data(it.next()).write(out);
+        }
+    }
+
+    @Override
+    public PMDResult read(DataInputStream in) throws IOException {
+        RuleSets rules = getRules();
+        Report report = new Report();
+        int violationCount = in.readInt();
+        for (int i = 0; i < violationCount; i++) {
+            CachedRuleViolation.Data data = CachedRuleViolation.Data.read(in);
+            Rule rule = rules.getRuleByName(data.getRuleName());
+            if (null == rule) {
+                return null;
+            }
+            report.addRuleViolation(new CachedRuleViolation(rule, data));
+        }
+        return new PMDResultImpl(report);
+    }
+
+    private RuleSets getRules() {
+        return new RuleSets(PMDScannerJob.findSettings(project).getActiveRules());
+    }
+}
@@ -31,6 +31,7 @@ import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult.CategoryKey;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult.ClassKey;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult.PackageKey;
+import org.openide.filesystems.FileObject;
 import org.openide.util.Lookup;
 import org.openide.util.lookup.Lookups;
 
@@ -43,6 +44,7 @@ public final class PMDResultImpl implements PMDResult {
     private Map<ClassKey, Collection<RuleViolation>> instanceByClass;
     private Map<PackageKey, Collection<RuleViolation>> instanceByPackage;
     private Map<CategoryKey, Collection<RuleViolation>> instanceByType;
+    private Map<FileObject, Collection<RuleViolation>> instanceByFile;
     private Report report;
     private Lookup lookup;
 
@@ -59,6 +61,10 @@ public final class PMDResultImpl implements PMDResult {
         return lookup;
     }
 
+    Report getReport() {
+        return report;
+    }
+
     private void removeAllRuleViolationsForRule(Rule rule, Map<? extends Object, Collection<RuleViolation>> mapToClear) {
         for (Map.Entry<Object, Collection<RuleViolation>> entry : new HashMap<>(mapToClear).entrySet()) {
             for (RuleViolation ruleViolation : new ArrayList<>(entry.getValue())) {
@@ -83,6 +89,9 @@ public final class PMDResultImpl implements PMDResult {
         if (null != instanceByPackage) {
             removeAllRuleViolationsForRule(rule, instanceByPackage);
         }
+        if (null != instanceByFile) {
+            removeAllRuleViolationsForRule(rule, instanceByFile);
+        }
 //        session.resultChanged(null, this);
     }
 
@@ -160,6 +169,26 @@ public final class PMDResultImpl implements PMDResult {
         return instanceByPackage;
     }
 
+    @Override
+    public synchronized Map<FileObject, Collection<RuleViolation>> getInstanceByFile() {
+        if (null == instanceByFile) {
+            instanceByFile = new HashMap<>();
+            for (Map.Entry<ClassKey, Collection<RuleViolation>> entry : getInstanceByClass().entrySet()) {
+                FileObject fileObject = entry.getKey().getFileObject();
+                if (null != fileObject) {
+                    Collection<RuleViolation> ruleViolations = instanceByFile.get(fileObject);
+                    if (null == ruleViolations) {
+                        ruleViolations = new ArrayList<>();
+                        instanceByFile.put(fileObject, ruleViolations);
+                    }
+                    ruleViolations.addAll(entry.getValue());
+                }
+            }
+        }
+
+        return instanceByFile;
+    }
+
     public long getBugCount() {
         return report.size();
     }
@@ -184,4 +213,14 @@ public final class PMDResultImpl implements PMDResult {
         return 0;
     }
 
+    @Override
+    public void report(Reporter reporter) {
+        for (Map.Entry<FileObject, Collection<RuleViolation>> entry : getInstanceByFile().entrySet()) {
+            for (RuleViolation ruleViolation : entry.getValue()) {
+                reporter.codeDefect(entry.getKey(), ruleViolation.getBeginLine(), CodeDefectSeverity.INFO,
+                        ruleViolation.getRule().getName(), ruleViolation.getDescription());
+            }
+        }
+    }
+
 }
@@ -17,22 +17,45 @@
  */
 package org.nbheaven.sqe.tools.pmd.codedefects.core.internal;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.sourceforge.pmd.PMD;
 import net.sourceforge.pmd.PMDException;
 import net.sourceforge.pmd.Report;
 import net.sourceforge.pmd.RuleContext;
+import net.sourceforge.pmd.RuleSet;
+import net.sourceforge.pmd.RuleSetFactory;
+import net.sourceforge.pmd.RuleSetNotFoundException;
+import net.sourceforge.pmd.RuleSetReferenceId;
+import net.sourceforge.pmd.RuleSetWriter;
 import net.sourceforge.pmd.RuleSets;
+import net.sourceforge.pmd.RuleViolation;
 import net.sourceforge.pmd.lang.LanguageRegistry;
 import net.sourceforge.pmd.lang.LanguageVersion;
 import net.sourceforge.pmd.lang.java.JavaLanguageModule;
 import org.nbheaven.sqe.codedefects.core.spi.SQECodedefectScanner;
+import org.nbheaven.sqe.codedefects.core.spi.SourceSnapshot;
+import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDQualityProvider;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.PMDSettings;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.PMDSettingsProvider;
@@ -40,8 +63,9 @@ import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.impl.PMDSettingsImpl
 import org.netbeans.api.java.queries.SourceLevelQuery;
 import org.netbeans.api.project.Project;
 import org.netbeans.api.project.ProjectUtils;
-import org.netbeans.api.queries.FileEncodingQuery;
 import org.openide.filesystems.FileObject;
+import org.openide.util.Lookup;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -50,14 +74,26 @@ import org.openide.filesystems.FileObject;
 abstract class PMDScannerJob extends SQECodedefectScanner.Job {
 
     private static final Logger LOGGER = Logger.getLogger(PMDScannerJob.class.getName());
+    /**
+     * Active rule sets are shared by the settings, these are the ones a
+     * running scan currently visits files with.
+     */
+    private static final Set<RuleSet> RULES_IN_USE = Collections.newSetFromMap(new IdentityHashMap<RuleSet, Boolean>());
+    /**
+     * Copies of active rule sets built for worker threads, kept until the
+     * rule set is no longer used so later scans do not have to build them
+     * again. Guarded by {@link #RULES_IN_USE}.
+     */
+    private static final Map<RuleSet, Deque<RuleSets>> RULE_COPIES = new WeakHashMap<>();
     private final Project project;
 //    private PMDSession session;
     private PMDResult pmdResult;
-    private PMD pmd;
+    private RuleSet activeRules;
     private RuleSets rules;
-    private RuleContext ruleContext;
     private Report report;
     private PMDSettings settings;
+    private PMDResultCache resultCache;
+    private SourceSnapshot sourceSnapshot;
 
     PMDScannerJob(Project project) {
         this.project = project;
@@ -68,33 +104,66 @@ abstract class PMDScannerJob extends SQECodedefectScanner.Job {
         return "PMD scanning " + ProjectUtils.getInformation(getProject()).getName();
     }
 
+    @Override
+    protected String getProviderId() {
+        return PMDQualityProvider.getDefault().getId();
+    }
+
     protected final Project getProject() {
         return project;
     }
 
+    /**
+     * @return the result or <code>null</code> if the job was cancelled
+     */
     protected final PMDResult getPMDResult() {
-        return pmdResult;
+        return isCancelled() ? null : pmdResult;
     }
 
     protected final PMDSettings getPMDSettings() {
         return settings;
     }
 
-    private void init() {
-        pmd = new PMD();
+    /**
+     * @return the sources shared with the other jobs scanning the project
+     */
+    protected final SourceSnapshot getSourceSnapshot() {
+        return sourceSnapshot;
+    }
 
-        ruleContext = new RuleContext();
+    private void init() {
         report = new Report();
-        ruleContext.setReport(report);
 
-        PMDSettingsProvider settingsProvider = getProject().getLookup().lookup(PMDSettingsProvider.class);
+        settings = findSettings(getProject());
+        activeRules = settings.getActiveRules();
+        rules = new RuleSets(activeRules);
+        resultCache = createResultCache(rules);
+    }
+
+    /**
+     * @return the PMD settings of the project, falling back to the global ones
+     */
+    static PMDSettings findSettings(Project project) {
+        PMDSettings projectSettings = null;
+        PMDSettingsProvider settingsProvider = project.getLookup().lookup(PMDSettingsProvider.class);
         if (settingsProvider != null) {
-            settings = settingsProvider.getPMDSettings();
+            projectSettings = settingsProvider.getPMDSettings();
         }
-        if (settings == null) {
-            settings = PMDSettingsImpl.globalSettings();
+        if (projectSettings == null) {
+            projectSettings = PMDSettingsImpl.globalSettings();
         }
-        rules = new RuleSets(settings.getActiveRules());
+        return projectSettings;
+    }
+
+    /**
+     * Hook for jobs that want to skip files unchanged since the last scan.
+     *
+     * @param rules the rules used for this scan
+     * @return the store to take violations of unchanged files from, or null
+     * if every file has to be analyzed
+     */
+    protected PMDResultCache createResultCache(RuleSets rules) {
+        return null;
     }
 
     private LanguageVersion getSourceType(FileObject fo) {
@@ -108,7 +177,17 @@ abstract class PMDScannerJob extends SQECodedefectScanner.Job {
     protected void scan() {
         getProgressHandle().progress("Setting up PMD");
         init();
-        executePMD();
+        sourceSnapshot = SourceSnapshot.acquire(getProject());
+        try {
+            executePMD();
+        } finally {
+            sourceSnapshot.release();
+            sourceSnapshot = null;
+        }
+        if (null != resultCache && !isCancelled()) {
+            LOGGER.fine("PMD reused cached violations for " + resultCache.getHitCount() + " files");     //NOI18N
+            resultCache.store();
+        }
         this.pmdResult = new PMDResultImpl(report);
     }
 
@@ -127,36 +206,226 @@ abstract class PMDScannerJob extends SQECodedefectScanner.Job {
 
         getProgressHandle().switchToDeterminate(fullList.size());
 
-        int i = 0;
+        Queue<FileObject> pending = new ConcurrentLinkedQueue<>(fullList);
+        int threadCount = Math.min(PMDSettingsImpl.getScannerThreadCount(), fullList.size());
 
-        for (FileObject fo : fullList) {
-            Reader reader = null;
+        boolean ownsRules;
+        synchronized (RULES_IN_USE) {
+            ownsRules = RULES_IN_USE.add(activeRules);
+        }
+        List<FileAnalyzer> analyzers = null;
+        try {
+            analyzers = createAnalyzers(threadCount, ownsRules);
+            executePMD(pending, new ScanProgress(), analyzers);
+        } finally {
+            synchronized (RULES_IN_USE) {
+                if (null != analyzers) {
+                    releaseCopies(analyzers);
+                }
+                if (ownsRules) {
+                    RULES_IN_USE.remove(activeRules);
+                }
+            }
+        }
+    }
 
+    private List<FileAnalyzer> createAnalyzers(int threadCount, boolean ownsRules) {
+        List<FileAnalyzer> analyzers = new ArrayList<>(threadCount);
+        try {
+            if (ownsRules) {
+                analyzers.add(new FileAnalyzer(rules));
+            }
+            for (RuleSets copy : acquireCopies(Math.max(1, threadCount) - analyzers.size())) {
+                analyzers.add(new FileAnalyzer(copy));
+            }
+        } catch (IOException | RuleSetNotFoundException ex) {
+            if (!ownsRules) {
+                // the shared rules are visited by another scan right now
+                throw new IllegalStateException("PMD rules could not be copied for scanning " + ProjectUtils.getInformation(getProject()).getName(), ex);     //NOI18N
+            }
+            LOGGER.log(Level.INFO, "PMD rules could not be copied for parallel scanning, scanning sequentially", ex);     //NOI18N
+            analyzers.subList(1, analyzers.size()).clear();
+        }
+        return analyzers;
+    }
+
+    private void executePMD(Queue<FileObject> pending, ScanProgress progress, List<FileAnalyzer> analyzers) {
+        if (analyzers.size() == 1) {
+            analyzers.get(0).analyzeAll(pending, progress);
+        } else {
+            RequestProcessor workers = new RequestProcessor("PMD scanning " + ProjectUtils.getInformation(getProject()).getName(), analyzers.size());
+            List<Future<?>> futures = new ArrayList<>(analyzers.size());
             try {
+                for (FileAnalyzer analyzer : analyzers) {
+                    futures.add(workers.submit(() -> analyzer.analyzeAll(pending, progress)));
+                }
+            } finally {
+                // the reports of the workers are merged below, so none of them may still be running
+                awaitAll(futures);
+                workers.shutdown();
+            }
+        }
+
+        for (FileAnalyzer analyzer : analyzers) {
+            report.merge(analyzer.report);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            boolean done = false;
+            while (!done) {
                 try {
-                    reader = new BufferedReader(new InputStreamReader(
-                            fo.getInputStream(), FileEncodingQuery.getEncoding(fo)));
-                    ruleContext.setSourceCodeFilename(fo.getName());
-                    pmd.getConfiguration().setDefaultLanguageVersion(getSourceType(fo));
+                    future.get();
+                    done = true;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.WARNING, "Failure running PMD", ex.getCause());     //NOI18N
+                    done = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                    getProgressHandle().progress(i++);
-                    getProgressHandle().progress("Scanning " + fo.getName());
+    /**
+     * @return copies of the active rules no other scan is using, built if not
+     * enough of them are left from earlier scans
+     */
+    private List<RuleSets> acquireCopies(int count) throws IOException, RuleSetNotFoundException {
+        List<RuleSets> copies = new ArrayList<>(count);
+        synchronized (RULES_IN_USE) {
+            Deque<RuleSets> available = RULE_COPIES.get(activeRules);
+            while (null != available && !available.isEmpty() && copies.size() < count) {
+                copies.add(available.pop());
+            }
+        }
+        if (copies.size() < count) {
+            copies.addAll(copyOf(activeRules, count - copies.size()));
+        }
+        return copies;
+    }
 
-                    pmd.getSourceCodeProcessor().processSourceCode(reader, rules, ruleContext);
+    /**
+     * Returns the copies used by the given analyzers, the caller holds the
+     * lock of {@link #RULES_IN_USE}.
+     */
+    private void releaseCopies(List<FileAnalyzer> analyzers) {
+        Deque<RuleSets> available = RULE_COPIES.get(activeRules);
+        if (null == available) {
+            available = new ArrayDeque<>();
+            RULE_COPIES.put(activeRules, available);
+        }
+        for (FileAnalyzer analyzer : analyzers) {
+            if (analyzer.rules != rules) {
+                available.push(analyzer.rules);
+            }
+        }
+    }
 
-                    getProgressHandle().progress("Looking for next file");
-                } catch (PMDException ex) {
-                    LOGGER.warning("Failure running PMD on " + fo.getName() + " caused by " + ex.getCause().getMessage());     //NOI18N
-                } catch (FileNotFoundException ex) {
-                    LOGGER.warning("File foe FileObject could not be found: " + fo.getName());     //NOI18N
-                }
+    /**
+     * PMD rules keep state while visiting a file, so every worker thread needs
+     * its own instances. The rules are written out once and read in again for
+     * every copy which keeps all properties configured for them.
+     */
+    private static List<RuleSets> copyOf(RuleSet ruleSet, int count) throws IOException, RuleSetNotFoundException {
+        RuleSet namedRuleSet = new RuleSet();
+        namedRuleSet.setName("SQE active rules");     //NOI18N
+        namedRuleSet.setDescription("");
+        namedRuleSet.addRuleSet(ruleSet);
+
+        File ruleSetFile = File.createTempFile("sqe-pmd", ".xml");     //NOI18N
+        try {
+            RuleSetWriter writer = new RuleSetWriter(new FileOutputStream(ruleSetFile));
+            try {
+                writer.write(namedRuleSet);
             } finally {
-                if (null != reader) {
-                    try {
-                        reader.close();
-                    } catch (IOException ioex) {
+                writer.close();
+            }
+            RuleSetFactory ruleSetFactory = new RuleSetFactory();
+            ruleSetFactory.setClassLoader(Lookup.getDefault().lookup(ClassLoader.class));
+            List<RuleSets> copies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                copies.add(new RuleSets(ruleSetFactory.createRuleSet(new RuleSetReferenceId(ruleSetFile.getAbsolutePath()))));
+            }
+            return copies;
+        } finally {
+            ruleSetFile.delete();
+        }
+    }
+
+    /**
+     * Reports the files taken up by the workers, the count only ever grows
+     * as the progress handle requires.
+     */
+    private final class ScanProgress {
+
+        private int processed;
+
+        synchronized void fileStarted(FileObject fo) {
+            getProgressHandle().progress("Scanning " + fo.getName(), processed++);
+        }
+    }
+
+    /**
+     * Everything needed to run PMD on one thread.
+     */
+    private final class FileAnalyzer {
+
+        private final PMD pmd = new PMD();
+        private final RuleContext ruleContext = new RuleContext();
+        private final Report report = new Report();
+        private final RuleSets rules;
+
+        FileAnalyzer(RuleSets rules) {
+            this.rules = rules;
+        }
+
+        void analyzeAll(Queue<FileObject> pending, ScanProgress progress) {
+            FileObject fo;
+            while (!isCancelled() && null != (fo = pending.poll())) {
+                progress.fileStarted(fo);
+                analyze(fo);
+            }
+        }
+
+        private void analyze(FileObject fo) {
+            try {
+                // decoded only if there is no cached result
+                SourceSnapshot.Source source = sourceSnapshot.getSource(fo);
+                String contentHash = null;
+                if (null != resultCache) {
+                    contentHash = source.getContentHash();
+                    Collection<RuleViolation> cachedViolations = resultCache.get(fo, contentHash, rules);
+                    if (null != cachedViolations) {
+                        cachedViolations.forEach(report::addRuleViolation);
+                        return;
                     }
                 }
+
+                Report fileReport = new Report();
+                ruleContext.setReport(fileReport);
+                ruleContext.setSourceCodeFilename(fo.getName());
+                pmd.getConfiguration().setDefaultLanguageVersion(getSourceType(fo));
+
+                try (Reader reader = new StringReader(source.getText())) {
+                    pmd.getSourceCodeProcessor().processSourceCode(reader, rules, ruleContext);
+                }
+
+                report.merge(fileReport);
+                if (null != resultCache) {
+                    resultCache.put(fo, contentHash, fileReport);
+                }
+            } catch (PMDException ex) {
+                LOGGER.warning("Failure running PMD on " + fo.getName() + " caused by " + ex.getCause().getMessage());     //NOI18N
+            } catch (FileNotFoundException ex) {
+                LOGGER.warning("File foe FileObject could not be found: " + fo.getName());     //NOI18N
+            } catch (IOException ex) {
+                LOGGER.warning("Failure reading " + fo.getName() + " caused by " + ex.getMessage());     //NOI18N
             }
         }
     }
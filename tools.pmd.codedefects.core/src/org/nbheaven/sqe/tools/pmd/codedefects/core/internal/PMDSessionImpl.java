@@ -23,6 +23,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.nbheaven.sqe.codedefects.core.api.QualitySession;
 import org.nbheaven.sqe.codedefects.core.spi.AbstractQualitySession;
+import org.nbheaven.sqe.codedefects.core.spi.QualityResultStore;
 import org.nbheaven.sqe.codedefects.core.spi.SQECodedefectScanner;
 import org.nbheaven.sqe.core.utilities.SQEProjectSupport;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDQualityProvider;
@@ -52,7 +53,9 @@ import org.openide.filesystems.FileObject;
 public class PMDSessionImpl extends AbstractQualitySession<PMDQualityProvider, PMDResult> implements PMDSession {
 
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private volatile PMDScannerJob projectScannerJob;
     private PMDResult pmdResult;
+    private final PMDResultCodec resultCodec;
 
     /**
      * Creates a new instance of FindBugsSession
@@ -61,6 +64,7 @@ public class PMDSessionImpl extends AbstractQualitySession<PMDQualityProvider, P
      */
     public PMDSessionImpl(Project project) {
         super(PMDQualityProvider.getDefault(), project);
+        resultCodec = new PMDResultCodec(project);
     }
 
     private final Lock waitResultLock = new ReentrantLock();
@@ -80,11 +84,15 @@ public class PMDSessionImpl extends AbstractQualitySession<PMDQualityProvider, P
         return job.getPMDResult();
     }
 
+    public static void cancelComputeResult(FileObject sourceFile) {
+        SQECodedefectScanner.cancel(PMDQualityProvider.getDefault().getId(), sourceFile);
+    }
+
     @Override
     public PMDResult computeResultAndWait() {
         waitResultLock.lock();
         try {
-            computeResult();
+            computeResult(SQECodedefectScanner.Priority.PROJECT);
             while (isRunning.get()) {
                 waitForResult.awaitUninterruptibly();
             }
@@ -96,10 +104,24 @@ public class PMDSessionImpl extends AbstractQualitySession<PMDQualityProvider, P
 
     @Override
     public void computeResult() {
+        computeResult(SQECodedefectScanner.Priority.PROJECT);
+    }
+
+    @Override
+    public void computeResultInBackground() {
+        computeResult(SQECodedefectScanner.Priority.BACKGROUND);
+    }
+
+    private void computeResult(SQECodedefectScanner.Priority priority) {
         if (!isRunning.getAndSet(true)) {
-            PMDScannerJob job = new PMDProjectScannerJob(this);
-            SQECodedefectScanner.post(job);
+            projectScannerJob = new PMDProjectScannerJob(this);
+            SQECodedefectScanner.post(projectScannerJob, priority);
         } else {
+            // raises the priority of a scan still waiting for execution
+            PMDScannerJob job = projectScannerJob;
+            if (null != job) {
+                SQECodedefectScanner.post(job, priority);
+            }
 //            System.out.println("PMD is already running - Skip call to computeResult()");
         }
     }
@@ -107,6 +129,7 @@ public class PMDSessionImpl extends AbstractQualitySession<PMDQualityProvider, P
     void scanningDone() {
         waitResultLock.lock();
         try {
+            projectScannerJob = null;
             isRunning.set(false);
             waitForResult.signalAll();
         } finally {
@@ -114,6 +137,15 @@ public class PMDSessionImpl extends AbstractQualitySession<PMDQualityProvider, P
         }
     }
 
+    @Override
+    protected QualityResultStore.Codec<PMDResult> getResultCodec() {
+        return resultCodec;
+    }
+
+    void scanStartedInternal() {
+        scanStarted();
+    }
+
     void setResultInternal(PMDResult pmdResult) {
         setResult(pmdResult);
     }
@@ -34,6 +34,7 @@ import org.nbheaven.sqe.tools.pmd.codedefects.core.settings.PMDSettings;
 import org.openide.modules.Places;
 import org.openide.util.Exceptions;
 import org.openide.util.Lookup;
+import org.openide.util.NbPreferences;
 
 /**
  *
@@ -43,12 +44,43 @@ public final class PMDSettingsImpl implements PMDSettings {
 
     private static final File SETTINGS_DIR = new File(Places.getUserDirectory(), "config" + File.separatorChar + "pmd");
     private static final String SETTINGS_FILE = "pmd.settings";
+    private static final String SCANNER_THREADS = "scanner.threads";
+
+    private static final Map<File, PMDSettingsImpl> INSTANCES = new HashMap<File, PMDSettingsImpl>();
 
     public static PMDSettings globalSettings() {
-        return new PMDSettingsImpl(new File(SETTINGS_DIR, SETTINGS_FILE));
+        return forFile(new File(SETTINGS_DIR, SETTINGS_FILE));
+    }
+
+    /**
+     * @return the settings stored in the given file, shared with all other
+     * callers asking for the same file so the active rules are built only once
+     */
+    public static PMDSettingsImpl forFile(File file) {
+        File key = file.getAbsoluteFile();
+        synchronized (INSTANCES) {
+            PMDSettingsImpl settings = INSTANCES.get(key);
+            if (null == settings) {
+                settings = new PMDSettingsImpl(key);
+                INSTANCES.put(key, settings);
+            }
+            return settings;
+        }
+    }
+
+    /**
+     * @return the number of threads used to scan the files of a project,
+     * defaults to the number of available processors
+     */
+    public static int getScannerThreadCount() {
+        int threads = NbPreferences.forModule(PMDSettings.class).getInt(SCANNER_THREADS, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
     }
 
     private Map<String, Boolean> ruleMap;
+    private RuleSet activeRules;
+    private long settingsFileModified;
+    private long settingsFileLength;
 
     File settingsFile;
 
@@ -58,25 +90,46 @@ public final class PMDSettingsImpl implements PMDSettings {
     }
 
     @Override
-    public void activateRule(Rule rule) {
+    public synchronized void activateRule(Rule rule) {
+        refresh();
         ruleMap.remove(rule.getName());
+        activeRules = null;
         updateFile();
     }
 
     @Override
-    public void deactivateRule(Rule rule) {
+    public synchronized void deactivateRule(Rule rule) {
+        refresh();
         ruleMap.put(rule.getName(), Boolean.FALSE);
+        activeRules = null;
         updateFile();
     }
 
     @Override
-    public boolean isRuleActive(Rule rule) {
+    public synchronized boolean isRuleActive(Rule rule) {
+        refresh();
+        return isActive(rule);
+    }
+
+    private boolean isActive(Rule rule) {
         Boolean b = ruleMap.get(rule.getName());
         return null == b ? true : b.booleanValue();
     }
 
+    /**
+     * The returned rule set is kept until a rule is (de)activated or the
+     * settings file is changed on disk, so it is shared by subsequent calls.
+     */
     @Override
-    public RuleSet getActiveRules() {
+    public synchronized RuleSet getActiveRules() {
+        refresh();
+        if (null == activeRules) {
+            activeRules = createActiveRules();
+        }
+        return activeRules;
+    }
+
+    private RuleSet createActiveRules() {
         RuleSet activeRuleSet = new RuleSet();
         RuleSet ruleSet = new RuleSet();
         RuleSetFactory ruleSetFactory = new RuleSetFactory();
@@ -86,7 +139,7 @@ public final class PMDSettingsImpl implements PMDSettings {
             while (iterator.hasNext()) {
                 ruleSet = iterator.next();
                 for (Rule rule : ruleSet.getRules()) {
-                    if (isRuleActive(rule)) {
+                    if (isActive(rule)) {
                         activeRuleSet.addRule(rule);
                     }
                 }
@@ -112,9 +165,26 @@ public final class PMDSettingsImpl implements PMDSettings {
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
         }
+        rememberFileState();
+    }
+
+    /**
+     * Reads the settings again if the file was changed by someone else.
+     */
+    private void refresh() {
+        if (settingsFile.lastModified() != settingsFileModified || settingsFile.length() != settingsFileLength) {
+            readFile();
+            activeRules = null;
+        }
+    }
+
+    private void rememberFileState() {
+        settingsFileModified = settingsFile.lastModified();
+        settingsFileLength = settingsFile.length();
     }
 
     private void readFile() {
+        rememberFileState();
         ruleMap = new HashMap<String, Boolean>();
         if (settingsFile.exists()) {
             try {
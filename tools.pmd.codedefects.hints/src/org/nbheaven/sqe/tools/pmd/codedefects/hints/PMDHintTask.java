@@ -22,7 +22,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.Document;
@@ -50,6 +49,9 @@ import org.openide.util.RequestProcessor;
 final class PMDHintTask implements CancellableTask<CompilationInfo> {
 
     private static final RequestProcessor HINT_PROCESSOR = new RequestProcessor("PMD-Hint-Processor", 1);
+    private final RequestProcessor.Task computeTask = HINT_PROCESSOR.create(this::computeScheduledErrors);
+    private volatile FileObject scheduledFile;
+    private volatile Document scheduledDocument;
     private List<ErrorDescription> errors;
 
     public PMDHintTask() {
@@ -57,7 +59,10 @@ final class PMDHintTask implements CancellableTask<CompilationInfo> {
 
     @Override
     public void cancel() {
-        // TODO kill this
+        FileObject fileObject = scheduledFile;
+        if (null != fileObject) {
+            PMDSession.cancelComputeResult(fileObject);
+        }
     }
 
     @Override
@@ -70,14 +75,11 @@ final class PMDHintTask implements CancellableTask<CompilationInfo> {
                     System.out.println("PMDHintTask: (calc) " + System.identityHashCode(fileObject));
                     final Document document = compilationInfo.getDocument();
                     if (null != document) {
-                        HINT_PROCESSOR.post(() -> {
-                            try {
-                                errors = computeErrors(fileObject, document);
-                                PMDHintTaskFactory.rescheduleFile(fileObject);
-                            } catch (Exception ex) {
-                                Exceptions.printStackTrace(ex);
-                            }
-                        });
+                        // a newer request replaces a pending or running one for this file
+                        PMDSession.cancelComputeResult(fileObject);
+                        scheduledFile = fileObject;
+                        scheduledDocument = document;
+                        computeTask.schedule(0);
                     } else {
                         errors = Collections.emptyList();
                     }
@@ -93,24 +95,38 @@ final class PMDHintTask implements CancellableTask<CompilationInfo> {
         }
     }
 
+    private void computeScheduledErrors() {
+        FileObject fileObject = scheduledFile;
+        Document document = scheduledDocument;
+        try {
+            List<ErrorDescription> computedErrors = computeErrors(fileObject, document);
+            if (null != computedErrors) {
+                errors = computedErrors;
+                PMDHintTaskFactory.rescheduleFile(fileObject);
+            }
+        } catch (Exception ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * @return the errors found or <code>null</code> if the scan was
+     * cancelled or replaced by a newer one
+     */
     private static List<ErrorDescription> computeErrors(FileObject fileObject, Document document) throws Exception {
         PMDResult result = PMDSession.computeResultAndWait(fileObject);
         if (result != null) {
             List<ErrorDescription> computedErrors = new LinkedList<>();
             Project project = FileOwnerQuery.getOwner(fileObject);
 
-            // XXX see comment in ClassKey constructor
-            Map<PMDResult.ClassKey, Collection<RuleViolation>> instanceByClass = result.getInstanceByClass();
-            instanceByClass.keySet().stream()
-                    .filter((classKey) -> (classKey.getFileObject().equals(fileObject)))
-                    .map((classKey) -> instanceByClass.get(classKey))
-                    .forEach((bugs) -> {
-                        computedErrors.addAll(createErrorDescription(project, fileObject, document, bugs));
-                    });
+            Collection<RuleViolation> ruleViolations = result.getInstanceByFile().get(fileObject);
+            if (null != ruleViolations) {
+                computedErrors.addAll(createErrorDescription(project, fileObject, document, ruleViolations));
+            }
 
             return computedErrors;
         }
-        return Collections.emptyList();
+        return null;
     }
 
     private static List<ErrorDescription> createErrorDescription(Project project, FileObject fileObject, Document document, Collection<RuleViolation> ruleViolations) {
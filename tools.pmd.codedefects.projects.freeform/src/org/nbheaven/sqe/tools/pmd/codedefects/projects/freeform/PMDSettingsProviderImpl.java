@@ -57,7 +57,7 @@ public class PMDSettingsProviderImpl implements PMDSettingsProvider {
     @Override
     public PMDSettings getPMDSettings() {
         File pmdSettingsFile = getPMDSettingsFile();
-        return new PMDSettingsImpl(pmdSettingsFile);
+        return PMDSettingsImpl.forFile(pmdSettingsFile);
     }
 
     private Preferences prefs() {
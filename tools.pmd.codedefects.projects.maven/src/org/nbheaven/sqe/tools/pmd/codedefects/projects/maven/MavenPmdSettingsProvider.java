@@ -18,7 +18,9 @@
 package org.nbheaven.sqe.tools.pmd.codedefects.projects.maven;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import net.sourceforge.pmd.Rule;
 import net.sourceforge.pmd.RulePriority;
 import net.sourceforge.pmd.RuleSet;
@@ -37,16 +39,28 @@ import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
 import org.openide.util.Exceptions;
 import org.openide.util.Lookup;
+import org.openide.util.RequestProcessor;
 
 /**
+ * Reads the PMD rules from the configuration of the maven-pmd-plugin. The
+ * rules are built once per loaded POM and only from what is found in the
+ * local repository, missing plugin artifacts are downloaded in the
+ * background for the next scan.
  *
  * @author Martin Klähn
  */
 @ProjectServiceProvider(service = PMDSettingsProvider.class, projectType = "org-netbeans-modules-maven")
 public class MavenPmdSettingsProvider implements PMDSettingsProvider {
 
+    private static final String PLUGIN_GROUP_ID = "org.apache.maven.plugins";
+    private static final String PLUGIN_ARTIFACT_ID = "maven-pmd-plugin";
+    private static final RequestProcessor REFRESH_PROCESSOR = new RequestProcessor("Maven PMD plugin resolver", 1);
+
     private final Project p;
     private PMDIncludes includes;
+    private final Object cacheLock = new Object();
+    private CachedSettings cachedSettings;
+    private Object refreshedRevision;
 
     public MavenPmdSettingsProvider(Project project) {
         this.p = project;
@@ -55,104 +69,169 @@ public class MavenPmdSettingsProvider implements PMDSettingsProvider {
 
     @Override
     public PMDSettings getPMDSettings() {
-        final MavenPluginConfiguration pluginConfiguration = MavenUtilities.getReportPluginConfiguration(p, "org.apache.maven.plugins", "maven-pmd-plugin");
-        if (pluginConfiguration.isDefinedInProject()) {
-            RuleSetFactory rsf = new RuleSetFactory();
-            rsf.setClassLoader(Lookup.getDefault().lookup(ClassLoader.class));
-            final RuleSet toRet = new RuleSet();
-            String[] ruleSets = pluginConfiguration.getStringListValue("rulesets", "ruleset");
-            if (ruleSets == null) {
-                ruleSets = MavenDefaults.DEFAULT_RULESETS;
+        Object revision = MavenUtilities.getModelRevision(p);
+        synchronized (cacheLock) {
+            if (null != cachedSettings && cachedSettings.isValidFor(revision)) {
+                return cachedSettings.settings;
+            }
+        }
+        CachedSettings loaded = loadSettings(revision);
+        synchronized (cacheLock) {
+            cachedSettings = loaded;
+            if (!loaded.complete && revision != refreshedRevision) {
+                refreshedRevision = revision;
+                REFRESH_PROCESSOR.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        MavenUtilities.findDependencyArtifacts(p, PLUGIN_GROUP_ID, PLUGIN_ARTIFACT_ID, true, true);
+                        synchronized (cacheLock) {
+                            cachedSettings = null;
+                        }
+                    }
+                });
             }
-            List<File> deps = MavenUtilities.findDependencyArtifacts(p, "org.apache.maven.plugins", "maven-pmd-plugin", true);
-            for (String setString : ruleSets) {
-                String nonLeadingSlash = setString.startsWith("/") ? setString.substring(1) : setString;
-                //check is file is physically present in the project
-                File file = FileUtilities.resolveFilePath(FileUtil.toFile(p.getProjectDirectory()), setString);
-                FileObject fo = null;
-                if (file == null || !file.exists()) {
-                    //check the default configurations present in the maven-pmd-plugin
-                    //check is file is present in the project's pmd plugin classpath
-                    if (deps.size() > 0) {
-                        for (File d : deps) {
-                            FileObject fileFO = FileUtil.toFileObject(d);
-                            if (FileUtil.isArchiveFile(fileFO)) {
-                                FileObject root = FileUtil.getArchiveRoot(fileFO);
-                                if (root != null) {
-                                    fo = root.getFileObject(nonLeadingSlash);
-                                    if (fo != null) {
-                                        break;
-                                    }
+        }
+        return loaded.settings;
+    }
+
+    private CachedSettings loadSettings(Object revision) {
+        final MavenPluginConfiguration pluginConfiguration = MavenUtilities.getReportPluginConfiguration(p, PLUGIN_GROUP_ID, PLUGIN_ARTIFACT_ID);
+        if (!pluginConfiguration.isDefinedInProject()) {
+            return new CachedSettings(revision, null, new HashMap<File, Long>(), true);
+        }
+        RuleSetFactory rsf = new RuleSetFactory();
+        rsf.setClassLoader(Lookup.getDefault().lookup(ClassLoader.class));
+        final RuleSet toRet = new RuleSet();
+        Map<File, Long> ruleSetFiles = new HashMap<File, Long>();
+        boolean complete = true;
+        String[] ruleSets = pluginConfiguration.getStringListValue("rulesets", "ruleset");
+        if (ruleSets == null) {
+            ruleSets = MavenDefaults.DEFAULT_RULESETS;
+        }
+        List<File> deps = MavenUtilities.findDependencyArtifacts(p, PLUGIN_GROUP_ID, PLUGIN_ARTIFACT_ID, true, false);
+        for (String setString : ruleSets) {
+            String nonLeadingSlash = setString.startsWith("/") ? setString.substring(1) : setString;
+            //check is file is physically present in the project
+            File file = FileUtilities.resolveFilePath(FileUtil.toFile(p.getProjectDirectory()), setString);
+            FileObject fo = null;
+            if (file == null || !file.exists()) {
+                //check the default configurations present in the maven-pmd-plugin
+                //check is file is present in the project's pmd plugin classpath
+                if (deps.size() > 0) {
+                    for (File d : deps) {
+                        FileObject fileFO = FileUtil.toFileObject(d);
+                        if (FileUtil.isArchiveFile(fileFO)) {
+                            FileObject root = FileUtil.getArchiveRoot(fileFO);
+                            if (root != null) {
+                                fo = root.getFileObject(nonLeadingSlash);
+                                if (fo != null) {
+                                    break;
                                 }
                             }
                         }
                     }
-                } else {
-                    fo = FileUtil.toFileObject(file);
-                }
-                if (fo != null) {
-                    try {
-                        RuleSetReferenceId id = new RuleSetReferenceId(fo.getPath());
-                        toRet.addRuleSet(rsf.createRuleSet(id));
-                    } catch (RuleSetNotFoundException ex) {
-                        Exceptions.printStackTrace(ex);
-                    }
-                } else if (!setString.startsWith("/")) {
-                    try {
-                        RuleSetReferenceId id = new RuleSetReferenceId(setString);
-                        toRet.addRuleSet(rsf.createRuleSet(id));
-                    } catch (RuleSetNotFoundException ex) {
-//                        ex.printStackTrace();
-                        Exceptions.printStackTrace(ex);
-                    }
                 }
+            } else {
+                fo = FileUtil.toFileObject(file);
+                ruleSetFiles.put(file, file.lastModified());
             }
-            return new PMDSettings() {
-
-                @Override
-                public void activateRule(Rule rule) {
+            if (fo != null) {
+                try {
+                    RuleSetReferenceId id = new RuleSetReferenceId(fo.getPath());
+                    toRet.addRuleSet(rsf.createRuleSet(id));
+                } catch (RuleSetNotFoundException ex) {
+                    Exceptions.printStackTrace(ex);
                 }
-
-                @Override
-                public void deactivateRule(Rule rule) {
+            } else if (!setString.startsWith("/")) {
+                try {
+                    RuleSetReferenceId id = new RuleSetReferenceId(setString);
+                    toRet.addRuleSet(rsf.createRuleSet(id));
+                } catch (RuleSetNotFoundException ex) {
+                    // may be part of a plugin artifact not downloaded yet
+                    complete = false;
+                    Exceptions.printStackTrace(ex);
                 }
+            } else {
+                complete = false;
+            }
+        }
 
-                @Override
-                public boolean isRuleActive(Rule rule) {
-                    return true;
-                }
+        //the default as defined in maven pmd plugin
+        int minimumPriority = MavenDefaults.DEFAULT_RULE_PRIORITY;
+        String priorityLevelString = pluginConfiguration.getValue("minimumPriority");
+        if (priorityLevelString != null) {
+            try {
+                minimumPriority = Integer.parseInt(priorityLevelString);
+            } catch (NumberFormatException e) {
+                //just swallow..
+            }
+        }
+        final RuleSet activeRuleSet = new RuleSet();
+        for (Rule rule : toRet.getRules()) {
+            if (rule.getPriority().compareTo(RulePriority.valueOf(minimumPriority)) <= 0) {
+                activeRuleSet.addRule(rule);
+            }
+        }
 
-                @Override
-                public RuleSet getActiveRules() {
-                    RuleSet activeRuleSet = new RuleSet();
-                    //the default as defined in maven pmd plugin
-                    int minimumPriority = MavenDefaults.DEFAULT_RULE_PRIORITY;
-                    String priorityLevelString = pluginConfiguration.getValue("minimumPriority");
-                    if (priorityLevelString != null) {
-                        try {
-                            minimumPriority = Integer.parseInt(priorityLevelString);
-                        } catch (NumberFormatException e) {
-                            //just swallow..
-                        }
-                    }
+        PMDSettings settings = new PMDSettings() {
 
-                    for (Rule rule : toRet.getRules()) {
-                        if (rule.getPriority().compareTo(RulePriority.valueOf(minimumPriority)) <= 0) {
-                            activeRuleSet.addRule(rule);
-                        } else {
-                        }
-                    }
+            @Override
+            public void activateRule(Rule rule) {
+            }
 
-                    return activeRuleSet;
+            @Override
+            public void deactivateRule(Rule rule) {
+            }
 
-                }
-            };
-        }
-        return null;
+            @Override
+            public boolean isRuleActive(Rule rule) {
+                return true;
+            }
+
+            @Override
+            public RuleSet getActiveRules() {
+                return activeRuleSet;
+            }
+        };
+        return new CachedSettings(revision, settings, ruleSetFiles, complete);
     }
 
     @Override
     public PMDIncludes getPMDIncludes() {
         return includes;
     }
+
+    /**
+     * The settings read for one revision of the project model.
+     */
+    private static final class CachedSettings {
+
+        private final Object revision;
+        private final PMDSettings settings;
+        private final Map<File, Long> ruleSetFiles;
+        private final boolean complete;
+
+        CachedSettings(Object revision, PMDSettings settings, Map<File, Long> ruleSetFiles, boolean complete) {
+            this.revision = revision;
+            this.settings = settings;
+            this.ruleSetFiles = ruleSetFiles;
+            this.complete = complete;
+        }
+
+        /**
+         * @return whether the model was not reloaded and no ruleset file of
+         * the project was changed since the settings were read
+         */
+        boolean isValidFor(Object currentRevision) {
+            if (revision != currentRevision) {
+                return false;
+            }
+            for (Map.Entry<File, Long> entry : ruleSetFiles.entrySet()) {
+                if (entry.getKey().lastModified() != entry.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
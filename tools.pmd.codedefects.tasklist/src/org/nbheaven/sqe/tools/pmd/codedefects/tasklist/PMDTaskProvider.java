@@ -17,17 +17,21 @@
  */
 package org.nbheaven.sqe.tools.pmd.codedefects.tasklist;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import net.sourceforge.pmd.RuleViolation;
 import org.nbheaven.sqe.codedefects.core.util.SQECodedefectSupport;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult;
-import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDResult.ClassKey;
 import org.nbheaven.sqe.tools.pmd.codedefects.core.PMDSession;
-import org.nbheaven.sqe.core.java.search.SearchUtilities;
 import org.netbeans.api.java.source.JavaSource;
 import org.netbeans.api.project.FileOwnerQuery;
 import org.netbeans.api.project.Project;
@@ -35,62 +39,67 @@ import org.netbeans.spi.tasklist.PushTaskScanner;
 import org.netbeans.spi.tasklist.Task;
 import org.netbeans.spi.tasklist.TaskScanningScope;
 import org.openide.filesystems.FileObject;
+import org.openide.util.RequestProcessor;
 
 /**
+ * Pushes the rule violations of the current PMD results to the tasklist.
+ * Tasks are pushed asynchronously: a cached result is pushed right away,
+ * otherwise a scan is started and its result pushed once available. Later
+ * results only update the files whose tasks changed.
  *
  * @author Sven Reimers
  */
 public final class PMDTaskProvider extends PushTaskScanner {
 
+    private static final RequestProcessor TASK_PROCESSOR = new RequestProcessor("PMD-Task-Processor", 1);
+
+    private final Map<PMDSession, SessionTasks> sessionTasks = new HashMap<>();
+
     public PMDTaskProvider() {
         super("PMD", "PMD found Errors", null);
     }
 
     @Override
     public synchronized void setScope(TaskScanningScope taskScanningScope, Callback callback) {
+        for (SessionTasks tasks : sessionTasks.values()) {
+            tasks.detach();
+        }
+        sessionTasks.clear();
         if (taskScanningScope == null || callback == null) {
             return;
         }
 
         for (FileObject fileObject : taskScanningScope.getLookup().lookupAll(FileObject.class)) {
-
             if (SQECodedefectSupport.isQualityProviderEnabledForFileObject(fileObject, PMDSession.class) && null != JavaSource.forFileObject(fileObject)) {
-                PMDResult result = getResult(fileObject);
-                if (result == null) {
-                    continue;
+                PMDSession qualitySession = SQECodedefectSupport.retrieveSession(FileOwnerQuery.getOwner(fileObject), PMDSession.class);
+                if (null != qualitySession) {
+                    getSessionTasks(qualitySession, callback).addFile(fileObject);
                 }
-
-                Map<ClassKey, Collection<RuleViolation>> instanceByClass = result.getInstanceByClass();
-                Collection<String> classes = SearchUtilities.getFQNClassNames(fileObject);
-                List<Task> tasks = new LinkedList<>();
-                for (String className : classes) {
-                    for (ClassKey classKey : instanceByClass.keySet()) {
-                        if (classKey.getClassName().equals(className)) {
-                            Collection<RuleViolation> bugs = instanceByClass.get(classKey);
-                            tasks.addAll(getTasks(bugs, fileObject));
-                        }
-                    }
-                }
-                callback.setTasks(fileObject, tasks);
             }
         }
 
         for (Project project : taskScanningScope.getLookup().lookupAll(Project.class)) {
-            PMDResult result = getResult(project);
-            if (result != null) {
-                List<Task> tasks = new LinkedList<>();
-                for (Map.Entry<ClassKey, Collection<RuleViolation>> classKey : result.getInstanceByClass().entrySet()) {
-                    tasks.addAll(getTasks(classKey.getValue(), classKey.getKey().getFileObject()));
-                }
-                callback.setTasks(project.getProjectDirectory(), tasks);
+            PMDSession qualitySession = SQECodedefectSupport.retrieveSession(project, PMDSession.class);
+            if (null != qualitySession) {
+                getSessionTasks(qualitySession, callback).addAllFiles();
             }
         }
+
+        for (SessionTasks tasks : sessionTasks.values()) {
+            tasks.attach();
+        }
     }
 
-    private List<Task> getTasks(Collection<RuleViolation> bugs, FileObject file) {
-        if (file == null) {
-            return Collections.emptyList();
+    private SessionTasks getSessionTasks(PMDSession qualitySession, Callback callback) {
+        SessionTasks tasks = sessionTasks.get(qualitySession);
+        if (null == tasks) {
+            tasks = new SessionTasks(qualitySession, callback);
+            sessionTasks.put(qualitySession, tasks);
         }
+        return tasks;
+    }
+
+    private static List<Task> getTasks(Collection<RuleViolation> bugs, FileObject file) {
         List<Task> tasks = new LinkedList<>();
         for (RuleViolation ruleViolation : bugs) {
             tasks.add(Task.create(file, "sqe-tasklist-pmd", ruleViolation.getDescription(), ruleViolation.getBeginLine()));
@@ -98,21 +107,103 @@ public final class PMDTaskProvider extends PushTaskScanner {
         return tasks;
     }
 
-    private PMDResult getResult(FileObject fileObject) {
-        return getResult(FileOwnerQuery.getOwner(fileObject));
+    /**
+     * @return what the tasks of the given rule violations show, equal
+     * signatures mean equal tasks
+     */
+    private static List<String> getSignature(Collection<RuleViolation> bugs) {
+        List<String> signature = new ArrayList<>(bugs.size());
+        for (RuleViolation ruleViolation : bugs) {
+            signature.add(ruleViolation.getBeginLine() + ":" + ruleViolation.getDescription());
+        }
+        return signature;
     }
 
-    private PMDResult getResult(Project project) {
-        PMDSession qualitySession = SQECodedefectSupport.retrieveSession(project, PMDSession.class);
+    /**
+     * The tasks pushed for the files of one session in the current scope.
+     */
+    private static final class SessionTasks implements ChangeListener<PMDResult> {
+
+        private final PMDSession qualitySession;
+        private final Callback callback;
+        /**
+         * The files in scope, <code>null</code> if the whole project is.
+         */
+        private Set<FileObject> files = new HashSet<>();
+        private Map<FileObject, List<String>> pushed;
+        private volatile boolean detached;
+
+        SessionTasks(PMDSession qualitySession, Callback callback) {
+            this.qualitySession = qualitySession;
+            this.callback = callback;
+        }
+
+        void addFile(FileObject fileObject) {
+            if (null != files) {
+                files.add(fileObject);
+            }
+        }
+
+        void addAllFiles() {
+            files = null;
+        }
+
+        void attach() {
+            qualitySession.getResultProperty().addListener(this);
+            TASK_PROCESSOR.post(() -> {
+                PMDResult result = qualitySession.getResult();
+                if (null != result) {
+                    push(result);
+                } else if (!detached) {
+                    qualitySession.computeResultInBackground();
+                }
+            });
+        }
+
+        void detach() {
+            detached = true;
+            qualitySession.getResultProperty().removeListener(this);
+        }
 
-        PMDResult result = null;
-        if (qualitySession != null) {
-            result = qualitySession.getResult();
-            if (null == result) {
-                result = qualitySession.computeResultAndWait();
+        @Override
+        public void changed(ObservableValue<? extends PMDResult> observable, PMDResult oldValue, PMDResult newValue) {
+            if (null != newValue) {
+                TASK_PROCESSOR.post(() -> push(newValue));
             }
+        }
 
+        private synchronized void push(PMDResult result) {
+            if (detached) {
+                return;
+            }
+            boolean initial = null == pushed;
+            if (initial) {
+                pushed = new HashMap<>();
+            }
+            Map<FileObject, Collection<RuleViolation>> instanceByFile = result.getInstanceByFile();
+            Set<FileObject> targets = files;
+            if (null == targets) {
+                targets = new HashSet<>(instanceByFile.keySet());
+                targets.addAll(pushed.keySet());
+            }
+            for (FileObject file : targets) {
+                Collection<RuleViolation> ruleViolations = instanceByFile.get(file);
+                List<String> signature = null != ruleViolations ? getSignature(ruleViolations) : Collections.<String>emptyList();
+                List<String> previous = pushed.get(file);
+                boolean changed = initial
+                        // files asked for explicitly get their (maybe empty) tasks once
+                        ? null != files || !signature.isEmpty()
+                        : !signature.equals(null != previous ? previous : Collections.<String>emptyList());
+                if (!changed) {
+                    continue;
+                }
+                callback.setTasks(file, null != ruleViolations ? getTasks(ruleViolations, file) : Collections.<Task>emptyList());
+                if (signature.isEmpty()) {
+                    pushed.remove(file);
+                } else {
+                    pushed.put(file, signature);
+                }
+            }
         }
-        return result;
     }
 }